@@ -0,0 +1,73 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * ALU Benchmark - The ALU operations the instructions use, on 16 bit registers. The operands are reset before each
+ * operation since multiply and divide write their results back into them
+ */
+
+package benchmarks;
+
+import ALU.ALU;
+import CPU.Register;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AluBenchmark {
+
+    private final ALU alu = new ALU();
+    private final Register rx = new Register("RX", 16, true);
+    private final Register ry = new Register("RY", 16, true);
+    private final Register rz = new Register("RZ", 16, true);
+
+    @Benchmark
+    public int add() {
+        rx.setValue(1234);
+        alu.add(rz, rx, 4321);
+        return rz.getValue();
+    }
+
+    @Benchmark
+    public int multiply() {
+        rx.setValue(-1234);
+        ry.setValue(321);
+        alu.multiply(rx, ry, rz);
+        return rx.getValue() + rz.getValue();
+    }
+
+    @Benchmark
+    public int divide() {
+        rx.setValue(32000);
+        ry.setValue(-123);
+        alu.divide(rx, ry, rz);
+        return rx.getValue() + rz.getValue();
+    }
+
+    @Benchmark
+    public int logicalAnd() {
+        rx.setValue(0x5A5A);
+        ry.setValue(0x0FF0);
+        return alu.logicalAnd(rx, ry);
+    }
+
+    @Benchmark
+    public int shift() {
+        rx.setValue(-12345);
+        return alu.shift(rx, 5, 0, 0);
+    }
+}
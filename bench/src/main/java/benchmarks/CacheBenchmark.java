@@ -0,0 +1,114 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Cache Benchmark - Cache lookups on their own (read and write), for several shapes and policies, over the same
+ * address stream as MemoryBenchmark. The cache sits in front of a plain array so only the cache is measured
+ */
+
+package benchmarks;
+
+import Memory.Cache;
+import Memory.CacheConfig;
+import Memory.MemoryLevel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CacheBenchmark {
+
+    @Param({
+            "lines=16,block=4,ways=1",
+            "lines=16,block=4,ways=4,replace=lru",
+            "lines=16,block=4,replace=fifo",
+            "lines=64,block=8,ways=8,replace=random,write=back"
+    })
+    public String config;
+
+    private Cache cache;
+    private int[] addresses;
+
+    @Setup
+    public void setUp() {
+        cache = new Cache("L1", CacheConfig.parse(config), new ArrayLevel(2048));
+        addresses = MemoryBenchmark.addressStream(100, 2000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MemoryBenchmark.ACCESSES)
+    public int read() {
+        int sum = 0;
+        for (int address : addresses) {
+            sum += cache.read(address);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MemoryBenchmark.ACCESSES)
+    public void write() {
+        for (int i = 0; i < addresses.length; i++) {
+            cache.write(addresses[i], i);
+        }
+    }
+
+    /**
+     * A level with no latency model: just an array
+     */
+    private static class ArrayLevel implements MemoryLevel {
+        private final int[] words;
+
+        ArrayLevel(int size) { words = new int[size]; }
+
+        @Override
+        public int read(int address) { return words[address]; }
+
+        @Override
+        public void write(int address, int value) { words[address] = value; }
+
+        @Override
+        public void readBlock(int address, int[] into, int start, int length) {
+            System.arraycopy(words, address, into, start, length);
+        }
+
+        @Override
+        public void writeBlock(int address, int[] from, int start, int length) {
+            System.arraycopy(from, start, words, address, length);
+        }
+
+        @Override
+        public void account(int address, int length) {}
+
+        @Override
+        public int peek(int address) { return words[address]; }
+
+        @Override
+        public String getName() { return "array"; }
+
+        @Override
+        public int getLatency() { return 0; }
+
+        @Override
+        public long getAccesses() { return 0; }
+
+        @Override
+        public void resetStatistics() {}
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Decode Benchmark - Compares the cost of decoding an instruction word
+ * * strings: the old CPU.parseInstruction (binary string + 8 Integer.parseInt calls)
+ * * shifts: pulling the fields out with shifts and masks on every decode
+ * * table: Decoder.decode (one array load into the precomputed table)
+ *
+ * The words are a shuffled stream from a fixed seed so the branch predictor can't learn the order
+ */
+
+package benchmarks;
+
+import CPU.DecodedInstruction;
+import CPU.Decoder;
+import Common.Utilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DecodeBenchmark {
+
+    private static final int WORDS = 1 << 12;
+
+    private int[] words;
+
+    @Setup
+    public void setUp() {
+        words = new int[WORDS];
+        Random random = new Random(6461);
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = random.nextInt(1 << 16);
+        }
+    }
+
+    // What CPU.parseInstruction used to do for every instruction
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public long strings() {
+        long sum = 0;
+        for (int word : words) {
+            String binary = Utilities.intToSignedBinary(word, 16);
+            sum += Integer.parseInt(binary.substring(0, 6), 2);
+            sum += Integer.parseInt(binary.substring(6, 8), 2);
+            sum += Integer.parseInt(binary.substring(8, 10), 2);
+            sum += Integer.parseInt(binary.substring(10, 11), 2);
+            sum += Integer.parseInt(binary.substring(11), 2);
+            sum += Integer.parseInt(binary.substring(8, 9), 2);
+            sum += Integer.parseInt(binary.substring(9, 10), 2);
+            sum += Integer.parseInt(binary.substring(12), 2);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public long shifts() {
+        long sum = 0;
+        for (int word : words) {
+            sum += (word >>> 10) & 0x3F;
+            sum += (word >>> 8) & 0x3;
+            sum += (word >>> 6) & 0x3;
+            sum += (word >>> 5) & 0x1;
+            sum += word & 0x1F;
+            sum += (word >>> 7) & 0x1;
+            sum += (word >>> 6) & 0x1;
+            sum += word & 0xF;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public long table() {
+        long sum = 0;
+        for (int word : words) {
+            DecodedInstruction d = Decoder.decode(word);
+            sum += d.opcode + d.r + d.ix + d.indirect + d.address + d.al + d.lr + d.count;
+        }
+        return sum;
+    }
+}
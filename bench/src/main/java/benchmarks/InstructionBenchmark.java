@@ -0,0 +1,75 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Instruction Benchmark - The decode/execute paths of Instruction for a mix of register and memory instructions,
+ * through the enum constants (virtual calls) and through the static int switches
+ *
+ * The CPU is left in the state of the loop in Programs.loopMachine; only the dispatch and the instruction bodies
+ * are measured, not fetching or decoding the word.
+ */
+
+package benchmarks;
+
+import CPU.CPU;
+import CPU.Instruction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstructionBenchmark {
+
+    // LDR, AMR, AIR, SIR, JZ, TRR, AND, ORR, NOT, SRC, RRC: none of them fault or touch devices
+    private static final int[] OPCODES = { 1, 4, 6, 7, 8, 18, 19, 20, 21, 25, 26 };
+
+    private CPU cpu;
+    private Instruction[] instructions;
+
+    @Setup
+    public void setUp() {
+        cpu = Programs.loopMachine().getCpu();
+        for (int i = 0; i < 10; i++) {
+            cpu.singleInstructionCycle();
+        }
+        instructions = new Instruction[OPCODES.length];
+        for (int i = 0; i < OPCODES.length; i++) {
+            instructions[i] = Instruction.getInstruction(OPCODES[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(11)
+    public int enumDecodeExecute() {
+        for (Instruction instruction : instructions) {
+            instruction.decode(cpu);
+            instruction.execute(cpu);
+        }
+        return cpu.getIrr().getValue();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(11)
+    public int switchDecodeExecute() {
+        for (int opcode : OPCODES) {
+            Instruction.decode(opcode, cpu);
+            Instruction.execute(opcode, cpu);
+        }
+        return cpu.getIrr().getValue();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Instruction Cycle Benchmark - One CPU.singleInstructionCycle (fetch, decode, operand, execute, deposit) of the
+ * loop in Programs.loopMachine, under each DispatchMode
+ */
+
+package benchmarks;
+
+import CPU.CPU;
+import CPU.DispatchMode;
+import Machine.Machine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstructionCycleBenchmark {
+
+    @Param({ "ENUM", "SWITCH" })
+    public DispatchMode dispatch;
+
+    private CPU cpu;
+
+    @Setup
+    public void setUp() {
+        Machine machine = Programs.loopMachine();
+        cpu = machine.getCpu();
+        cpu.setDispatchMode(dispatch);
+    }
+
+    @Benchmark
+    public int singleInstructionCycle() {
+        cpu.singleInstructionCycle();
+        return cpu.getPc().getValue();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Load Benchmark - IPL of program2 from the hex text file and from its binary program image (see ProgramImage),
+ * into a machine that is already booted
+ */
+
+package benchmarks;
+
+import Machine.Machine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LoadBenchmark {
+
+    @Param({ "txt", "img" })
+    public String format;
+
+    private File programFile;
+    private Machine machine;
+
+    @Setup
+    public void setUp() {
+        programFile = Programs.extract("program2." + format);
+        machine = new Machine();
+        machine.boot();
+    }
+
+    @Benchmark
+    public Machine initialProgramLoad() throws IOException {
+        machine.initialProgramLoad(programFile);
+        return machine;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Benchmark - Memory.load/store over a fixed address stream, through different memory hierarchies
+ * (see MemoryHierarchy). Half of the stream walks through memory, half jumps around, from a fixed seed
+ */
+
+package benchmarks;
+
+import Memory.Memory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MemoryBenchmark {
+
+    static final int ACCESSES = 4096;
+
+    @Param({
+            "off",
+            "l1:lines=16,block=4",
+            "l1i:lines=16,block=4;l1d:lines=16,block=4,write=back;l2:lines=128,block=8,ways=4,write=back"
+    })
+    public String hierarchy;
+
+    private Memory memory;
+    private int[] addresses;
+
+    @Setup
+    public void setUp() {
+        memory = new Memory();
+        memory.setHierarchy(hierarchy);
+        addresses = addressStream(100, 2000);
+    }
+
+    /**
+     * Addresses in [low, high): runs of consecutive words alternating with random jumps
+     */
+    static int[] addressStream(int low, int high) {
+        int[] addresses = new int[ACCESSES];
+        Random random = new Random(6461);
+        int address = low;
+        for (int i = 0; i < ACCESSES; i++) {
+            if (i % 16 < 8) {
+                address = address + 1 < high ? address + 1 : low;
+            } else {
+                address = low + random.nextInt(high - low);
+            }
+            addresses[i] = address;
+        }
+        return addresses;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int load() {
+        int sum = 0;
+        for (int address : addresses) {
+            sum += memory.load(address);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void store() {
+        for (int i = 0; i < addresses.length; i++) {
+            memory.store(i, addresses[i]);
+        }
+    }
+}
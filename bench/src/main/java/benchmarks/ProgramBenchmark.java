@@ -0,0 +1,114 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Program Benchmark - Full runs of program1 and program2 with scripted keyboard input (see Programs): a new
+ * machine, boot, IPL (and the paragraph for program2), then run to halt, under each DispatchMode, with and without
+ * superinstructions (fuse, which only changes the block modes). rerun runs the program again from a checkpoint of the
+ * loaded machine instead (see Checkpoint)
+ *
+ * compute is a compute-bound loop with no I/O (two nested SOB loops of loads, stores and adds, about 6 million
+ * instructions), where the block modes have the most to gain. Each program runs behind the default L1 cache and
+ * with the hierarchy off, where COMPILED reads memory directly (see BlockCompiler)
+ */
+
+package benchmarks;
+
+import CPU.Checkpoint;
+import CPU.DispatchMode;
+import Machine.Machine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProgramBenchmark {
+
+    @Param({ "program1", "program2", "compute" })
+    public String program;
+
+    @Param({ "ENUM", "SWITCH", "BLOCK", "COMPILED" })
+    public DispatchMode dispatch;
+
+    @Param({ "false", "true" })
+    public boolean fuse;
+
+    @Param({ "l1:lines=16", "off" })
+    public String hierarchy;
+
+    private File programFile;
+    private File paragraphFile;
+    private String[] input;
+
+    private Machine loaded;
+    private Checkpoint checkpoint;
+
+    @Setup
+    public void setUp() {
+        programFile = Programs.extract(program + ".txt");
+        if (program.equals("program2")) {
+            paragraphFile = Programs.extract("paragraph.txt");
+            input = Programs.PROGRAM2_INPUT;
+        } else if (program.equals("program1")) {
+            input = Programs.PROGRAM1_INPUT;
+        } else {
+            input = new String[0];
+        }
+
+        loaded = new Machine();
+        loaded.getMemory().setHierarchy(hierarchy);
+        loaded.getCpu().setDispatchMode(dispatch);
+        loaded.getCpu().setFusion(fuse);
+        loaded.boot();
+        try {
+            loaded.initialProgramLoad(programFile);
+            if (paragraphFile != null) {
+                loaded.loadParagraph(paragraphFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpoint = loaded.checkpoint();
+    }
+
+    @Benchmark
+    public long run() throws IOException {
+        try (Machine machine = new Machine()) {
+            machine.setObserver(new Programs.ScriptedKeyboard(input));
+            machine.getMemory().setHierarchy(hierarchy);
+            machine.getCpu().setDispatchMode(dispatch);
+            machine.getCpu().setFusion(fuse);
+            machine.boot();
+            machine.initialProgramLoad(programFile);
+            if (paragraphFile != null) {
+                machine.loadParagraph(paragraphFile);
+            }
+            return machine.runToHalt(Long.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public long rerun() {
+        loaded.setObserver(new Programs.ScriptedKeyboard(input));
+        loaded.restore(checkpoint);
+        return loaded.runToHalt(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Programs - The sample programs and their scripted keyboard input, shared by the benchmarks
+ *
+ * The programs come from the simulator jar (programs/ on the classpath) and are copied to temporary files, since
+ * Machine loads programs from files. That way the benchmarks don't depend on the working directory.
+ */
+
+package benchmarks;
+
+import CPU.MachineObserver;
+import Machine.Machine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+final class Programs {
+
+    // program1: 20 numbers, then the number to compare them to
+    static final String[] PROGRAM1_INPUT = {
+            "10", "20", "30", "40", "50", "60", "70", "80", "90", "100",
+            "110", "120", "130", "140", "150", "160", "170", "180", "190", "200", "12"
+    };
+
+    // program2: the word to find, one character at a time, then an empty line
+    static final String[] PROGRAM2_INPUT = { "G", "o", "t", "h", "a", "m", "" };
+
+    private Programs() {}
+
+    /**
+     * Copies programs/<name> from the classpath to a temporary file
+     */
+    static File extract(String name) {
+        try (InputStream in = Programs.class.getResourceAsStream("/programs/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("programs/" + name + " is not on the classpath");
+            }
+            // keep the name: Machine treats program1.txt and program2.txt specially
+            File directory = Files.createTempDirectory("programs").toFile();
+            File file = new File(directory, name);
+            directory.deleteOnExit();
+            file.deleteOnExit();
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A booted machine running a tight loop that never halts, for benchmarking single cycles:
+     * <pre>
+     *   0: LDR 1,0,10
+     *   1: AIR 1,1
+     *   2: STR 1,0,10
+     *   3: AMR 1,0,11
+     *   4: JMA 0,0
+     * </pre>
+     */
+    static Machine loopMachine() {
+        Machine machine = new Machine();
+        machine.boot();
+        machine.getMemory().setRunningUserProgram(true);
+        int[] program = {
+                word(1, 1, 10),     // LDR
+                word(6, 1, 1),      // AIR
+                word(2, 1, 10),     // STR
+                word(4, 1, 11),     // AMR
+                word(11, 0, 0),     // JMA
+        };
+        for (int i = 0; i < program.length; i++) {
+            machine.getMemory().insert(program[i], i);
+        }
+        machine.getMemory().insert(0, 10);
+        machine.getMemory().insert(3, 11);
+        machine.getMemory().setRunningUserProgram(false);
+        machine.getCpu().startUserProgram();
+        return machine;
+    }
+
+    private static int word(int opcode, int r, int address) {
+        return opcode << 10 | r << 8 | address;
+    }
+
+    /**
+     * Answers IN instructions from a script; the keyboard closes (and the program ends) when it runs out
+     */
+    static class ScriptedKeyboard implements MachineObserver {
+        private final String[] input;
+        private int next = 0;
+
+        ScriptedKeyboard(String[] input) {
+            this.input = input;
+        }
+
+        @Override
+        public String readKeyboard(String prompt) {
+            return next < input.length ? input[next++] : null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Vector Benchmark - VADD/VSUB's bulk path (Memory.vector) on the SIMD and scalar vector units, with and without
+ * caches, on the heap (short[]) and mapped (MappedByteBuffer) memory backends. The forks are started with
+ * jdk.incubator.vector so the SIMD unit can be chosen; "scalar" forces the plain loop (see VectorUnit)
+ */
+
+package benchmarks;
+
+import Memory.Memory;
+import Memory.MemoryBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class VectorBenchmark {
+
+    static final int V1 = 200;
+    static final int V2 = 1000;
+
+    @Param({ "simd", "scalar" })
+    public String unit;
+
+    @Param({ "off", "l1:lines=16,block=4" })
+    public String hierarchy;
+
+    @Param({ "heap", "mapped" })
+    public String backend;
+
+    @Param({ "16", "512" })
+    public int length;
+
+    private Memory memory;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("simulator.vector", unit);
+        memory = new Memory(MemoryBackend.create(backend, MemoryBackend.DEFAULT_SIZE));
+        memory.setHierarchy(hierarchy);
+        Random random = new Random(6461);
+        for (int i = 0; i < length; i++) {
+            memory.store((short) random.nextInt(), V1 + i);
+            memory.store((short) random.nextInt(), V2 + i);
+        }
+    }
+
+    @Benchmark
+    public int vectorAdd() {
+        // adding then subtracting keeps the values the same from one call to the next
+        return memory.vector(V1, V2, length, false) | memory.vector(V1, V2, length, true);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * ALU Differential - Checks the bitwise AND/ORR/NOT/SRC/RRC against the original string versions (ReferenceAlu)
+ * * NOT, SRC and RRC: every 16 bit value with every count, direction and A/L bit
+ * * AND and ORR: the edge values against each other, then random pairs (fixed seed, so every run is the same)
+ * Results and condition codes both have to match.
+ *
+ * The old code had bugs the new one fixes, so those cases are checked another way:
+ * * ORR gave 0 where both bits were 1 (it was an exclusive or) -> ORR has to be the old ORR combined with AND
+ * * RRC right built the wrong string (it wasn't a rotation) -> rotate right has to undo rotate left
+ * * RRC on a negative value threw (the binary string was 32 bits) -> the result has to match the 16 bit pattern
+ *
+ * Run by mvn test (see simulator/pom.xml); -Dalu.pairs sets how many random pairs to check (2,000,000 by default).
+ * Fails if anything differs.
+ */
+
+package ALU;
+
+import CPU.Register;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AluDifferential {
+
+    private static final int[] EDGES = { 0, 1, -1, 2, -2, 0x7FFF, -0x8000, 0x5555, -0x5556, 0x00FF, -0x0100 };
+
+    private final ALU alu = new ALU();
+    private final Register rx = new Register("rx", 16, true);
+    private final Register ry = new Register("ry", 16, true);
+    private final int[] referenceCc = new int[4];
+    private long checked = 0;
+    private long mismatches = 0;
+
+    @Test
+    void matchesReference() {
+        checkNot();
+        checkShift();
+        checkRotate();
+        checkAndOr(Long.getLong("alu.pairs", 2_000_000));
+        System.out.println(checked + " cases checked, " + mismatches + " mismatches");
+        assertEquals(0, mismatches, "mismatches");
+    }
+
+    private void checkNot() {
+        for (int value = -0x8000; value <= 0x7FFF; value++) {
+            rx.setValue(value);
+            compare("NOT " + value, ReferenceAlu.logicalNot(value), alu.logicalNot(rx));
+        }
+    }
+
+    private void checkShift() {
+        for (int value = -0x8000; value <= 0x7FFF; value++) {
+            for (int count = 0; count < 16; count++) {
+                for (int LR = 0; LR <= 1; LR++) {
+                    for (int AL = 0; AL <= 1; AL++) {
+                        rx.setValue(value);
+                        alu.reset();
+                        Arrays.fill(referenceCc, 0);
+                        int expected = ReferenceAlu.shift(value, count, LR, AL, referenceCc);
+                        int actual = alu.shift(rx, count, LR, AL);
+                        String name = "SRC " + value + " count=" + count + " LR=" + LR + " AL=" + AL;
+                        compare(name, expected, actual);
+                        for (int i = 0; i < 4; i++) {
+                            compare(name + " cc" + i, referenceCc[i], alu.getCc(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkRotate() {
+        for (int value = -0x8000; value <= 0x7FFF; value++) {
+            for (int count = 1; count < 16; count++) {
+                rx.setValue(value);
+                int left = alu.rotate(rx, count, 1);
+                String name = "RRC " + value + " count=" + count;
+                // the reference only worked on non-negative values; a negative one is the same 16 bit pattern
+                compare(name + " left", ReferenceAlu.rotate(value & 0xFFFF, count, 1, 1), left);
+
+                ry.setValue(left);
+                compare(name + " right undoes left", value, alu.rotate(ry, count, 0));
+            }
+        }
+    }
+
+    private void checkAndOr(long pairs) {
+        for (int x : EDGES) {
+            for (int y : EDGES) {
+                checkAndOr(x, y);
+            }
+        }
+        Random random = new Random(6461);
+        for (long i = 0; i < pairs; i++) {
+            checkAndOr((short) random.nextInt(), (short) random.nextInt());
+        }
+    }
+
+    private void checkAndOr(int x, int y) {
+        rx.setValue(x);
+        ry.setValue(y);
+        compare("AND " + x + " " + y, ReferenceAlu.logicalAnd(x, y), alu.logicalAnd(rx, ry));
+        // the old ORR was an exclusive or: the missing bits are the ones AND finds
+        compare("ORR " + x + " " + y, ReferenceAlu.logicalOr(x, y) | ReferenceAlu.logicalAnd(x, y),
+                alu.logicalOr(rx, ry));
+    }
+
+    private void compare(String name, int expected, int actual) {
+        checked++;
+        if (expected != actual) {
+            mismatches++;
+            if (mismatches <= 20) {
+                System.out.println(name + ": expected " + expected + ", got " + actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * FPU Exhaustive - Checks the FPU over all 65,536 encodings of the floating point format
+ * * every encoding: its value against the old RegisterFloat.getFloatingPointValue, CNVRT to fixed against the old
+ *   Utilities.floatToFixed (out of range values have to clamp and set overflow instead), a + 0 and a - a
+ * * every 16 bit fixed point number: CNVRT to floating point
+ * * FADD and FSUB: every encoding against random operands (fixed seed, so every run is the same)
+ * Rounded results are checked against the nearest representable value, found by searching a sorted table of every
+ * value the format can hold (exact, with BigInteger), along with the overflow/underflow condition codes.
+ *
+ * Run by mvn test (see simulator/pom.xml); -Dfpu.operands sets how many random operands each encoding is added to
+ * and subtracted from (64 by default). Fails if anything differs.
+ */
+
+package ALU;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FpuExhaustive {
+
+    // Every value is a multiple of 2^-64, so values are kept as BigIntegers scaled by 2^64
+    private static final int SCALE = -FPU.MIN_EXPONENT;
+
+    private final ALU alu = new ALU();
+    private final FPU fpu = new FPU(alu);
+
+    // Every positive value the format holds once normalized, in order, and its encoding
+    private final BigInteger[] values;
+    private final int[] encodings;
+    private final BigInteger minNormal = scaled(0, FPU.MIN_EXPONENT, 1 << FPU.MANTISSA_BITS - 1);
+    // Half way between the largest value and the next one up: anything from here on overflows
+    private final BigInteger overflow = BigInteger.valueOf(2 * FPU.MAX_MANTISSA + 1)
+            .shiftLeft(FPU.MAX_EXPONENT + SCALE - 1);
+
+    private long checked = 0;
+    private long mismatches = 0;
+
+    FpuExhaustive() {
+        int top = 1 << FPU.MANTISSA_BITS - 1;
+        int count = (top - 1) + (FPU.MAX_EXPONENT - FPU.MIN_EXPONENT + 1) * top;
+        values = new BigInteger[count];
+        encodings = new int[count];
+        int i = 0;
+        // the values too small to normalize, then the normalized ones exponent by exponent
+        for (int mantissa = 1; mantissa < top; mantissa++, i++) {
+            encodings[i] = FPU.encode(0, FPU.MIN_EXPONENT, mantissa);
+            values[i] = scaled(0, FPU.MIN_EXPONENT, mantissa);
+        }
+        for (int exponent = FPU.MIN_EXPONENT; exponent <= FPU.MAX_EXPONENT; exponent++) {
+            for (int mantissa = top; mantissa <= FPU.MAX_MANTISSA; mantissa++, i++) {
+                encodings[i] = FPU.encode(0, exponent, mantissa);
+                values[i] = scaled(0, exponent, mantissa);
+            }
+        }
+    }
+
+    @Test
+    void matchesExactArithmetic() {
+        checkEncodings();
+        checkFromFixed();
+        checkArithmetic(Integer.getInteger("fpu.operands", 64));
+        System.out.println(checked + " cases checked, " + mismatches + " mismatches");
+        assertEquals(0, mismatches, "mismatches");
+    }
+
+    private static BigInteger scaled(int sign, int exponent, int mantissa) {
+        BigInteger value = BigInteger.valueOf(mantissa).shiftLeft(exponent + SCALE);
+        return sign == 1 ? value.negate() : value;
+    }
+
+    private static BigInteger scaled(int f) {
+        return scaled(FPU.sign(f), FPU.exponent(f), FPU.mantissa(f));
+    }
+
+    private void checkEncodings() {
+        for (int encoding = 0; encoding <= 0xFFFF; encoding++) {
+            int f = encoding;
+            int sign = FPU.sign(f);
+            int exponent = FPU.exponent(f);
+            int mantissa = FPU.mantissa(f);
+            String name = String.format("%04X", f);
+
+            checked++;
+            if (Double.compare(FPU.toDouble(f), ReferenceAlu.floatingPointValue(sign, exponent, mantissa)) != 0
+                    && !(mantissa == 0 && FPU.toDouble(f) == 0)) {
+                mismatch(name + " value: expected " + ReferenceAlu.floatingPointValue(sign, exponent, mantissa)
+                        + ", got " + FPU.toDouble(f));
+            }
+
+            alu.reset();
+            int fixed = fpu.toFixed(f);
+            long old = ReferenceAlu.floatToFixed(f >>> 8, mantissa);
+            if (old >= Short.MIN_VALUE && old <= Short.MAX_VALUE && old != Integer.MAX_VALUE) {
+                compare(name + " to fixed", (int) old, fixed);
+                compare(name + " to fixed cc", 0, alu.getCcBits());
+            } else {
+                compare(name + " to fixed (clamped)", sign == 1 ? Short.MIN_VALUE : Short.MAX_VALUE, fixed);
+                compare(name + " to fixed cc", ALU.CC_OVERFLOW, alu.getCcBits());
+            }
+
+            BigInteger value = scaled(f);
+            expectRounded(name + " + 0", value, () -> fpu.add(f, 0));
+            expectRounded(name + " - 0", value, () -> fpu.subtract(f, 0));
+            expectRounded("0 - " + name, value.negate(), () -> fpu.subtract(0, f));
+            expectRounded(name + " - " + name, BigInteger.ZERO, () -> fpu.subtract(f, f));
+        }
+    }
+
+    private void checkFromFixed() {
+        for (int value = Short.MIN_VALUE; value <= Short.MAX_VALUE; value++) {
+            int fixed = value;
+            expectRounded("from fixed " + value, BigInteger.valueOf(value).shiftLeft(SCALE), () -> fpu.fromFixed(fixed));
+            if (Math.abs(value) <= FPU.MAX_MANTISSA) {
+                // small numbers are exact both ways
+                alu.reset();
+                compare("fixed round trip " + value, value, fpu.toFixed(fpu.fromFixed(value)));
+            }
+        }
+    }
+
+    private void checkArithmetic(int operands) {
+        Random random = new Random(6461);
+        for (int a = 0; a <= 0xFFFF; a++) {
+            for (int i = 0; i < operands; i++) {
+                // every other operand near a, so there is cancellation and rounding as well as far apart values
+                int b = (i & 1) == 0 ? random.nextInt(0x10000)
+                        : FPU.encode(random.nextInt(2), FPU.exponent(a) + random.nextInt(19) - 9, random.nextInt(256));
+                int x = a;
+                String name = String.format("%04X %04X", a, b);
+                expectRounded(name + " add", scaled(a).add(scaled(b)), () -> fpu.add(x, b));
+                expectRounded(name + " subtract", scaled(a).subtract(scaled(b)), () -> fpu.subtract(x, b));
+            }
+        }
+    }
+
+    private interface Operation {
+        int apply();
+    }
+
+    /**
+     * Runs an operation with the condition codes cleared and checks its result and condition codes against the
+     * exact value rounded to the nearest representable value
+     */
+    private void expectRounded(String name, BigInteger exact, Operation operation) {
+        int expectedCc = 0;
+        int expected;
+        int sign = exact.signum() < 0 ? 1 : 0;
+        BigInteger magnitude = exact.abs();
+        if (magnitude.signum() == 0) {
+            expected = 0;
+        } else if (magnitude.compareTo(overflow) >= 0) {
+            expectedCc = ALU.CC_OVERFLOW;
+            expected = FPU.encode(sign, FPU.MAX_EXPONENT, FPU.MAX_MANTISSA);
+        } else {
+            int at = Arrays.binarySearch(values, magnitude);
+            int nearest;
+            if (at >= 0) {
+                nearest = at;
+            } else {
+                int above = -at - 1;
+                int below = above - 1;
+                if (above == values.length) {
+                    nearest = below;
+                } else {
+                    BigInteger low = below < 0 ? BigInteger.ZERO : values[below];
+                    int toLow = magnitude.subtract(low).compareTo(values[above].subtract(magnitude));
+                    boolean lowIsEven = below < 0 || (FPU.mantissa(encodings[below]) & 1) == 0;
+                    nearest = toLow < 0 || toLow == 0 && lowIsEven ? below : above;
+                }
+                if (magnitude.compareTo(minNormal) < 0) {
+                    expectedCc = ALU.CC_UNDERFLOW;
+                }
+            }
+            expected = nearest < 0 ? 0 : encodings[nearest] | sign << 15;
+        }
+
+        alu.reset();
+        int actual = operation.apply();
+        compare(name, expected, actual);
+        compare(name + " cc", expectedCc, alu.getCcBits());
+    }
+
+    private void compare(String name, int expected, int actual) {
+        checked++;
+        if (expected != actual) {
+            mismatch(name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private void mismatch(String message) {
+        mismatches++;
+        if (mismatches <= 20) {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Reference ALU - The original string based AND/ORR/NOT/SRC/RRC and floating point conversions, kept as they were
+ * so AluDifferential and FpuExhaustive can check the ALU and FPU against them. Only used by the tests.
+ *
+ * Each operation takes 16 bit register values and returns the result; shift also fills in the condition codes.
+ */
+
+package ALU;
+
+import Common.Utilities;
+
+class ReferenceAlu {
+
+    private ReferenceAlu() {}
+
+    static int logicalAnd(int rx, int ry) {
+        String rxBinary = Utilities.intToSignedBinary(rx, 16);
+        String ryBinary = Utilities.intToSignedBinary(ry, 16);
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < rxBinary.length(); i++) {
+            char rxChar = rxBinary.charAt(i);
+            char ryChar = ryBinary.charAt(i);
+            if (rxChar == '1' && ryChar == '0') {
+                sb.append('0');
+            } else if (rxChar == '0' && ryChar == '1') {
+                sb.append('0');
+            } else if (rxChar == '0' && ryChar == '0') {
+                sb.append('0');
+            } else {
+                sb.append('1');
+            }
+        }
+        return Utilities.signedBinaryToInt(sb.toString());
+    }
+
+    static int logicalOr(int rx, int ry) {
+        String rxBinary = Utilities.intToSignedBinary(rx, 16);
+        String ryBinary = Utilities.intToSignedBinary(ry, 16);
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < rxBinary.length(); i++) {
+            char rxChar = rxBinary.charAt(i);
+            char ryChar = ryBinary.charAt(i);
+            if (rxChar == '1' && ryChar == '0') {
+                sb.append('1');
+            } else if (rxChar == '0' && ryChar == '1') {
+                sb.append('1');
+            } else if (rxChar == '0' && ryChar == '0') {
+                sb.append('0');
+            } else {
+                sb.append('0');
+            }
+        }
+        return Utilities.signedBinaryToInt(sb.toString());
+    }
+
+    static int logicalNot(int rx) {
+        int count = 0;
+        String rBinary = Utilities.intToSignedBinary(rx, 16);
+        StringBuilder sb = new StringBuilder();
+
+        while (count != rBinary.length()) {
+            char x = rBinary.charAt(count);
+            if (x == '1') {
+                x = '0';
+                sb.append(x);
+                count++;
+            } else {
+                x = '1';
+                sb.append(x);
+                count++;
+            }
+        }
+        return Utilities.signedBinaryToInt(sb.toString());
+    }
+
+    static int shift(int value, int count, int LR, int AL, int[] condCodes) {
+        if (count == 0) {
+            return value;
+        }
+
+        String registerBinary = Utilities.intToSignedBinary(value, 16);
+        String result;
+
+        // logical shift
+        if (AL == 1) {
+            String extraZeroes = "0".repeat(count);
+            // left shift; add 0s to end
+            if (LR == 1) {
+                String shifted = registerBinary.substring(count);
+                result = shifted + extraZeroes;
+            } else {
+                // right shift; add 0s to start
+                String shifted = registerBinary.substring(0, 16 - count);
+                result = extraZeroes + shifted;
+            }
+        } else {
+            // arithmetic shift
+
+            // left shift
+            if (LR == 1) {
+                String extraZeroes = "0".repeat(count);
+                String shifted = registerBinary.substring(count);
+                result = shifted + extraZeroes;
+
+                // check if bits overflowed
+                if (Integer.parseInt(registerBinary.substring(0, count), 2) > 0) {
+                    condCodes[0] = 1;
+                }
+            } else {
+                // right shift
+                // extend the sign bit
+                String extendedSignBits = Character.toString(registerBinary.charAt(0)).repeat(count);
+                // drop the right-most bits that will be lost by the shift
+                String shifted = registerBinary.substring(0, 16 - count);
+                result = extendedSignBits + shifted;
+
+                // check if bits underflowed
+                if (Integer.parseInt(registerBinary.substring(16 - count), 2) > 0) {
+                    condCodes[1] = 1;
+                }
+            }
+        }
+        return Utilities.signedBinaryToInt(result);
+    }
+
+    /**
+     * The old RRC instruction body. Returns the new register value (as the 16 bit register would hold it)
+     */
+    static int rotate(int value, int Count, int LR, int AL) {
+        String rV = Integer.toBinaryString(value);
+        String rValue = "0".repeat(16-rV.length()) + rV;
+        String result = "";
+
+        if(Count == 0) {
+            return value;
+        }
+
+        if(AL == 1) { // Rotate
+            if(LR == 1) { // Rotate Left
+                String saveRotated = rValue.substring(0,Count);
+                String saveParsed = rValue.substring(Count);
+                result = saveParsed + saveRotated;
+                return (short) Integer.parseInt(result,2);
+            }else if(LR == 0) { // Rotate Right
+                String saveRotated = rValue.substring(Count);
+                String saveParsed = rValue.substring(0,16-Count);
+                result = saveRotated + saveParsed;
+                return (short) Integer.parseInt(result,2);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * The old Utilities.floatToFixed (CNVRT with F = 0)
+     */
+    static int floatToFixed(int signAndExponent, int mantissa) {
+        String s = Utilities.intToSignedBinary(signAndExponent, 8);
+        int sign = Integer.parseInt(s.substring(0, 1));
+        int exponent = Utilities.signedBinaryToInt(s.substring(1));
+
+        if (sign == 1) {
+            mantissa *= -1;
+        }
+        return (int) (mantissa * Math.pow(2, exponent));
+    }
+
+    /**
+     * The old RegisterFloat.getFloatingPointValue
+     */
+    static double floatingPointValue(int sign, int exponent, int mantissa) {
+        double result = mantissa * Math.pow(2, exponent);
+        if (sign == 1) { result *= -1; }
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Dispatch Differential - Runs random programs in the block modes, with and without superinstructions, and checks
+ * that they end as they do under ENUM, one instruction cycle at a time (see BlockCache, BlockCompiler,
+ * Superinstruction)
+ * * Each program sets up the index registers and a loop count, then runs a loop of loads, stores, adds, register
+ *   instructions and forward jumps over a data area (fixed seed, so every run is the same)
+ * * Most of the data words point back into the data, so indirect addresses mostly stay in memory; the rest don't,
+ *   and fault. Some programs load wild index registers, and some store into their own loop (self-modifying code)
+ * * Every program runs with the hierarchy off, behind a write-back L1 and L2, and behind split L1 caches, for up to
+ *   MAX_INSTRUCTIONS. The tests compile blocks after 2 runs (see simulator/pom.xml), so COMPILED runs most loops
+ *   compiled: directly on the memory words with the hierarchy off, on the first caches otherwise
+ * Registers, condition codes, the next PC, memory, the cache statistics and the instruction count all have to match.
+ *
+ * Run by mvn test; -Ddifferential.seed and -Ddifferential.programs pick other programs (6461 and 200 by default).
+ * Fails if anything differs. The errors the programs log (illegal instructions a program wrote over its loop, say)
+ * are turned off for the tests.
+ */
+
+package CPU;
+
+import Machine.Machine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DispatchDifferential {
+
+    private static final String[] HIERARCHIES = { "off", "l1:lines=8,block=4,write=back;l2:lines=32,block=8",
+            "l1i:lines=4,block=4;l1d:lines=8,block=2" };
+
+    // The modes checked against ENUM
+    private static final DispatchMode[] MODES = { DispatchMode.BLOCK, DispatchMode.COMPILED };
+
+    private static final long MAX_INSTRUCTIONS = 20_000;
+
+    // Where the programs keep things: what the setup loads (reachable without an index register), the loop (through
+    // IX2) and the data (through IX1 and IX3)
+    private static final int SETUP = 0x18;
+    private static final int LOOP = 0x40;
+    private static final int DATA = 0x100;
+    private static final int DATA_WORDS = 0x60;
+
+    private static final Instruction[] MEMORY_OPS = { Instruction.LDR, Instruction.STR, Instruction.LDA,
+            Instruction.AMR, Instruction.SMR };
+    private static final Instruction[] JUMPS = { Instruction.JZ, Instruction.JNE, Instruction.JCC, Instruction.JMA,
+            Instruction.JGE };
+    private static final Instruction[] REGISTER_OPS = { Instruction.MLT, Instruction.DVD, Instruction.TRR,
+            Instruction.AND, Instruction.ORR, Instruction.NOT, Instruction.SRC, Instruction.RRC };
+
+    @TempDir
+    Path directory;
+
+    private File file;
+    private long checked = 0;
+    private long mismatches = 0;
+
+    @Test
+    void blockModesMatchEnum() throws IOException {
+        Random random = new Random(Long.getLong("differential.seed", 6461));
+        int programs = Integer.getInteger("differential.programs", 200);
+        file = directory.resolve("program.txt").toFile();
+        for (int i = 0; i < programs; i++) {
+            Files.write(file.toPath(), program(random));
+            for (String hierarchy : HIERARCHIES) {
+                Result expected = run(hierarchy, DispatchMode.ENUM, false);
+                for (DispatchMode mode : MODES) {
+                    for (boolean fuse : new boolean[] { false, true }) {
+                        compare("program " + i + " " + mode + (fuse ? " fused" : "") + " [" + hierarchy + "]",
+                                expected, run(hierarchy, mode, fuse));
+                    }
+                }
+            }
+        }
+        System.out.println(checked + " cases checked, " + mismatches + " mismatches");
+        assertEquals(0, mismatches, "mismatches");
+    }
+
+    /* PROGRAMS */
+
+    /**
+     * @return -> the lines of a random program (see the class comment)
+     */
+    static List<String> program(Random random) {
+        List<String> lines = new ArrayList<>();
+        boolean selfModifying = random.nextInt(4) == 0;
+        boolean wildIndex = random.nextInt(4) == 0;
+
+        add(lines, 0, word(Instruction.LDX, 0, 1, 0, SETUP));
+        add(lines, 1, word(Instruction.LDX, 0, 2, 0, SETUP + 1));
+        add(lines, 2, word(Instruction.LDX, 0, 3, 0, SETUP + 2));
+        add(lines, 3, word(Instruction.LDR, 3, 0, 0, SETUP + 3));
+        add(lines, 4, word(Instruction.JMA, 0, 2, 0, 0));
+        add(lines, SETUP, DATA);
+        add(lines, SETUP + 1, LOOP);
+        add(lines, SETUP + 2, DATA + DATA_WORDS / 2);
+        add(lines, SETUP + 3, 1 + random.nextInt(150));
+        for (int i = 4; i < 8; i++) {
+            add(lines, SETUP + i, dataWord(random));
+        }
+
+        // the SOB at the end has to be in reach of an address field
+        int length = 4 + random.nextInt(28);
+        for (int i = 0; i < length; i++) {
+            add(lines, LOOP + i, instruction(random, i, length, selfModifying, wildIndex));
+        }
+        add(lines, LOOP + length, word(Instruction.SOB, 3, 2, 0, 0));
+        add(lines, LOOP + length + 1, word(Instruction.HALT, 0, 0, 0, 0));
+
+        for (int i = 0; i < DATA_WORDS; i++) {
+            add(lines, DATA + i, dataWord(random));
+        }
+        return lines;
+    }
+
+    /**
+     * @param at -> where the instruction is in the loop
+     * @param length -> the number of instructions in the loop, before its SOB
+     */
+    private static int instruction(Random random, int at, int length, boolean selfModifying, boolean wildIndex) {
+        int r = random.nextInt(3);
+        int kind = random.nextInt(100);
+        if (kind < 50) {
+            // IX1 or IX3 into the data, or the words after the setup's
+            int ix = new int[] { 0, 1, 3 }[random.nextInt(3)];
+            int address = ix == 0 ? 0x1C + random.nextInt(4) : random.nextInt(32);
+            return word(MEMORY_OPS[random.nextInt(MEMORY_OPS.length)], r, ix, random.nextInt(5) == 0 ? 1 : 0,
+                    address);
+        } else if (kind < 65) {
+            return word(random.nextBoolean() ? Instruction.AIR : Instruction.SIR, r, 0, 0, random.nextInt(32));
+        } else if (kind < 77) {
+            // forward, to the SOB at the furthest
+            Instruction jump = JUMPS[random.nextInt(JUMPS.length)];
+            int target = Math.min(length, at + 1 + random.nextInt(4));
+            return word(jump, jump == Instruction.JCC ? random.nextInt(4) : r, 2, 0, target);
+        } else if (kind < 95) {
+            Instruction op = REGISTER_OPS[random.nextInt(REGISTER_OPS.length)];
+            if (op == Instruction.SRC || op == Instruction.RRC) {
+                return op.getOpcode() << 10 | r << 8 | random.nextInt(4) << 6 | random.nextInt(16);
+            }
+            if (op == Instruction.MLT || op == Instruction.DVD) {
+                // into R0 and R1, so R3 keeps counting the loop
+                return word(op, 0, random.nextInt(2) * 2, 0, 0);
+            }
+            return word(op, r, random.nextInt(3), 0, 0);
+        } else if (selfModifying) {
+            // a register over one of the loop's own instructions
+            return word(Instruction.STR, r, 2, 0, random.nextInt(length + 1));
+        } else if (wildIndex) {
+            return word(Instruction.LDX, 0, random.nextBoolean() ? 1 : 3, 0, random.nextInt(32));
+        }
+        return word(Instruction.STX, 0, random.nextBoolean() ? 1 : 3, 0, 0x1C + random.nextInt(4));
+    }
+
+    private static int dataWord(Random random) {
+        int kind = random.nextInt(10);
+        if (kind < 7) {
+            return DATA + random.nextInt(DATA_WORDS);
+        }
+        return kind < 9 ? random.nextInt(64) : random.nextInt(1 << 16);
+    }
+
+    private static int word(Instruction instruction, int r, int ix, int indirect, int address) {
+        return instruction.getOpcode() << 10 | r << 8 | ix << 6 | indirect << 5 | address;
+    }
+
+    private static void add(List<String> lines, int location, int word) {
+        lines.add(String.format("%04X %04X", location, word));
+    }
+
+    /* RUNS */
+
+    /**
+     * How a run ended
+     */
+    private static final class Result {
+        private final long executed;
+        private final Checkpoint end;
+        private final int[] memory;
+        private final String statistics;
+
+        Result(long executed, Checkpoint end, int[] memory, String statistics) {
+            this.executed = executed;
+            this.end = end;
+            this.memory = memory;
+            this.statistics = statistics;
+        }
+    }
+
+    private Result run(String hierarchy, DispatchMode mode, boolean fuse) {
+        try (Machine machine = new Machine()) {
+            machine.getMemory().setHierarchy(hierarchy);
+            machine.getCpu().setDispatchMode(mode);
+            machine.getCpu().setFusion(fuse);
+            machine.boot();
+            machine.initialProgramLoad(file);
+            long executed = machine.runToHalt(MAX_INSTRUCTIONS);
+            String statistics = machine.getMemory().getHierarchy().getStatistics();
+            int[] memory = new int[machine.getMemory().getSize()];
+            for (int i = 0; i < memory.length; i++) {
+                memory[i] = machine.getMemory().peek(i);
+            }
+            return new Result(executed, machine.getCpu().checkpoint(), memory, statistics);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compare(String name, Result expected, Result actual) {
+        checked++;
+        List<String> differences = new ArrayList<>();
+        if (expected.executed != actual.executed) {
+            differences.add("executed " + expected.executed + " -> " + actual.executed);
+        }
+        for (int i = 0; i < expected.end.registers.length; i++) {
+            if (expected.end.registers[i] != actual.end.registers[i]) {
+                differences.add("register " + i + " " + expected.end.registers[i] + " -> " + actual.end.registers[i]);
+            }
+        }
+        if (expected.end.condCodes != actual.end.condCodes) {
+            differences.add("cc " + expected.end.condCodes + " -> " + actual.end.condCodes);
+        }
+        if (expected.end.nextPc != actual.end.nextPc || expected.end.halted != actual.end.halted
+                || expected.end.currentInstruction != actual.end.currentInstruction) {
+            differences.add("next " + expected.end.nextPc + " " + expected.end.currentInstruction + " halted="
+                    + expected.end.halted + " -> " + actual.end.nextPc + " " + actual.end.currentInstruction
+                    + " halted=" + actual.end.halted);
+        }
+        for (int i = 0; i < expected.memory.length; i++) {
+            if (expected.memory[i] != actual.memory[i]) {
+                differences.add("memory " + i + " " + expected.memory[i] + " -> " + actual.memory[i]);
+                break;
+            }
+        }
+        if (!expected.statistics.equals(actual.statistics)) {
+            differences.add("statistics\n" + expected.statistics + "\n->\n" + actual.statistics);
+        }
+        if (!differences.isEmpty()) {
+            mismatches++;
+            if (mismatches <= 20) {
+                System.out.println(name + ": " + String.join(", ", differences));
+            }
+        }
+    }
+}
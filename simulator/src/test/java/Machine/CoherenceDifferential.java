@@ -0,0 +1,245 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Coherence Differential - Runs random programs on several cores in lock step and checks that the cores' caches
+ * don't change what they compute: every run behind coherent caches has to end as the run with the hierarchy off
+ * (the cores reading and writing the shared memory itself, under ENUM) does (see MultiCoreMachine, CoherenceBus)
+ * * Every core runs the same program: it asks which core it is on, sets up the index registers and a loop count, then
+ *   runs a loop of loads, stores, adds and forward jumps over a small data area all the cores share, so blocks move
+ *   between the caches all the time (fixed seed, so every run is the same)
+ * * Each program runs on 2 to 4 cores with a quantum of 1 to 4 instructions, behind write-back, write-through and
+ *   split caches with an L2, under ENUM and SWITCH. Each cached run is run twice, so its statistics can be compared
+ * Every core's registers, condition codes and instruction count, and the shared memory, have to match the run with the
+ * hierarchy off; the statistics have to match the same run again.
+ *
+ * Run by mvn test; -Ddifferential.seed and -Ddifferential.programs pick other programs (6461 and 100 by default).
+ * Fails if anything differs.
+ */
+
+package Machine;
+
+import CPU.DispatchMode;
+import CPU.Instruction;
+import Memory.MemoryBackend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CoherenceDifferential {
+
+    private static final String REFERENCE = "off";
+    // Big enough to keep copies of the shared data in every core, except the split caches, which evict all the time
+    private static final String[] HIERARCHIES = {
+            "l1:lines=32,block=4,write=back",
+            "l1:lines=32,block=4,write=through;l2:lines=64,block=8",
+            "l1i:lines=4,block=4;l1d:lines=4,block=2,write=back;l2:lines=16,block=4" };
+
+    private static final long MAX_INSTRUCTIONS = 5_000;
+
+    // Where the programs keep things: what the setup loads (reachable without an index register), the loop (through
+    // IX2) and the shared data (through IX1 and IX3, which overlap)
+    private static final int SETUP = 0x18;
+    private static final int LOOP = 0x40;
+    private static final int DATA = 0x100;
+    private static final int DATA_WORDS = 40;
+
+    private static final Instruction[] MEMORY_OPS = { Instruction.LDR, Instruction.STR, Instruction.STR,
+            Instruction.AMR, Instruction.SMR, Instruction.LDA };
+    private static final Instruction[] JUMPS = { Instruction.JZ, Instruction.JNE, Instruction.JGE,
+            Instruction.JMA };
+
+    @TempDir
+    Path directory;
+
+    private File file;
+    private long checked = 0;
+    private long mismatches = 0;
+
+    @Test
+    void cachedRunsMatchUncached() throws IOException, InterruptedException {
+        Random random = new Random(Long.getLong("differential.seed", 6461));
+        int programs = Integer.getInteger("differential.programs", 100);
+        file = directory.resolve("program.txt").toFile();
+        for (int i = 0; i < programs; i++) {
+            Files.write(file.toPath(), program(random));
+            int cores = 2 + random.nextInt(3);
+            int quantum = 1 + random.nextInt(4);
+            String name = "program " + i + " (" + cores + " cores, quantum " + quantum + ")";
+            Result expected = run(cores, quantum, REFERENCE, DispatchMode.ENUM);
+            for (String hierarchy : HIERARCHIES) {
+                for (DispatchMode mode : new DispatchMode[] { DispatchMode.ENUM, DispatchMode.SWITCH }) {
+                    Result actual = run(cores, quantum, hierarchy, mode);
+                    String run = name + " " + mode + " [" + hierarchy + "]";
+                    compare(run, expected, actual);
+                    compareStatistics(run, actual, run(cores, quantum, hierarchy, mode));
+                }
+            }
+        }
+        System.out.println(checked + " cases checked, " + mismatches + " mismatches");
+        assertEquals(0, mismatches, "mismatches");
+    }
+
+    /* PROGRAMS */
+
+    /**
+     * @return -> the lines of a random program (see the class comment)
+     */
+    static List<String> program(Random random) {
+        List<String> lines = new ArrayList<>();
+        add(lines, 0, word(Instruction.IN, 2, 0, 0, 3));
+        add(lines, 1, word(Instruction.LDX, 0, 1, 0, SETUP));
+        add(lines, 2, word(Instruction.LDX, 0, 2, 0, SETUP + 1));
+        add(lines, 3, word(Instruction.LDX, 0, 3, 0, SETUP + 2));
+        add(lines, 4, word(Instruction.LDR, 3, 0, 0, SETUP + 3));
+        add(lines, 5, word(Instruction.JMA, 0, 2, 0, 0));
+        add(lines, SETUP, DATA);
+        add(lines, SETUP + 1, LOOP);
+        add(lines, SETUP + 2, DATA + 8);
+        add(lines, SETUP + 3, 1 + random.nextInt(100));
+
+        // the SOB at the end has to be in reach of an address field
+        int length = 4 + random.nextInt(28);
+        for (int i = 0; i < length; i++) {
+            add(lines, LOOP + i, instruction(random, i, length));
+        }
+        add(lines, LOOP + length, word(Instruction.SOB, 3, 2, 0, 0));
+        add(lines, LOOP + length + 1, word(Instruction.HALT, 0, 0, 0, 0));
+
+        for (int i = 0; i < DATA_WORDS; i++) {
+            // mostly pointers into the data, for the indirect addresses
+            add(lines, DATA + i, random.nextInt(5) > 0 ? DATA + random.nextInt(DATA_WORDS) : random.nextInt(64));
+        }
+        return lines;
+    }
+
+    /**
+     * @param at -> where the instruction is in the loop
+     * @param length -> the number of instructions in the loop, before its SOB
+     */
+    private static int instruction(Random random, int at, int length) {
+        // R2 holds the core number, so the cores store different values
+        int r = random.nextInt(3);
+        int kind = random.nextInt(100);
+        if (kind < 70) {
+            return word(MEMORY_OPS[random.nextInt(MEMORY_OPS.length)], r, random.nextBoolean() ? 1 : 3,
+                    random.nextInt(6) == 0 ? 1 : 0, random.nextInt(32));
+        } else if (kind < 85) {
+            return word(random.nextBoolean() ? Instruction.AIR : Instruction.SIR, r, 0, 0, random.nextInt(32));
+        }
+        // forward, to the SOB at the furthest
+        int target = Math.min(length, at + 1 + random.nextInt(4));
+        return word(JUMPS[random.nextInt(JUMPS.length)], r, 2, 0, target);
+    }
+
+    private static int word(Instruction instruction, int r, int ix, int indirect, int address) {
+        return instruction.getOpcode() << 10 | r << 8 | ix << 6 | indirect << 5 | address;
+    }
+
+    private static void add(List<String> lines, int location, int word) {
+        lines.add(String.format("%04X %04X", location, word));
+    }
+
+    /* RUNS */
+
+    /**
+     * How a run ended
+     */
+    private static final class Result {
+        private final long[] executed;
+        private final int[][] registers;
+        private final int[] condCodes;
+        private final int[] memory;
+        private final String statistics;
+
+        Result(long[] executed, int[][] registers, int[] condCodes, int[] memory, String statistics) {
+            this.executed = executed;
+            this.registers = registers;
+            this.condCodes = condCodes;
+            this.memory = memory;
+            this.statistics = statistics;
+        }
+    }
+
+    private Result run(int cores, int quantum, String hierarchy, DispatchMode mode) throws InterruptedException {
+        try (MultiCoreMachine machine = new MultiCoreMachine(cores, MemoryBackend.fromSystemProperties(),
+                hierarchy)) {
+            machine.setDispatchMode(mode);
+            machine.boot();
+            machine.initialProgramLoad(file);
+            machine.runLockStep(MAX_INSTRUCTIONS, quantum);
+
+            long[] executed = new long[cores];
+            int[][] registers = new int[cores][];
+            int[] condCodes = new int[cores];
+            for (int i = 0; i < cores; i++) {
+                executed[i] = machine.getExecuted(i);
+                registers[i] = machine.getCore(i).getCpu().getRegisters().copyValues();
+                condCodes[i] = machine.getCore(i).getCpu().getAlu().getCcBits();
+            }
+            // every core sees the same words; core 0 looks through the caches without counting
+            int[] memory = new int[machine.getCore(0).getMemory().getSize()];
+            for (int i = 0; i < memory.length; i++) {
+                memory[i] = machine.getCore(0).getMemory().peek(i);
+            }
+            return new Result(executed, registers, condCodes, memory, machine.getStatistics());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compare(String name, Result expected, Result actual) {
+        checked++;
+        List<String> differences = new ArrayList<>();
+        for (int core = 0; core < expected.executed.length; core++) {
+            if (expected.executed[core] != actual.executed[core]) {
+                differences.add("core " + core + " executed " + expected.executed[core] + " -> "
+                        + actual.executed[core]);
+            }
+            for (int i = 0; i < expected.registers[core].length; i++) {
+                if (expected.registers[core][i] != actual.registers[core][i]) {
+                    differences.add("core " + core + " register " + i + " " + expected.registers[core][i] + " -> "
+                            + actual.registers[core][i]);
+                }
+            }
+            if (expected.condCodes[core] != actual.condCodes[core]) {
+                differences.add("core " + core + " cc " + expected.condCodes[core] + " -> " + actual.condCodes[core]);
+            }
+        }
+        for (int i = 0; i < expected.memory.length; i++) {
+            if (expected.memory[i] != actual.memory[i]) {
+                differences.add("memory " + i + " " + expected.memory[i] + " -> " + actual.memory[i]);
+                break;
+            }
+        }
+        report(name, differences);
+    }
+
+    private void compareStatistics(String name, Result first, Result second) {
+        checked++;
+        List<String> differences = new ArrayList<>();
+        if (!first.statistics.equals(second.statistics)) {
+            differences.add("statistics of a second run\n" + first.statistics + "\n->\n" + second.statistics);
+        }
+        report(name, differences);
+    }
+
+    private void report(String name, List<String> differences) {
+        if (!differences.isEmpty()) {
+            mismatches++;
+            if (mismatches <= 20) {
+                System.out.println(name + ": " + String.join(", ", differences));
+            }
+        }
+    }
+}
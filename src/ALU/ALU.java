@@ -7,21 +7,21 @@
 
 package ALU;
 
-import javax.swing.*;
+import CPU.Instruction;
 import CPU.Register;
-import Common.Utilities;
-import java.awt.*;
-import java.util.Arrays;
+import Common.Trace;
 
 public class ALU {
-    private final int[] condCodes;
-    private final JLabel[] condCodeLabels;
-    private final JLabel[] condCodeValues;
+    // Condition code bits, packed into the low 4 bits of one int (bit i = cc[i])
+    public static final int CC_OVERFLOW = 1;
+    public static final int CC_UNDERFLOW = 1 << 1;
+    public static final int CC_DIVZERO = 1 << 2;
+    public static final int CC_EQUALORNOT = 1 << 3;
+
+    private int condCodes;
 
     public ALU() {
-        condCodes = new int[4];
-        condCodeLabels = new JLabel[4];
-        condCodeValues = new JLabel[4];
+        condCodes = 0;
     }
 
     /**
@@ -34,21 +34,21 @@ public class ALU {
     public void add(Register result, Register regAdd, int value) {
         // add the values, store in register
         result.setValue(regAdd.getValue() + value);
-        System.out.println("ADDITION: " + regAdd.getValue() + "\t" + value);
+        Trace.event(Trace.ALU, Trace.ALU_ADD, regAdd.getValue(), value);
 
 
         if (result.getValue() < 0) {
             // pos + pos = neg, so must have overflown
             if (regAdd.getValue() > 0 && value > 0) {
-                condCodes[0] = 1;
+                condCodes |= CC_OVERFLOW;
             }
         } else {
             // neg + neg = pos, so underflow
             if (regAdd.getValue() < 0 && value < 0) {
-                condCodes[1] = 1;
+                condCodes |= CC_UNDERFLOW;
             }
         }
-        System.out.println("Result of add: " + result.getValue());
+        Trace.event(Trace.ALU, Trace.ALU_RESULT, result.getValue(), condCodes);
     }
 
     /**
@@ -61,28 +61,27 @@ public class ALU {
     public void subtract(Register result, Register in, int value) {
         // add the values, store in register
         result.setValue(in.getValue() - value);
-        System.out.println("SUBTRACT: " + in.getValue() + "\t" + value);
+        Trace.event(Trace.ALU, Trace.ALU_SUBTRACT, in.getValue(), value);
 
 
         if (result.getValue() < 0) {
             // pos - neg = neg, so must have overflown
             if (in.getValue() > 0 && value < 0) {
-                condCodes[0] = 1;
+                condCodes |= CC_OVERFLOW;
             }
         } else {
             // neg - pos = pos, so must have underflown
             if (in.getValue() < 0 && value > 0) {
-                condCodes[1] = 1;
+                condCodes |= CC_UNDERFLOW;
             }
         }
-        System.out.println("Result of subtract: " + result.getValue());
+        Trace.event(Trace.ALU, Trace.ALU_RESULT, result.getValue(), condCodes);
     }
 
     /**
-     * Multiply Register rx by Register ry. The high order bits of the result are
-     * stored in rx, while the
-     * low order bits of the result are stored in rxPlusOne. Sets overflow/underflow
-     * accordingly.
+     * Multiply Register rx by Register ry. The 32 bit product is split into two 16 bit words: the high order word is
+     * stored in rx, while the low order word is stored in carryRegister. Sets overflow/underflow if the product
+     * doesn't fit in a single (signed) word.
      *
      * @param rx        - first input for the multiplication. stores the high
      *                  order bits
@@ -90,37 +89,18 @@ public class ALU {
      * @param carryRegister - used to store the low order bits.
      */
     public void multiply(Register rx, Register ry, Register carryRegister) {
-        int result = rx.getValue() * ry.getValue();
-        // use register to handle the int to signed binary conversion
-        Register r = new Register("r", 16, null, true);
-        r.setValue(result);
-
-        if (r.getValue() < 0) {
-            // pos*pos=neg, so must have overflown
-            if (rx.getValue() > 0 && ry.getValue() > 0) {
-                condCodes[0] = 1;
-            } else if (rx.getValue() < 0 && ry.getValue() < 0) { // neg*neg=neg, so must have overflown
-                condCodes[0] = 1;
-            }
-        } else {
-            // neg*pos=pos, must have underflown
-            if (rx.getValue() < 0 && ry.getValue() > 0) {
-                condCodes[1] = 1;
-            } else if (rx.getValue() > 0 && ry.getValue() < 0) {
-                condCodes[1] = 1;
-            }
+        int product = rx.getValue() * ry.getValue();
+
+        if (product > Short.MAX_VALUE) {
+            condCodes |= CC_OVERFLOW;
+        } else if (product < Short.MIN_VALUE) {
+            condCodes |= CC_UNDERFLOW;
         }
-        String binary = r.getBinaryStringValue();
-        System.out.println("Result of mult: " + r.getValue() + ". Binary string: " + binary);
-        String highOrderBits = binary.substring(0, 8);
-        String lowOrderBits = binary.substring(8);
-        int rxVal = Integer.parseInt(highOrderBits, 2);
-        System.out.println("setting " + rx.getName() + " to a value of " + rxVal);
-        rx.setValue(rxVal);
-
-        int rx1Val = Integer.parseInt(lowOrderBits, 2);
-        System.out.println("setting " + carryRegister.getName() + " to a value of " + rx1Val);
-        carryRegister.setValue(rx1Val);
+        int high = product >> 16;
+        int low = product & 0xFFFF;
+        rx.setValue(high);
+        carryRegister.setValue(low);
+        Trace.event(Trace.ALU, Trace.ALU_MULTIPLY, high, low);
     }
 
     /**
@@ -136,16 +116,15 @@ public class ALU {
     public void divide(Register rx, Register ry, Register rxPlusOne) {
         // set DIVZERO cc bit
         if (ry.getValue() == 0) {
-            condCodes[2] = 1;
-            System.out.println("Divide by 0");
+            condCodes |= CC_DIVZERO;
+            Trace.event(Trace.ALU, Trace.ALU_RESULT, 0, condCodes);
             return;
         }
 
         int remainder = rx.getValue() % ry.getValue();
         int quotient = rx.getValue() / ry.getValue();
 
-        System.out.println("Quotient of divide: " + quotient);
-        System.out.println("Remainder of divide: " + remainder);
+        Trace.event(Trace.ALU, Trace.ALU_DIVIDE, quotient, remainder);
 
         // set rx and rx+1 here
         rx.setValue(quotient);
@@ -162,11 +141,11 @@ public class ALU {
      */
     public void testEquality(Register rx, Register ry) {
         if (rx.getValue() == ry.getValue()) {
-            condCodes[3] = 1;
+            condCodes |= CC_EQUALORNOT;
         } else {
-            condCodes[3] = 0;
+            condCodes &= ~CC_EQUALORNOT;
         }
-        System.out.println("EqualOrNot[3] " + condCodes[3]);
+        Trace.event(Trace.ALU, Trace.ALU_TEST, rx.getValue(), ry.getValue());
     }
 
     /**
@@ -177,26 +156,8 @@ public class ALU {
      * @return  the integer value of the operation
      */
     public int logicalAnd(Register rx, Register ry) {
-        String rxBinary = rx.getBinaryStringValue();
-        String ryBinary = ry.getBinaryStringValue();
-
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0; i < rxBinary.length(); i++) {
-            char rxChar = rxBinary.charAt(i);
-            char ryChar = ryBinary.charAt(i);
-            if (rxChar == '1' && ryChar == '0') {
-                sb.append('0');
-            } else if (rxChar == '0' && ryChar == '1') {
-                sb.append('0');
-            } else if (rxChar == '0' && ryChar == '0') {
-                sb.append('0');
-            } else {
-                sb.append('1');
-            }
-        }
-        int result = Utilities.signedBinaryToInt(sb.toString());
-        System.out.println("Logical and result: " + result);
+        int result = signExtend(rx.getValue() & ry.getValue(), rx.getLength());
+        Trace.event(Trace.ALU, Trace.ALU_LOGIC, Instruction.AND.getOpcode(), result);
         return result;
     }
 
@@ -208,27 +169,8 @@ public class ALU {
      * @return  the integer value of the operation
      */
     public int logicalOr(Register rx, Register ry) {
-        String rxBinary = rx.getBinaryStringValue();
-        String ryBinary = ry.getBinaryStringValue();
-
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0; i < rxBinary.length(); i++) {
-            char rxChar = rxBinary.charAt(i);
-            char ryChar = ryBinary.charAt(i);
-            if (rxChar == '1' && ryChar == '0') {
-                sb.append('1');
-            } else if (rxChar == '0' && ryChar == '1') {
-                sb.append('1');
-            } else if (rxChar == '0' && ryChar == '0') {
-                sb.append('0');
-            } else {
-                sb.append('0');
-            }
-        }
-
-        int result = Utilities.signedBinaryToInt(sb.toString());
-        System.out.println("Logical Or result: " + result);
+        int result = signExtend(rx.getValue() | ry.getValue(), rx.getLength());
+        Trace.event(Trace.ALU, Trace.ALU_LOGIC, Instruction.ORR.getOpcode(), result);
         return result;
     }
 
@@ -239,24 +181,8 @@ public class ALU {
      * @return  the integer value of the operation
      */
     public int logicalNot(Register rx) {
-        int count = 0;
-        String rBinary = rx.getBinaryStringValue();
-        StringBuilder sb = new StringBuilder();
-
-        while (count != rBinary.length()) {
-            char x = rBinary.charAt(count);
-            if (x == '1') {
-                x = '0';
-                sb.append(x);
-                count++;
-            } else {
-                x = '1';
-                sb.append(x);
-                count++;
-            }
-        }
-        int result = Utilities.signedBinaryToInt(sb.toString());
-        System.out.println("Logical Not result: " + result);
+        int result = signExtend(~rx.getValue(), rx.getLength());
+        Trace.event(Trace.ALU, Trace.ALU_LOGIC, Instruction.NOT.getOpcode(), result);
         return result;
     }
 
@@ -274,50 +200,64 @@ public class ALU {
             return r.getValue();
         }
 
-        String registerBinary = r.getBinaryStringValue();
-        String result;
-
-        // logical shift
-        if (AL == 1) {
-            String extraZeroes = "0".repeat(count);
-            // left shift; add 0s to end
-            if (LR == 1) {
-                String shifted = registerBinary.substring(count);
-                result = shifted + extraZeroes;
-            } else {
-                // right shift; add 0s to start
-                String shifted = registerBinary.substring(0, r.getLength() - count);
-                result = extraZeroes + shifted;
+        int length = r.getLength();
+        int bits = r.getValue() & mask(length);
+        int result;
+
+        if (LR == 1) {
+            // left shift (logical and arithmetic): 0s come in on the right
+            result = signExtend(bits << count, length);
+
+            // arithmetic: check if bits overflowed
+            if (AL != 1 && bits >>> (length - count) != 0) {
+                condCodes |= CC_OVERFLOW;
             }
+        } else if (AL == 1) {
+            // logical right shift: 0s come in on the left
+            result = signExtend(bits >>> count, length);
         } else {
-            // arithmetic shift
-
-            // left shift
-            if (LR == 1) {
-                String extraZeroes = "0".repeat(count);
-                String shifted = registerBinary.substring(count);
-                result = shifted + extraZeroes;
-
-                // check if bits overflowed
-                if (Integer.parseInt(registerBinary.substring(0, count), 2) > 0) {
-                    condCodes[0] = 1;
-                }
-            } else {
-                // right shift
-                // extend the sign bit
-                String extendedSignBits = Character.toString(registerBinary.charAt(0)).repeat(count);
-                // drop the right-most bits that will be lost by the shift
-                String shifted = registerBinary.substring(0, r.getLength() - count);
-                result = extendedSignBits + shifted;
-
-                // check if bits underflowed
-                if (Integer.parseInt(registerBinary.substring(r.getLength() - count), 2) > 0) {
-                    condCodes[1] = 1;
-                }
+            // arithmetic right shift: extend the sign bit
+            result = signExtend(bits, length) >> count;
+
+            // check if bits underflowed
+            if ((bits & mask(count)) != 0) {
+                condCodes |= CC_UNDERFLOW;
             }
         }
-        System.out.println("Shift result: " + result);
-        return Utilities.signedBinaryToInt(result);
+        Trace.event(Trace.ALU, Trace.ALU_SHIFT, r.getValue(), result);
+        return result;
+    }
+
+    /**
+     * Rotates a register left or right: the bits shifted out of one end come back in at the other
+     *
+     * @param r     - the register to rotate
+     * @param count - the amount to rotate by [0-15]
+     * @param LR    - if LR = 1, rotate left; else rotate right
+     * @return - the result of the rotation
+     */
+    public int rotate(Register r, int count, int LR) {
+        int length = r.getLength();
+        int bits = r.getValue() & mask(length);
+        count %= length;
+        if (LR != 1) {
+            // rotating right by count is rotating left by the rest
+            count = (length - count) % length;
+        }
+        int result = signExtend(bits << count | bits >>> (length - count), length);
+        Trace.event(Trace.ALU, Trace.ALU_SHIFT, r.getValue(), result);
+        return result;
+    }
+
+    /**
+     * The low bits of a value as a signed (2's complement) number of that many bits
+     */
+    private static int signExtend(int value, int length) {
+        return value << (32 - length) >> (32 - length);
+    }
+
+    private static int mask(int length) {
+        return (int) ((1L << length) - 1);
     }
 
     /**
@@ -330,7 +270,17 @@ public class ALU {
         if (index < 0 || index > 3) {
             return 0;
         }
-        return condCodes[index];
+        return condCodes >>> index & 1;
+    }
+
+    /**
+     * Tests a condition code bit (what JCC branches on)
+     *
+     * @param index - which bit in the condition code to test (range [0, 3])
+     * @return  whether the bit is set
+     */
+    public boolean testCc(int index) {
+        return (condCodes & 0xF & 1 << index) != 0;
     }
 
     /**
@@ -340,43 +290,41 @@ public class ALU {
      * @param val   - the value to set the cc bit to (range [0, 1])
      */
     public void setCc(int index, int val) {
-        if (index < 0 || index > 3 && val != 0 && val != 1) {
+        if (index < 0 || index > 3 || val != 0 && val != 1) {
             return;
         }
-        condCodes[index] = val;
+        condCodes = condCodes & ~(1 << index) | val << index;
+    }
+
+    /**
+     * @return  all the condition codes packed into one int (bit i = cc[i])
+     */
+    public int getCcBits() {
+        return condCodes;
     }
 
     /**
-     * Adds the condition code bits to the front panel
+     * Sets all the condition codes at once (bit i = cc[i])
      *
-     * @param mainPanel - the panel to add the condition code bits to
+     * @param bits - the packed condition codes
      */
-    public void addConditionCodeBits(JPanel mainPanel) {
-        condCodeLabels[0] = new JLabel("0 - OverFlow");
-        condCodeLabels[1] = new JLabel("1 - UnderFlow");
-        condCodeLabels[2] = new JLabel("2 - Divide by Zero");
-        condCodeLabels[3] = new JLabel("3 - EqualOrNot");
-
-        for (int i = 0; i < condCodeValues.length; i++) {
-            condCodeValues[i] = new JLabel("" + condCodes[i]);
-            Utilities.addComponent(condCodeLabels[i], mainPanel, 10, 4 + i, 1, GridBagConstraints.LINE_START);
-            Utilities.addComponent(condCodeValues[i], mainPanel, 11, 4 + i, 1);
-        }
+    public void setCcBits(int bits) {
+        condCodes = bits & 0xF;
     }
 
     /**
-     * Updates the front panel displays for the cc bits
+     * Sets condition code bits, leaving the others alone (used by the FPU)
+     *
+     * @param bits - the bits to set (CC_OVERFLOW etc.)
      */
-    public void updateCcDisplays() {
-        for (int i = 0; i < condCodeValues.length; i++) {
-            condCodeValues[i].setText("" + condCodes[i]);
-        }
+    void raise(int bits) {
+        condCodes |= bits;
     }
 
     /**
      * Resets all the condition codes to 0
      */
     public void reset() {
-        Arrays.fill(condCodes, 0);
+        condCodes = 0;
     }
 }
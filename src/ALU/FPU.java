@@ -0,0 +1,214 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * FPU Class does the floating point arithmetic (FADD, FSUB, CNVRT) on the machine's 16 bit floating point format
+ *
+ * Layout of the 16 bits: [ sign (1) | exponent (7) | mantissa (8) ]
+ * The value is (-1)^sign * mantissa * 2^exponent, with a 2's complement exponent (-64..63) and an unsigned mantissa.
+ * In memory (LDFR/STFR/FADD/FSUB/CNVRT) a number takes two words: c(EA) holds sign and exponent, c(EA+1) the mantissa.
+ *
+ * Results are rounded to the nearest value (ties to an even mantissa) and normalized, so the mantissa's top bit is set
+ * unless the exponent is already -64. Everything is done with shifts and masks on ints/longs.
+ * * Overflow (cc0): the result is too large; it is clamped to the largest number of its sign
+ * * Underflow (cc1): the result is too small to normalize and had to be rounded
+ */
+
+package ALU;
+
+import Common.Trace;
+
+public class FPU {
+
+    public static final int MANTISSA_BITS = 8;
+    public static final int MIN_EXPONENT = -64;
+    public static final int MAX_EXPONENT = 63;
+    public static final int MAX_MANTISSA = (1 << MANTISSA_BITS) - 1;
+
+    // Past this many bits apart, the smaller operand of an add can only affect the rounding (see add)
+    private static final int ALIGN_BITS = 24;
+
+    private final ALU alu;
+
+    /**
+     * @param alu -> the ALU holding the condition codes set by the floating point operations
+     */
+    public FPU(ALU alu) {
+        this.alu = alu;
+    }
+
+    /* FORMAT */
+
+    public static int sign(int f) { return f >>> 15 & 1; }
+
+    public static int exponent(int f) { return f << 17 >> 25; }
+
+    public static int mantissa(int f) { return f & MAX_MANTISSA; }
+
+    /**
+     * Builds a floating point number from its fields
+     * @return -> the 16 bit number (sign in bit 15)
+     */
+    public static int encode(int sign, int exponent, int mantissa) {
+        return (sign & 1) << 15 | (exponent & 0x7F) << MANTISSA_BITS | mantissa & MAX_MANTISSA;
+    }
+
+    /**
+     * Joins the two memory words of a floating point number
+     * @param signAndExponent -> c(EA): sign and exponent in the low 8 bits
+     * @param mantissa -> c(EA+1): the mantissa in the low 8 bits
+     * @return -> the 16 bit number
+     */
+    public static int fromWords(int signAndExponent, int mantissa) {
+        return (signAndExponent & 0xFF) << MANTISSA_BITS | mantissa & MAX_MANTISSA;
+    }
+
+    /**
+     * The value as a double (exact: every number in the format is a double). For display, not for the arithmetic
+     */
+    public static double toDouble(int f) {
+        double magnitude = Math.scalb((double) mantissa(f), exponent(f));
+        return sign(f) == 1 ? -magnitude : magnitude;
+    }
+
+    /* ARITHMETIC */
+
+    /**
+     * @return -> a + b, rounded
+     */
+    public int add(int a, int b) {
+        Trace.event(Trace.ALU, Trace.ALU_ADD, a, b);
+        return sum(a, b);
+    }
+
+    /**
+     * @return -> a - b, rounded
+     */
+    public int subtract(int a, int b) {
+        Trace.event(Trace.ALU, Trace.ALU_SUBTRACT, a, b);
+        return sum(a, b ^ 0x8000);
+    }
+
+    private int sum(int a, int b) {
+        int ma = mantissa(a);
+        int mb = mantissa(b);
+        if (mb == 0) {
+            return round(sign(a), ma, exponent(a));
+        }
+        if (ma == 0) {
+            return round(sign(b), mb, exponent(b));
+        }
+        int ea = exponent(a);
+        int eb = exponent(b);
+        if (ea < eb) {
+            int t = a; a = b; b = t;
+            t = ma; ma = mb; mb = t;
+            t = ea; ea = eb; eb = t;
+        }
+        int diff = ea - eb;
+        if (diff > ALIGN_BITS) {
+            // b is far below the result's last place, so all it can do is push the result off a tie:
+            // any value that small (with the same sign) rounds the same way
+            mb = 1;
+            eb = ea - ALIGN_BITS;
+            diff = ALIGN_BITS;
+        }
+        long x = (long) ma << diff;
+        long y = mb;
+        long total = (sign(a) == 1 ? -x : x) + (sign(b) == 1 ? -y : y);
+        return round(total < 0 ? 1 : 0, Math.abs(total), eb);
+    }
+
+    /**
+     * Converts a floating point number to a fixed point (16 bit 2's complement) number, dropping the fraction.
+     * Sets overflow and clamps if it doesn't fit
+     */
+    public int toFixed(int f) {
+        int mantissa = mantissa(f);
+        int exponent = exponent(f);
+        long magnitude;
+        if (exponent >= 0) {
+            // 255 << 15 still fits in an int, anything further is out of range anyway
+            magnitude = exponent > 15 && mantissa != 0 ? Long.MAX_VALUE : (long) mantissa << exponent;
+        } else {
+            magnitude = exponent <= -MANTISSA_BITS ? 0 : mantissa >> -exponent;
+        }
+        int result;
+        if (sign(f) == 0) {
+            result = magnitude > Short.MAX_VALUE ? Short.MAX_VALUE : (int) magnitude;
+            if (magnitude > Short.MAX_VALUE) {
+                alu.raise(ALU.CC_OVERFLOW);
+            }
+        } else {
+            result = magnitude > -Short.MIN_VALUE ? Short.MIN_VALUE : (int) -magnitude;
+            if (magnitude > -Short.MIN_VALUE) {
+                alu.raise(ALU.CC_OVERFLOW);
+            }
+        }
+        Trace.event(Trace.ALU, Trace.ALU_RESULT, result, alu.getCcBits());
+        return result;
+    }
+
+    /**
+     * Converts a fixed point (16 bit 2's complement) number to floating point, rounding it to 8 significant bits
+     */
+    public int fromFixed(int value) {
+        value = (short) value;
+        return round(value < 0 ? 1 : 0, Math.abs(value), 0);
+    }
+
+    /**
+     * Rounds magnitude * 2^exponent to the format and sets the condition codes
+     * @param sign -> the sign of the result
+     * @param magnitude -> not negative; at most 2^40
+     * @param exponent -> any exponent
+     * @return -> the rounded, normalized number
+     */
+    private int round(int sign, long magnitude, int exponent) {
+        if (magnitude == 0) {
+            Trace.event(Trace.ALU, Trace.ALU_RESULT, 0, alu.getCcBits());
+            return 0;
+        }
+        // how far to shift right to leave MANTISSA_BITS bits (negative: shift left)
+        int normalize = 64 - Long.numberOfLeadingZeros(magnitude) - MANTISSA_BITS;
+        boolean tiny = exponent + normalize < MIN_EXPONENT;
+        // a tiny result keeps the smallest exponent and loses more bits instead
+        int shift = tiny ? MIN_EXPONENT - exponent : normalize;
+
+        long mantissa;
+        boolean inexact;
+        if (shift <= 0) {
+            mantissa = magnitude << -shift;
+            inexact = false;
+        } else if (shift > 62) {
+            // less than half of the last place
+            mantissa = 0;
+            inexact = true;
+        } else {
+            mantissa = magnitude >>> shift;
+            long rest = magnitude & (1L << shift) - 1;
+            long half = 1L << shift - 1;
+            if (rest > half || rest == half && (mantissa & 1) != 0) {
+                mantissa++;
+                if (mantissa > MAX_MANTISSA) {
+                    mantissa >>>= 1;
+                    shift++;
+                }
+            }
+            inexact = rest != 0;
+        }
+        int resultExponent = exponent + shift;
+
+        int result;
+        if (resultExponent > MAX_EXPONENT) {
+            alu.raise(ALU.CC_OVERFLOW);
+            result = encode(sign, MAX_EXPONENT, MAX_MANTISSA);
+        } else {
+            if (tiny && inexact) {
+                alu.raise(ALU.CC_UNDERFLOW);
+            }
+            result = mantissa == 0 ? 0 : encode(sign, resultExponent, (int) mantissa);
+        }
+        Trace.event(Trace.ALU, Trace.ALU_RESULT, result, alu.getCcBits());
+        return result;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Block Cache - Basic blocks of pre-decoded instructions for DispatchMode.BLOCK, keyed by their first (absolute) PC
+ *
+ * A block is a straight line of instructions ending at the first one that can change the PC (a jump, TRAP, HLT) or
+ * at MAX_LENGTH. Each instruction in it has already been decoded (see CPU.predecode): its word, its fields and what
+ * its decode step sets, so running it skips parsing and decoding the word again. (The word is still fetched through
+ * the caches, so the cache statistics and cycles are the same in every mode.)
+ * Instructions that fault while decoding (illegal opcodes, LDX/STX without an index register) are never put in a
+ * block; they run through the step-by-step path.
+ *
+ * The words of every block are watched in Memory (see CodeWatcher). A write to one of them, by STR, STX, VADD/VSUB,
+ * a program load or a restore, throws away every block holding it, so a changed instruction is decoded again.
+ *
+ * With fusion on (CPU.setFusion) the pairs of instructions in a block that are superinstructions are marked when it
+ * is decoded, and the block runs each of them as one step. The cache then also counts which pairs of instructions
+ * run, fused or not, so the pairs worth fusing can be found (getPairProfile).
+ *
+ * In DispatchMode.COMPILED each block also counts its runs, and after COMPILE_THRESHOLD of them it is translated to
+ * bytecode (see BlockCompiler). A block that is decoded again with the same words gets the same class back.
+ */
+
+package CPU;
+
+import Memory.CodeWatcher;
+import Memory.Memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+final class BlockCache implements CodeWatcher {
+
+    static final int MAX_LENGTH = 64;
+
+    // Runs of a block before it is compiled
+    static final int COMPILE_THRESHOLD = Math.max(1, Integer.getInteger("simulator.compile.threshold", 100));
+
+    // Instructions that can change the PC; a block ends with the first one
+    private static final Set<Instruction> ENDS_BLOCK = EnumSet.of(Instruction.HALT, Instruction.JZ, Instruction.JNE,
+            Instruction.JCC, Instruction.JMA, Instruction.JSR, Instruction.RFS, Instruction.SOB, Instruction.JGE,
+            Instruction.TRAP);
+
+    /**
+     * One instruction, decoded: what CPU.parseInstruction and Instruction.decode would have set
+     */
+    static final class Op {
+        final int address;
+        final DecodedInstruction decoded;
+        final int rs1;
+        final String targetLocation;
+        final String registerType;
+        final boolean useIxi;
+
+        Op(int address, DecodedInstruction decoded, int rs1, String targetLocation, String registerType,
+           boolean useIxi) {
+            this.address = address;
+            this.decoded = decoded;
+            this.rs1 = rs1;
+            this.targetLocation = targetLocation;
+            this.registerType = registerType;
+            this.useIxi = useIxi;
+        }
+    }
+
+    static final class Block {
+        final Op[] ops;
+        // with fusion on: the superinstruction starting at each instruction, if any (null with fusion off)
+        final Superinstruction[] fused;
+        // cleared when the block's code is written; a block being run stops at the next instruction
+        boolean valid = true;
+
+        // DispatchMode.COMPILED: runs so far (-1 once it can't be compiled), and its first compiledLength
+        // instructions as bytecode
+        int runs = 0;
+        CompiledBlock compiled;
+        int compiledLength;
+
+        Block(Op[] ops, Superinstruction[] fused) {
+            this.ops = ops;
+            this.fused = fused;
+        }
+    }
+
+    private final CPU cpu;
+    private final Memory memory;
+    private final Block[] blocks;
+    private final BlockCompiler compiler;   // null unless blocks are compiled
+    private final boolean fuse;
+
+    // Statistics
+    private long built = 0;
+    private long invalidated = 0;
+    // with fusion on: instructions run in blocks, how many of them in superinstructions, and runs of each pair
+    private long instructions = 0;
+    private long fusedInstructions = 0;
+    private final long[] pairs;
+
+    BlockCache(CPU cpu, Memory memory, boolean compile, boolean fuse) {
+        this.cpu = cpu;
+        this.memory = memory;
+        compiler = compile ? new BlockCompiler() : null;
+        this.fuse = fuse;
+        pairs = fuse ? new long[Instruction.values().length * Instruction.values().length] : null;
+        blocks = new Block[memory.getSize()];
+        memory.setCodeWatcher(this);
+    }
+
+    /**
+     * @param pc -> the (absolute) address of the first instruction
+     * @return -> the block starting there, decoded now if it isn't cached; null if the instruction there can't be
+     * decoded ahead of time
+     */
+    Block get(int pc) {
+        if (Integer.compareUnsigned(pc, blocks.length) >= 0) {
+            // outside memory: the fetch faults step by step
+            return null;
+        }
+        Block block = blocks[pc];
+        if (block == null) {
+            block = build(pc);
+        }
+        return block;
+    }
+
+    /**
+     * Counts a run of the block, compiling it when it becomes hot (DispatchMode.COMPILED)
+     * @return -> the compiled block, or null if it isn't compiled (yet)
+     */
+    CompiledBlock compiled(Block block) {
+        if (block.compiled != null || compiler == null || block.runs < 0) {
+            return block.compiled;
+        }
+        if (block.runs == 0) {
+            block.compiledLength = BlockCompiler.compilableLength(block.ops);
+            if (block.compiledLength == 0) {
+                block.runs = -1;
+                return null;
+            }
+            block.compiled = compiler.cached(block.ops, block.compiledLength);
+        }
+        if (block.compiled == null && ++block.runs >= COMPILE_THRESHOLD) {
+            block.compiled = compiler.compile(block.ops, block.compiledLength);
+            if (block.compiled == null) {
+                block.runs = -1;
+            }
+        }
+        return block.compiled;
+    }
+
+    private Block build(int pc) {
+        Op[] ops = new Op[MAX_LENGTH];
+        int length = 0;
+        int end = Math.min(memory.getSize(), pc + MAX_LENGTH);
+        for (int address = pc; address < end; address++) {
+            Op op = cpu.predecode(address, memory.peek(address));
+            if (op == null) {
+                break;
+            }
+            ops[length++] = op;
+            if (ENDS_BLOCK.contains(op.decoded.instruction)) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        Block block = new Block(Arrays.copyOf(ops, length), fuse ? fuse(ops, length) : null);
+        blocks[pc] = block;
+        memory.watch(pc, length);
+        built++;
+        return block;
+    }
+
+    /**
+     * Marks the superinstructions in a block, pairing instructions from the start
+     */
+    private static Superinstruction[] fuse(Op[] ops, int length) {
+        Superinstruction[] fused = new Superinstruction[length];
+        for (int i = 0; i + 1 < length; i++) {
+            fused[i] = Superinstruction.of(ops[i].decoded.instruction, ops[i + 1].decoded.instruction);
+            if (fused[i] != null) {
+                i++;
+            }
+        }
+        return fused;
+    }
+
+    /**
+     * Counts a run of a block with fusion on
+     * @param block -> the block that ran
+     * @param count -> how many of its instructions ran, from the first
+     * @param fused -> how many of those ran in superinstructions
+     */
+    void ran(Block block, int count, int fused) {
+        instructions += count;
+        fusedInstructions += fused;
+        int width = Instruction.values().length;
+        for (int i = 1; i < count; i++) {
+            Instruction first = block.ops[i - 1].decoded.instruction;
+            pairs[first.ordinal() * width + block.ops[i].decoded.instruction.ordinal()]++;
+        }
+    }
+
+    /**
+     * @param top -> how many pairs to list
+     * @return -> the pairs of instructions run most often in blocks, with how often and whether they are fused, or
+     * null with fusion off
+     */
+    String getPairProfile(int top) {
+        if (pairs == null) {
+            return null;
+        }
+        Instruction[] all = Instruction.values();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i++) {
+            if (pairs[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Long.compare(pairs[b], pairs[a]));
+        StringBuilder s = new StringBuilder("pairs:");
+        for (int i : order.subList(0, Math.min(top, order.size()))) {
+            Instruction first = all[i / all.length];
+            Instruction second = all[i % all.length];
+            s.append(' ').append(first.name()).append('+').append(second.name()).append('=').append(pairs[i]);
+            if (Superinstruction.of(first, second) != null) {
+                s.append("(fused)");
+            }
+        }
+        return s.toString();
+    }
+
+    @Override
+    public void codeWritten(int location, int length) {
+        if (length >= blocks.length) {
+            for (int start = 0; start < blocks.length; start++) {
+                drop(start);
+            }
+        } else {
+            // every block that holds a written word starts at most MAX_LENGTH - 1 words before it
+            int first = Math.max(0, location - MAX_LENGTH + 1);
+            for (int start = first; start < location + length; start++) {
+                Block block = blocks[start];
+                if (block != null && start + block.ops.length > location) {
+                    drop(start);
+                }
+            }
+        }
+        // no block holds the written words any more
+        memory.unwatch(location, Math.min(length, blocks.length - location));
+    }
+
+    private void drop(int start) {
+        Block block = blocks[start];
+        if (block != null) {
+            block.valid = false;
+            blocks[start] = null;
+            invalidated++;
+        }
+    }
+
+    /**
+     * @return -> blocks decoded and blocks thrown away because their code was written (and the instructions run fused,
+     * with fusion on, and blocks compiled, in DispatchMode.COMPILED)
+     */
+    String getStatistics() {
+        String statistics = String.format("blocks built=%d invalidated=%d", built, invalidated);
+        if (fuse) {
+            statistics += String.format(" fused=%d of %d instructions (%.1f%%)", fusedInstructions, instructions,
+                    instructions == 0 ? 0 : 100.0 * fusedInstructions / instructions);
+        }
+        return compiler == null ? statistics : statistics + " " + compiler.getStatistics();
+    }
+}
@@ -0,0 +1,527 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Block Compiler - Translates hot basic blocks (see BlockCache) into JVM classes, one per block, for
+ * DispatchMode.COMPILED
+ *
+ * The generated run method is the instruction cycle of each instruction in the block, in a straight line, with
+ * everything known when the block was decoded folded in: which index register and whether the address is indirect,
+ * which register is loaded or stored, and whether there is anything to deposit. The loads, stores, adds and jumps
+ * that make up most loops are one call each to a direct step of the CPU (CPU.directLoad, ...), which works on the
+ * register values instead of the Register views; the other instructions go through CPU.compiledOperand and the
+ * execute of their Instruction constant (one call site per instruction, so HotSpot can inline it).
+ *
+ * The direct steps read the memory words themselves when memory has no caches or bus in front of it (the hierarchy
+ * is off, Memory.getDirectWords), and count the reads as the interpreter would. With caches they go straight to the
+ * first cache (Memory.getDirectDataCache) in the same order as the interpreter, so the statistics and cycles don't
+ * change. On the compute case of ProgramBenchmark, COMPILED takes 196 ms to ENUM's 309 ms with the default L1 cache
+ * (1.6 times as fast), and 115 ms to 232 ms with the hierarchy off (twice as fast).
+ *
+ * The class is written by hand (class file version 49, which needs no stack map frames) and defined as a hidden class
+ * in this package, so it is unloaded once nothing uses it. The last MAX_CACHED classes are kept by address and words:
+ * a block thrown away because a data word in it was written, or by a restore, gets its class back as soon as it is
+ * decoded again with the same words, without compiling or counting runs again.
+ *
+ * Instructions that can stop the machine, wait for a device or fault without a MemoryFault (HLT, TRAP, IN, OUT, CHK,
+ * the floating point and vector instructions, CNVRT, MLT/DVD with the wrong registers) aren't compiled: a block is
+ * compiled up to the first of them, which runs in the interpreter.
+ */
+
+package CPU;
+
+import Common.Common;
+import Common.Trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class BlockCompiler {
+
+    private static final Set<Instruction> NOT_COMPILED = EnumSet.of(Instruction.HALT, Instruction.TRAP,
+            Instruction.IN, Instruction.OUT, Instruction.CHK, Instruction.FADD, Instruction.FSUB, Instruction.VADD,
+            Instruction.VSUB, Instruction.CNVRT, Instruction.LDFR, Instruction.STFR);
+
+    // Instructions run by a direct step of the CPU, the rest by their execute
+    private static final Set<Instruction> JUMPS = EnumSet.of(Instruction.JZ, Instruction.JNE, Instruction.JCC,
+            Instruction.JMA, Instruction.SOB, Instruction.JGE);
+
+    // Instructions whose execute reads the decoded fields (RX, RY, the shift count, ...)
+    private static final Set<Instruction> READS_DECODED = EnumSet.of(Instruction.MLT, Instruction.DVD,
+            Instruction.TRR, Instruction.AND, Instruction.ORR, Instruction.NOT, Instruction.SRC, Instruction.RRC);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final int MAX_CACHED = 1024;
+
+    private static final String CPU_CLASS = "CPU/CPU";
+    private static final String INSTRUCTION_CLASS = "CPU/Instruction";
+    private static final String RUN_DESCRIPTOR = "(LCPU/CPU;)V";
+
+    // Compiled classes by the words they were compiled from, least recently used first
+    private final Map<Key, CompiledBlock> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CompiledBlock> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    // Statistics
+    private long compiled = 0;
+    private long reused = 0;
+    private long failed = 0;
+
+    /**
+     * @return -> the number of instructions at the start of the block that can be compiled
+     */
+    static int compilableLength(BlockCache.Op[] ops) {
+        int length = 0;
+        while (length < ops.length && compilable(ops[length])) {
+            length++;
+        }
+        return length;
+    }
+
+    private static boolean compilable(BlockCache.Op op) {
+        Instruction instruction = op.decoded.instruction;
+        if (NOT_COMPILED.contains(instruction)) {
+            return false;
+        }
+        if (instruction == Instruction.MLT || instruction == Instruction.DVD) {
+            // anything but registers 0 and 2 is an illegal operation (handleMachineFault)
+            return (op.decoded.r == 0 || op.decoded.r == 2) && (op.decoded.ix == 0 || op.decoded.ix == 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return -> the class compiled earlier for the first length instructions of a block, if it is still cached
+     */
+    CompiledBlock cached(BlockCache.Op[] ops, int length) {
+        CompiledBlock compiledBlock = cache.get(new Key(ops, length));
+        if (compiledBlock != null) {
+            reused++;
+        }
+        return compiledBlock;
+    }
+
+    /**
+     * Translates the first length instructions of a block
+     * @return -> the compiled block, or null if it couldn't be defined (it keeps running in the interpreter)
+     */
+    CompiledBlock compile(BlockCache.Op[] ops, int length) {
+        try {
+            byte[] bytes = classFile("CPU/Block" + ops[0].address, ops, length);
+            MethodHandles.Lookup block = LOOKUP.defineHiddenClass(bytes, true);
+            CompiledBlock compiledBlock = (CompiledBlock) block.findConstructor(block.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+            cache.put(new Key(ops, length), compiledBlock);
+            compiled++;
+            return compiledBlock;
+        } catch (Throwable e) {
+            failed++;
+            if (Trace.error(Trace.DECODE)) {
+                Trace.error(Trace.DECODE, "Block at " + ops[0].address + " can't be compiled: " + e);
+            }
+            return null;
+        }
+    }
+
+    /* CLASS FILE */
+
+    private static byte[] classFile(String name, BlockCache.Op[] ops, int length) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef("java/lang/Object");
+        int blockInterface = pool.classRef("CPU/CompiledBlock");
+        byte[] constructor = constructor(pool);
+        byte[] run = run(pool, ops, length);
+        int code = pool.utf8("Code");
+        int constructorName = pool.utf8("<init>");
+        int constructorDescriptor = pool.utf8("()V");
+        int runName = pool.utf8("run");
+        int runDescriptor = pool.utf8(RUN_DESCRIPTOR);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        pool.write(out);
+        out.writeShort(0x0030);     // final, super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(blockInterface);
+        out.writeShort(0);          // fields
+        out.writeShort(2);          // methods
+        method(out, constructorName, constructorDescriptor, code, 1, 1, constructor);
+        method(out, runName, runDescriptor, code, 10, 2, run);
+        out.writeShort(0);          // attributes
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, int code, int maxStack, int maxLocals,
+                               byte[] instructions) throws IOException {
+        out.writeShort(0x0001);     // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(code);
+        out.writeInt(12 + instructions.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(instructions.length);
+        out.write(instructions);
+        out.writeShort(0);          // exception table
+        out.writeShort(0);          // attributes
+    }
+
+    private static byte[] constructor(ConstantPool pool) {
+        Code code = new Code(pool);
+        code.op(ALOAD_0);
+        code.op(INVOKESPECIAL, pool.methodRef("java/lang/Object", "<init>", "()V"));
+        code.op(RETURN);
+        return code.toByteArray();
+    }
+
+    /**
+     * run(cpu): for each instruction
+     *   if (!cpu.directLoad(word, rs1, address, indexRegister, indirect, index, address + 1)) return;
+     *                                                  (or the direct step for it, if there is one)
+     * or
+     *   cpu.compiledFetch(word, rs1);
+     *   cpu.applyDecoded(Decoder.decode(word));        (if execute reads the decoded fields)
+     *   cpu.compiledOperand(address, indexRegister, indirect);
+     *   Instruction.X.execute(cpu);
+     *   cpu.compiledDepositRegister(index);            (or compiledDepositMemory, if it has a target)
+     *   if (!cpu.compiledFinish(address + 1)) return;
+     */
+    private static byte[] run(ConstantPool pool, BlockCache.Op[] ops, int length) {
+        Code code = new Code(pool);
+        List<Integer> exits = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            BlockCache.Op op = ops[i];
+            if (!direct(code, pool, op)) {
+                steps(code, pool, op);
+            }
+            if (i < length - 1) {
+                exits.add(code.branch(IFEQ));
+            } else {
+                code.op(POP);
+            }
+        }
+        int end = code.position();
+        code.op(RETURN);
+        for (int exit : exits) {
+            code.patch(exit, end);
+        }
+        return code.toByteArray();
+    }
+
+    /**
+     * Writes the call to the direct step for an instruction, leaving what it returns on the stack
+     * @return -> false if the instruction has no direct step
+     */
+    private static boolean direct(Code code, ConstantPool pool, BlockCache.Op op) {
+        DecodedInstruction decoded = op.decoded;
+        Instruction instruction = decoded.instruction;
+        boolean index = op.registerType.equals(Common.IXR);
+        String step;
+        String descriptor;
+        int flag;
+        if (instruction == Instruction.LDR || instruction == Instruction.LDX) {
+            step = "directLoad";
+            descriptor = "(IIIIZZI)Z";
+            flag = index ? 1 : 0;
+        } else if (instruction == Instruction.STR || instruction == Instruction.STX) {
+            step = "directStore";
+            descriptor = "(IIIIZZI)Z";
+            flag = index ? 1 : 0;
+        } else if (instruction == Instruction.AMR || instruction == Instruction.SMR) {
+            step = "directAddMemory";
+            descriptor = "(IIIIZZI)Z";
+            flag = instruction == Instruction.SMR ? 1 : 0;
+        } else if (instruction == Instruction.LDA) {
+            step = "directLoadAddress";
+            descriptor = "(IIIIZI)Z";
+            flag = -1;
+        } else if (JUMPS.contains(instruction)) {
+            step = "directJump";
+            descriptor = "(LCPU/Instruction;IIIIZI)Z";
+            flag = -1;
+        } else if (instruction == Instruction.AIR || instruction == Instruction.SIR) {
+            code.op(ALOAD_1);
+            code.pushInt(decoded.word);
+            code.pushInt(op.rs1);
+            code.pushInt(decoded.address);
+            code.pushInt(instruction == Instruction.SIR ? 1 : 0);
+            code.pushInt(op.address + 1);
+            code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "directAddImmediate", "(IIIZI)Z"));
+            return true;
+        } else {
+            return false;
+        }
+
+        code.op(ALOAD_1);
+        if (JUMPS.contains(instruction)) {
+            code.op(GETSTATIC, pool.fieldRef(INSTRUCTION_CLASS, instruction.name(), "LCPU/Instruction;"));
+        }
+        code.pushInt(decoded.word);
+        code.pushInt(op.rs1);
+        code.pushInt(decoded.address);
+        code.pushInt(!index ? decoded.ix : 0);
+        code.pushInt(decoded.indirect == 1 ? 1 : 0);
+        if (flag >= 0) {
+            code.pushInt(flag);
+        }
+        code.pushInt(op.address + 1);
+        code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, step, descriptor));
+        return true;
+    }
+
+    /**
+     * Writes the steps of the instruction cycle for an instruction, leaving what compiledFinish returns on the stack
+     */
+    private static void steps(Code code, ConstantPool pool, BlockCache.Op op) {
+        DecodedInstruction decoded = op.decoded;
+        code.op(ALOAD_1);
+        code.pushInt(decoded.word);
+        code.pushInt(op.rs1);
+        code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "compiledFetch", "(II)V"));
+
+        if (READS_DECODED.contains(decoded.instruction)) {
+            code.op(ALOAD_1);
+            code.pushInt(decoded.word);
+            code.op(INVOKESTATIC, pool.methodRef("CPU/Decoder", "decode", "(I)LCPU/DecodedInstruction;"));
+            code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "applyDecoded", "(LCPU/DecodedInstruction;)V"));
+        }
+
+        boolean indexed = op.useIxi && !op.registerType.equals(Common.IXR);
+        code.op(ALOAD_1);
+        code.pushInt(decoded.address);
+        code.pushInt(indexed ? decoded.ix : 0);
+        code.pushInt(op.useIxi && decoded.indirect == 1 ? 1 : 0);
+        code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "compiledOperand", "(IIZ)V"));
+
+        code.op(GETSTATIC, pool.fieldRef(INSTRUCTION_CLASS, decoded.instruction.name(), "LCPU/Instruction;"));
+        code.op(ALOAD_1);
+        code.op(INVOKEVIRTUAL, pool.methodRef(INSTRUCTION_CLASS, "execute", "(LCPU/CPU;)V"));
+
+        if (op.targetLocation.equals(Common.REGISTER)) {
+            code.op(ALOAD_1);
+            code.pushInt(op.registerType.equals(Common.IXR) ? 1 : 0);
+            code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "compiledDepositRegister", "(Z)V"));
+        } else if (op.targetLocation.equals(Common.MEMORY)) {
+            code.op(ALOAD_1);
+            code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "compiledDepositMemory", "()V"));
+        }
+
+        code.op(ALOAD_1);
+        code.pushInt(op.address + 1);
+        code.op(INVOKEVIRTUAL, pool.methodRef(CPU_CLASS, "compiledFinish", "(I)Z"));
+    }
+
+    /**
+     * @return -> blocks compiled, blocks that got a cached class, and blocks that couldn't be compiled
+     */
+    String getStatistics() {
+        return String.format("compiled=%d reused=%d failed=%d", compiled, reused, failed);
+    }
+
+    /* CACHE */
+
+    /**
+     * What the code for a block depends on: the address of its first instruction and its words
+     */
+    private static final class Key {
+        private final int address;
+        private final int[] words;
+
+        Key(BlockCache.Op[] ops, int length) {
+            address = ops[0].address;
+            words = new int[length];
+            for (int i = 0; i < length; i++) {
+                words[i] = ops[i].decoded.word;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).address == address && Arrays.equals(((Key) o).words, words);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * address + Arrays.hashCode(words);
+        }
+    }
+
+    /* BYTECODE */
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int POP = 0x57;
+    private static final int IFEQ = 0x99;
+    private static final int RETURN = 0xB1;
+    private static final int GETSTATIC = 0xB2;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+
+    /**
+     * A method body being written
+     */
+    private static final class Code {
+        private final ConstantPool pool;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<int[]> patches = new ArrayList<>();
+
+        Code(ConstantPool pool) {
+            this.pool = pool;
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void op(int opcode, int index) {
+            bytes.write(opcode);
+            bytes.write(index >> 8);
+            bytes.write(index);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                bytes.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                bytes.write(BIPUSH);
+                bytes.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, value);
+            } else {
+                op(LDC_W, pool.integer(value));
+            }
+        }
+
+        /**
+         * @return -> where the branch is, to patch its target in later
+         */
+        int branch(int opcode) {
+            int at = position();
+            op(opcode, 0);
+            return at;
+        }
+
+        void patch(int branch, int target) {
+            patches.add(new int[] { branch, target - branch });
+        }
+
+        int position() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            byte[] code = bytes.toByteArray();
+            for (int[] patch : patches) {
+                code[patch[0] + 1] = (byte) (patch[1] >> 8);
+                code[patch[0] + 2] = (byte) patch[1];
+            }
+            return code;
+        }
+    }
+
+    /**
+     * The constant pool, each constant added once
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return add("Utf8 " + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(int value) {
+            return add("Integer " + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return add("Class " + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = add("NameAndType " + name + " " + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return add(tag + " " + owner + "." + name + descriptor, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int add(String key, Entry entry) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                try {
+                    entry.write();
+                } catch (IOException e) {
+                    // a ByteArrayOutputStream doesn't throw
+                    throw new IllegalStateException(e);
+                }
+                index = count++;
+                indexes.put(key, index);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            bytes.writeTo(to);
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+}
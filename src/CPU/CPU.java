@@ -9,35 +9,37 @@
 
 package CPU;
 
-import javax.swing.*;
-
 import ALU.ALU;
+import ALU.FPU;
 import Common.Common;
-import Common.Utilities;
-import GUI.*;
+import Common.Trace;
 import Memory.*;
 
-import java.awt.*;
-import java.awt.event.*;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+
+import static ALU.ALU.CC_OVERFLOW;
+import static ALU.ALU.CC_UNDERFLOW;
 
 public class CPU {
 
-	// Simulator GUI Panel
-	private final JPanel mainPanel;
-	private Thread runThread;
+	// Everything that follows the machine (front panel, console). Never null
+	private MachineObserver observer = new MachineObserver() {};
+	private final RunController runController = new RunController(this);
 
 	// Memory Variable
-	private final Memory Memory;	private final Cache Cache;
+	private final Memory Memory;
 
 	// ALU 
 	private final ALU ALU;
+	private final FPU FPU;
 
-	// User Input 
-	private final InputSwitches InputSwitches;
-	private JTextArea DevConsole;	private JTextField InputText;
+	// Every register value lives in the register file; the fields below are views onto it
+	private final RegisterFile Registers;
+	private Register[] GPRS;	private Register[] IXRS;	private RegisterFloat[] FPRS;
 
 	// General Purpose Registers
 	private Register GPR0;	private Register GPR1;
@@ -65,16 +67,15 @@ public class CPU {
 	private Register MFR;
 
 	// Internal address register
-	private Register IAR;	private JLabel IARLabel;	
+	private Register IAR;
 	// Internal result register
-	private Register IRR;	private JLabel IRRLabel;
+	private Register IRR;
 	// Register select 1
-	private Register RS1;	private JLabel RS1Label;
+	private Register RS1;
 
-	//Run and Halt Buttons
-	private JButton run;
-	private JButton singleStep;
-	private JToggleButton halt;
+	// Run and Halt state
+	private volatile boolean halted = false;
+	// Only read and written by the thread executing instructions; the RunController turns requests into this
 	private boolean paused = false;
 
 	// Internal flags
@@ -85,8 +86,24 @@ public class CPU {
 	private int nextPc;
 	
 	// Instruction Variables
-	private Instruction currentInstruction;	private Instruction lastInstruction;	
-    private JLabel currentInstructionDisplay;
+	private Instruction currentInstruction;	private Instruction lastInstruction;
+	private DecodedInstruction decoded;
+	private DispatchMode dispatchMode = DispatchMode.ENUM;
+	private BlockCache blockCache;	// only in DispatchMode.BLOCK and COMPILED
+	private boolean fusion = false;	// blocks run superinstructions
+	private BlockCache.Block compiledBlock;	// the compiled block being run, and how many of its instructions have
+	private int compiledExecuted;			// been run
+
+	// What the direct steps of a compiled block work on (see directFetch): the register values, the relocation
+	// registers, and either the memory words when nothing sits in front of them (null otherwise), with the reads not
+	// yet counted, or the first caches in front of them (null if there are none)
+	private final int[] values;
+	private int directBase;
+	private int directLimit;
+	private short[] directWords;
+	private int directReads;
+	private Cache directFetchCache;
+	private Cache directDataCache;
 
 	private int OPCode;	private int ix;	private int GPRSelect;
 	private int IndirectFlagg;	private int memoryLocation;
@@ -97,29 +114,39 @@ public class CPU {
 	private boolean program1 = false;
 	private boolean runningBoot = false;
 
+	// Where a user program starts, relative to its first location (set when it is loaded)
+	private int entryPoint = 0;
+
+	// The deck IN reads from DEVID.CARD_READER (none until one is attached)
+	private CardReader cardReader;
+
+	// Which core of how many this CPU is (DEVID.CORE_ID, CORE_COUNT); a single CPU is core 0 of 1
+	private int coreId = 0;
+	private int coreCount = 1;
+
+	// The queue IN reads from DEVID.KEYBOARD (none: the observer is asked for each line)
+	private Keyboard keyboard;
+	private static final String KEYBOARD_PROMPT = "Enter a character or number";
+
 	
-	public CPU(JPanel mainPanel, Memory memory, InputSwitches switches) {
+	public CPU(Memory memory) {
         // Variable Creations
-		this.mainPanel = mainPanel;
 		this.Memory = memory;
-		this.InputSwitches = switches;
 		ALU = new ALU();
-		Cache = new Cache();
+		FPU = new FPU(ALU);
+		Registers = new RegisterFile();
+		values = Registers.values();
 
         // Initializing Functions
-		addGeneralPurposeRegisters();
-		addIndexRegisters();		addFloatRegisters();
-		addPC();		addMAR();		addMBR();
-		addIR();		addMFR();		addRunHalt();
-		addInternalRegisters();		addRxRy();
-		addIODevices();
-		addCurrentInstructionDisplay();
-		ALU.addConditionCodeBits(mainPanel); // Display Purposes
-
-		addListeners();
+		addRegisters();
+	}
 
-		// Create Thread to prevent Infinite Looping
-		createRunThread();
+	/**
+	 * Attaches an observer (the front panel, a console, ...) to the machine
+	 * @param observer -> the observer to notify, or null to run without one
+	 */
+	public void setObserver(MachineObserver observer) {
+		this.observer = observer != null ? observer : new MachineObserver() {};
 	}
 
 	public void boot() {
@@ -136,8 +163,8 @@ public class CPU {
 
 	public void handleProgramTermination() {
 		Memory.setRunningUserProgram(false);
-		DevConsole.append("\nProgram finished.\nUse the IPL button.\n");
 		setHalted(false);		paused = true;
+		observer.programTerminated();
 	}
 
 	/**
@@ -145,20 +172,52 @@ public class CPU {
      * * Fetch
      * * Decode
      * * Execute
+	 * A memory access outside the program's memory (MemoryFault) stops the instruction where it is and goes to
+	 * handleMachineFault, which points the next instruction at the fault handler.
 	 */
 	public void singleInstructionCycle() {
-		fetchInstruction();
-		decodeInstruction();
-		fetchOperand();
-		execute();
-        
-        // Special Case for Halt
-		if (!halt.isSelected()) {
-			depositResults();
+		instructionCycle(null);
+	}
+
+	/**
+	 * One instruction cycle, either step by step or for an instruction decoded ahead of time (DispatchMode.BLOCK)
+	 * @param op -> the decoded instruction at the PC, or null to fetch and decode it
+	 */
+	private void instructionCycle(BlockCache.Op op) {
+		try {
+			if (op == null) {
+				fetchInstruction();
+				decodeInstruction();
+			} else {
+				predecodedInstruction(op);
+			}
+			fetchOperand();
+			execute();
+
+			// Special Case for Halt
+			if (!halted) {
+				depositResults();
+			}
+		} catch (MemoryFault fault) {
+			memoryFault(fault);
+		}
+		endCycle();
+	}
+
+	private void memoryFault(MemoryFault fault) {
+		if (Trace.info(Trace.MEMORY)) {
+			Trace.info(Trace.MEMORY, "Memory fault at PC " + PC.getValue() + ": " + fault.getMessage());
+		}
+		handleMachineFault(fault.getFault());
+	}
+
+	private void endCycle() {
+		if (!halted) {
 			nextInstruction();
 			resetFlags();
-			updateInternalDisplays();
+			updateInternalRegisters();
 		}
+		observer.cycleCompleted(this);
 	}
 
 	/**
@@ -170,19 +229,9 @@ public class CPU {
 	private void fetchInstruction() {
 		// Store PC in MAR
 		MAR.setValue(PC.getValue());
-		// Fetch the word in memory if not in cache at the MAR and store it in the MBR
-		
-		if(Cache.inCache(PC.getValue())) {
-			System.out.println("Address is in cache");
-		
-			MBR.setValue(Cache.getData(PC.getValue())); // assume key+value is unified
-			
-		}else {
-			System.out.println("Address is NOT in cache, so retrieve from Memory and add to Cache");
-			int data = Memory.load(PC.getValue());
-
-			MBR.setValue(data);
-		}
+		// Fetch the word at the MAR (through the instruction cache) and store it in the MBR
+		MBR.setValue(Memory.fetch(PC.getValue()));
+		Trace.event(Trace.FETCH, Trace.FETCH_WORD, PC.getValue(), MBR.getValue());
 
 		nextPc = PC.getValue() + 1;
 	}
@@ -203,19 +252,74 @@ public class CPU {
 		RS1.setValue(GPRSelect);
 
 		lastInstruction = currentInstruction;
-		currentInstruction = Instruction.getInstruction(OPCode);
-		// update the front panel display
-		updateCurrentInstructionDisplay();
+		currentInstruction = decoded.instruction;
 
-		if (currentInstruction != null) {
+		boolean legal;
+		if (dispatchMode == DispatchMode.SWITCH) {
+			legal = Instruction.decode(OPCode, this);
+		} else if (currentInstruction != null) {
 			currentInstruction.decode(this);
-			//System.out.println("Instruction is " + currentInstruction);
+			legal = true;
 		} else {
-			System.out.println("Error decoding instruction: unknown opcode: " + OPCode + " (decimal).");
+			legal = false;
+		}
+		if (!legal) {
+			if (Trace.error(Trace.DECODE)) {
+				Trace.error(Trace.DECODE, "Error decoding instruction: unknown opcode: " + OPCode + " (decimal).");
+			}
 			handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
 		}
 	}
 
+	/**
+	 * Instruction Cycle - Steps 1 and 2 for an instruction decoded ahead of time: every register and flag ends up as
+	 * fetchInstruction and decodeInstruction would leave them. The word is still fetched through the caches, so they
+	 * count the same accesses, but it isn't parsed or decoded again.
+	 */
+	private void predecodedInstruction(BlockCache.Op op) {
+		MAR.setValue(PC.getValue());
+		Memory.fetch(PC.getValue());
+		MBR.setValue(op.decoded.word);
+		Trace.event(Trace.FETCH, Trace.FETCH_WORD, PC.getValue(), MBR.getValue());
+		nextPc = PC.getValue() + 1;
+
+		IR.setValue(op.decoded.word);
+		applyDecoded(op.decoded);
+		RS1.setValue(op.rs1);
+		lastInstruction = currentInstruction;
+		currentInstruction = op.decoded.instruction;
+		targetLocation = op.targetLocation;
+		registerType = op.registerType;
+		useIxi = op.useIxi;
+	}
+
+	/**
+	 * Decodes an instruction ahead of time, for a block (see BlockCache): runs its decode step and keeps what it set.
+	 * The CPU's own decode state is put back afterwards
+	 * @param address -> the (absolute) address of the instruction
+	 * @param word -> the instruction word
+	 * @return -> the decoded instruction, or null if decoding it would fault (it has to run step by step)
+	 */
+	BlockCache.Op predecode(int address, int word) {
+		DecodedInstruction d = Decoder.decode(word);
+		if (d.instruction == null
+				|| ((d.instruction == Instruction.LDX || d.instruction == Instruction.STX) && d.ix == 0)) {
+			return null;
+		}
+		String savedTarget = targetLocation;	String savedType = registerType;
+		boolean savedIxi = useIxi;	int savedIx = ix;	int savedRs1 = RS1.getValue();
+
+		resetFlags();
+		ix = d.ix;
+		RS1.setValue(d.r);
+		d.instruction.decode(this);
+		BlockCache.Op op = new BlockCache.Op(address, d, RS1.getValue(), targetLocation, registerType, useIxi);
+
+		targetLocation = savedTarget;	registerType = savedType;
+		useIxi = savedIxi;	ix = savedIx;	RS1.setValue(savedRs1);
+		return op;
+	}
+
 	/**
 	 * Instruction Cycle - Step 2a - Operation
 	 * 
@@ -227,22 +331,15 @@ public class CPU {
 			if (!registerType.equals(Common.IXR)) {
 				if (ix != 0) {
 					IAR.setValue(IAR.getValue() + selectIxr(ix).getValue());
-					System.out.println("Iar after indexing: " + IAR.getValue());
 				}
 			}
 			if (IndirectFlagg == 1) {
-				System.out.println("Indirect addressing");
 				IAR.setValue(Memory.get(IAR.getValue()));
 			}
 		}
+		Trace.event(Trace.DECODE, Trace.EFFECTIVE_ADDRESS, memoryLocation, IAR.getValue());
 		MAR.setValue(IAR.getValue());
 		MBR.setValue(Memory.get(MAR.getValue()));
-
-        // Fault Checking
-		int fault = Memory.getMemoryFault();
-		if (fault != -1) {
-			handleMachineFault(fault);
-		}
 	}
 
 	/**
@@ -250,11 +347,20 @@ public class CPU {
 	 * 
 	 */
 	private void execute() {
-		if (currentInstruction != null) {
+		boolean legal;
+		if (dispatchMode == DispatchMode.SWITCH) {
+			legal = Instruction.execute(OPCode, this);
+		} else if (currentInstruction != null) {
 			currentInstruction.execute(this);
+			legal = true;
 		} else {
+			legal = false;
+		}
+		if (!legal) {
 			// Fault Checking
-			System.out.println("Error executing instruction: unknown opcode: " + OPCode + " (decimal).");
+			if (Trace.error(Trace.DECODE)) {
+				Trace.error(Trace.DECODE, "Error executing instruction: unknown opcode: " + OPCode + " (decimal).");
+			}
 			handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
 		}
 	}
@@ -264,26 +370,21 @@ public class CPU {
 	 * Save Results to Memory or Registers
 	 */
 	private void depositResults() {
-		//logger info for debugging
-		// System.out.println("irr: " + irr.getValue());
-		// System.out.println("iar: " + iar.getValue());
-
 		if (targetLocation.equals(Common.REGISTER)) {
-			System.out.println("Loading value " + IRR.getValue() + " into " + registerType + RS1.getValue());
+			Trace.event(Trace.MEMORY, Trace.REGISTER_WRITE, RS1.getValue(), IRR.getValue());
 			// use register select 1 to store irr contents into the specified register
 			if (registerType.equals(Common.GPR)) {
 				Register r = selectGpr(RS1.getValue());
 				r.setValue(IRR.getValue());
-				System.out.println("Storing value " + IRR.getValue() + " into register " + r.getName());
 			} else if (registerType.equals(Common.IXR)){
 				Register r = selectIxr(RS1.getValue());
 				r.setValue(IRR.getValue());
-				System.out.println("Storing value " + IRR.getValue() + " into register " + r.getName());
 			} else if (registerType.equals(Common.FPR)) {
 				// Set the floating point register values
 				RegisterFloat r = selectFpr(RS1.getValue());
-				r.setExponent(Memory.get(IAR.getValue()));
-				r.setMantissa(Memory.get(IAR.getValue()+1));
+				Memory.checkRange(IAR.getValue(), 2);
+				r.setSignAndExponent(Memory.getUnchecked(IAR.getValue()));
+				r.setMantissa(Memory.getUnchecked(IAR.getValue()+1));
 			}
 		} else if (targetLocation.equals(Common.MEMORY)) {
 			// move contents of irr to mbr
@@ -292,22 +393,13 @@ public class CPU {
 			// floating point register; handle unique store
 			if (registerType.equals(Common.FPR)) {
 				RegisterFloat r = selectFpr(RS1.getValue());
-				// memory.insert(r.getExponent(), mar.getValue());
-				Memory.insert(r.getSignAndExponent(), MAR.getValue());
-				Memory.insert(r.getMantissa(), MAR.getValue()+1);
+				Memory.checkRange(MAR.getValue(), 2);
+				Memory.insertUnchecked(r.getSignAndExponent(), MAR.getValue());
+				Memory.insertUnchecked(r.getMantissa(), MAR.getValue()+1);
 			} else {
-				System.out.println("Storing value " + MBR.getValue() + " from register into memory location " + MAR.getValue());
-				// move contents of mbr to memory using the address in the mar
-				if (OPCode != 2 && OPCode != 34) {
-					Cache.cacheInsert(MBR.getValue(), MAR.getValue(), Memory); //writing buffer is handled in here
-				} else {
-					Memory.insert(MBR.getValue(), MAR.getValue());
-				}
-			}
-			// Fault Checking
-			int fault = Memory.getMemoryFault();
-			if (fault != -1) {
-				handleMachineFault(fault);
+				Trace.event(Trace.MEMORY, Trace.MEMORY_WRITE, MAR.getValue(), MBR.getValue());
+				// move contents of mbr to memory (through the cache) using the address in the mar
+				Memory.insert(MBR.getValue(), MAR.getValue());
 			}
 		}
 	}
@@ -320,9 +412,8 @@ public class CPU {
 		if(lastInstruction == Instruction.TRAP){
 			PC.setValue(Memory.get(2));
 		}else {
+			Trace.event(Trace.FETCH, Trace.NEXT_PC, PC.getValue(), nextPc);
 			PC.setValue(nextPc);
-
-			System.out.println("pc: " + PC.getValue());
 		}
 	}
 
@@ -346,7 +437,7 @@ public class CPU {
 				MFR.setValue(8);
 				break;
 			default:
-				System.out.println("Unknown machine fault; should not be here");
+				Trace.error(Trace.MEMORY, "Unknown machine fault; should not be here");
 				break;
 		}
 		// store pc at memory 5
@@ -356,19 +447,12 @@ public class CPU {
 	}
 
 	/**
-	 * Updates the marMemory display in case the MAR hasn't changed, but the memory at the MAR has changed
+	 * Updates the marMemory register in case the MAR hasn't changed, but the memory at the MAR has changed
 	 */
-	private void updateInternalDisplays() {
-		// update memory at MAR
-		MARMem.setValue(Memory.get(MAR.getValue()));
-
-		// mem
-
-		IARLabel.setText("" + IAR.getValue());
-		IRRLabel.setText("" + IRR.getValue());
-		RS1Label.setText("" + RS1.getValue());
-
-		ALU.updateCcDisplays();
+	private void updateInternalRegisters() {
+		// update memory at MAR (nothing to show if the MAR is outside the program's memory)
+		int mar = MAR.getValue();
+		MARMem.setValue(mar < Memory.getLimit() ? Memory.get(mar) : 0);
 	}
 
 	public void fullReset() {
@@ -381,21 +465,45 @@ public class CPU {
 		displayRaw(false);
 	}
 
+	/**
+	 * Saves the whole machine between instruction cycles: registers, condition codes, the next instruction, and
+	 * memory with its caches (copying only the memory pages written since the last checkpoint)
+	 * @return -> the checkpoint, for restore
+	 */
+	public Checkpoint checkpoint() {
+		return new Checkpoint(Registers.copyValues(), ALU.getCcBits(), nextPc, currentInstruction, lastInstruction,
+				halted, runningBoot, program1, Memory.checkpoint());
+	}
+
+	/**
+	 * Puts the machine back the way it was at a checkpoint. The machine is left paused; run or step carry on from
+	 * there. Don't call it while the run thread is executing
+	 * @param checkpoint -> a checkpoint of this machine
+	 */
+	public void restore(Checkpoint checkpoint) {
+		Memory.restore(checkpoint.getMemory());
+		Registers.restoreValues(checkpoint.registers);
+		ALU.setCcBits(checkpoint.condCodes);
+		nextPc = checkpoint.nextPc;
+		currentInstruction = checkpoint.currentInstruction;
+		lastInstruction = checkpoint.lastInstruction;
+		runningBoot = checkpoint.runningBoot;
+		program1 = checkpoint.displayRaw;
+		paused = true;
+		setHalted(checkpoint.halted);
+	}
+
 	/**
 	 * Resets all the internal components of the CPU
 	 */
 	public void reset() {
 		// Reset Register Values
-		GPR0.setValue(0);	GPR1.setValue(0);
-		GPR2.setValue(0);	GPR3.setValue(0);
-		IX1.setValue(0);		IX2.setValue(0);
-		IX3.setValue(0);
-		RX.setValue(0);		RY.setValue(0);
-		R0.setValue(0);		R1.setValue(0);
+		Registers.reset();
+		RX = GPR0;		RY = GPR0;
 
 		if (Memory.getRunningUserProgram()) {
-			PC.setValue(Common.USER_PROGRAM_OFFSET);
-			nextPc = Common.USER_PROGRAM_OFFSET;
+			PC.setValue(Common.USER_PROGRAM_OFFSET + entryPoint);
+			nextPc = Common.USER_PROGRAM_OFFSET + entryPoint;
 		} else {
 			PC.setValue(0);
 			nextPc = 0;
@@ -407,14 +515,12 @@ public class CPU {
 		setHalted(false);
 		ALU.reset();
 
-		// Reset Interal Register Values (and Displays)
-		IAR.setValue(0);		IARLabel.setText("0");
-		IRR.setValue(0);		IRRLabel.setText("0");
-		RS1.setValue(0);		RS1Label.setText("0");
+		// Reset Interal Register Values
+		IAR.setValue(0);		IRR.setValue(0);		RS1.setValue(0);
 
 		// Reset Flags
 		resetFlags();
-		currentInstruction = null;		updateCurrentInstructionDisplay();
+		currentInstruction = null;		decoded = null;
 		OPCode = 0;		ix = 0;		GPRSelect = 0;
 		IndirectFlagg = 0;		memoryLocation = 0;
 	}
@@ -430,10 +536,7 @@ public class CPU {
 	 * @return -> the general purpose register to return
 	 */
 	public Register selectGpr(int gpr) {
-		if      (gpr == 1) { return GPR1; } 
-        else if (gpr == 2) { return GPR2; } 
-        else if (gpr == 3) { return GPR3; }
-		return GPR0;
+		return GPRS[gpr & 3];
 	}
 
 	/**
@@ -442,9 +545,8 @@ public class CPU {
 	 * @return -> the general purpose register to return
 	 */
 	public RegisterFloat selectFpr(int fpr) {
-		if (fpr == 1) {	return R1; }
 		if (fpr > 1) { handleMachineFault(Common.ILLEGAL_OPERATION_CODE); }
-		return R0;
+		return FPRS[fpr & 1];
 	}
 
 	/**
@@ -453,41 +555,54 @@ public class CPU {
 	 * @return -> the index register to return
 	 */
 	public Register selectIxr(int ixr) {
-		if (ixr == 2) { return IX2; } 
-        else if (ixr == 3) { return IX3; } 
-        else { return IX1; }
+		return IXRS[ixr & 3];
 	}
 	
 	/**
 	 * Used to parse the binary instruction into its appropriate values
 	 */
 	private void parseInstruction() {
-		String binary = IR.getBinaryStringValue();
-		// set the switches to the value of the instruction for display purposes
-		InputSwitches.setSwitchValue(binary);
+		// every possible word is decoded ahead of time
+		applyDecoded(Decoder.decode(IR.getValue()));
+	}
+
+	void applyDecoded(DecodedInstruction decoded) {
+		this.decoded = decoded;
 
 		// fetch register values and store in memory
-		OPCode = Integer.parseInt(binary.substring(0, 6), 2);
-		GPRSelect = Integer.parseInt(binary.substring(6, 8), 2);
-		ix = Integer.parseInt(binary.substring(8, 10), 2);
-		IndirectFlagg = Integer.parseInt(binary.substring(10, 11), 2);
-		memoryLocation = Integer.parseInt(binary.substring(11), 2);
+		OPCode = decoded.opcode;
+		GPRSelect = decoded.r;
+		ix = decoded.ix;
+		IndirectFlagg = decoded.indirect;
+		memoryLocation = decoded.address;
 
 		// used for shift and rotate instructions
-		ShiftLeft = Integer.parseInt(binary.substring(8, 9), 2);
-		ShiftRight = Integer.parseInt(binary.substring(9, 10), 2);
-		Count = Integer.parseInt(binary.substring(12), 2);
+		ShiftLeft = decoded.al;
+		ShiftRight = decoded.lr;
+		Count = decoded.count;
 
 		RX = selectGpr(GPRSelect);	RY = selectGpr(ix);
 	}
 
 	private void loadBootProgram() {
-		System.out.println("Loading boot program");
+		Trace.info(Trace.MEMORY, "Loading boot program");
+		// The binary image (see ProgramImage) is copied in blocks; boot.txt is the fallback
+		try (InputStream image = getClass().getResourceAsStream("/programs/boot.img")) {
+			if (image != null) {
+				ProgramImage.read(image).loadInto(Memory);
+				Trace.info(Trace.MEMORY, "[SUCCESS] Loaded boot program into memory");
+				return;
+			}
+		} catch (IOException | MemoryFault e) {
+			if (Trace.error(Trace.MEMORY)) {
+				Trace.error(Trace.MEMORY, "Bad boot program image: " + e.getMessage());
+			}
+		}
 		try {
             // Not sure if this will work on all computers.. Check after Jar File
 			InputStream instream = getClass().getResourceAsStream("/programs/boot.txt");
 			if (instream == null) {
-				System.out.println("[ERROR] Boot Program is null.");
+				Trace.error(Trace.MEMORY, "Boot Program is null.");
 				return;
 			}
 			BufferedReader br = new BufferedReader(new InputStreamReader(instream));
@@ -497,12 +612,14 @@ public class CPU {
 				String[] instr = line.split("\\s+");
 				int new_location = Memory.hexToDec(instr[0]) + Common.BOOT_PROGRAM_ADDRESS;
 				int new_value = Memory.hexToDec(instr[1]);
-				System.out.println(new_value + " inserted into memory location " + new_location);
+				Trace.event(Trace.MEMORY, Trace.MEMORY_WRITE, new_location, new_value);
 				Memory.insert(new_value, new_location);
 			}
-			System.out.println("[SUCCESS] Loaded boot program into memory");
+			Trace.info(Trace.MEMORY, "[SUCCESS] Loaded boot program into memory");
 		} catch (Exception e) {
-			System.out.println("[ERROR] No boot program found: " + e.getMessage());
+			if (Trace.error(Trace.MEMORY)) {
+				Trace.error(Trace.MEMORY, "No boot program found: " + e.getMessage());
+			}
 		}
 	}
 
@@ -512,52 +629,73 @@ public class CPU {
      * If r is storing a character, the ascii value of r's value will be displayed
 	 */
 	public void printToConsole(Register r) {
+		Trace.event(Trace.IO, Trace.PRINTER_OUT, RS1.getValue(), r.getValue());
 		// print just the number in the register instead of ascii value
 		if (program1) {
-			DevConsole.append(r.getValue() + " \n");
+			observer.print(r.getValue() + " \n");
 		} else {
 			// handle "enter" character
-			if (r.getValue() == 13) { DevConsole.append("\n"); } 
-            else { DevConsole.append(Character.toString(r.getChar())); }
+			if (r.getValue() == 13) { observer.print("\n"); } 
+            else { observer.print(Character.toString(r.getChar())); }
 		}
 	}
 
 	/**
 	 * Get input from the keyboard. Input can be either a character or an integer, assuming the integer is within
 	 * the range that the register can hold.
+	 *
+	 * Lines come from the keyboard queue if one is attached (waiting on this thread until one is typed), and
+	 * otherwise from the observer.
 	 */
 	public void getKeyboardInput() {
 		Register r = selectGpr(RS1.getValue());
 		char c;
 		do {
 			boolean tooLarge = false;
-			String input = JOptionPane.showInputDialog(mainPanel, "Enter a character or number");
-			if (input == null) {
-				String quitMessage = "You must enter a character or number.\nWould you like to quit the simulator?";
-				int quit = JOptionPane.showConfirmDialog(mainPanel, quitMessage);
-				if (quit == JOptionPane.YES_OPTION) {
-					System.exit(0);
-				} else {
+			String input;
+			if (keyboard == null) {
+				input = observer.readKeyboard(KEYBOARD_PROMPT);
+				if (input == null) {
+					if (observer.keyboardClosed()) {
+						// nothing left to read; stop the program instead of waiting forever
+						setHalted(true);
+						handleProgramTermination();
+						return;
+					}
 					continue;
 				}
+			} else {
+				input = keyboard.poll();
+				if (input == null) {
+					observer.keyboardWaiting(KEYBOARD_PROMPT);
+					input = keyboard.take(runController::isPauseRequested);
+				}
+				if (input == null) {
+					setHalted(true);
+					if (keyboard.isClosed() && keyboard.pending() == 0) {
+						// the queue is used up; stop the program
+						handleProgramTermination();
+					}
+					// otherwise halted while waiting: the PC stays on this IN, so it runs again on resume
+					return;
+				}
 			}
 			// test if valid number
 			try {
 				int num = Integer.parseInt(input);
 				// if the num is too large
 				if (num > Math.pow(2, r.getLength())) {
-					JOptionPane.showMessageDialog(mainPanel, "Number you entered is too large.\n0..."+ Math.pow(2, r.getLength()));
-					//System.out.println("User entered too large of a number");
+					observer.keyboardRejected("Number you entered is too large.\n0..."+ Math.pow(2, r.getLength()));
 					tooLarge = true;
 				} else {
 					// otherwise, valid num so set the register value
 					r.setValue(num);
-					InputText.setText("" + num);
-					System.out.println("Register " + r.getName() + " loaded with value " + num);
+					observer.keyboardAccepted("" + num);
+					Trace.event(Trace.IO, Trace.KEYBOARD_IN, RS1.getValue(), num);
 					return;
 				}
 			} catch (NumberFormatException e) {
-				System.out.println("Error when parsing keyboard input: " + e.getMessage());
+				// not a number; try it as a character
 			}
 
 			if (!tooLarge) {
@@ -565,270 +703,675 @@ public class CPU {
 				if (input.length() == 1) {
 					c = input.charAt(0);
 					r.setValue(c);
-					InputText.setText("" + c);
-
-					System.out.println("Register " + r.getName() + " loaded with character " + c);
+					observer.keyboardAccepted("" + c);
+					Trace.event(Trace.IO, Trace.KEYBOARD_IN, RS1.getValue(), c);
 					return;
 				} else if (input.length() == 0) {
 					// enter key (ascii 10)
 					r.setValue('\n');
-					InputText.setText("\n");
+					observer.keyboardAccepted("\n");
 					return;
 				}
 
-				JOptionPane.showMessageDialog(mainPanel, "Input must be a character or a number");
+				observer.keyboardRejected("Input must be a character or a number");
 			}
 		} while(true);
 	}
 
+	/**
+	 * Get the next word from the card reader: a character, 13 at the end of a line or EOT (4) at the end of the deck.
+	 * With no card reader attached (or if it can't be read) the deck is empty.
+	 */
+	public void getCardReaderInput() {
+		int word = CardReader.END_OF_TRANSMISSION;
+		if (cardReader != null) {
+			try {
+				word = cardReader.next();
+			} catch (UncheckedIOException e) {
+				Trace.error(Trace.IO, "Card reader " + cardReader.getName() + " can't be read: " + e.getMessage());
+			}
+		}
+		selectGpr(RS1.getValue()).setValue(word);
+		Trace.event(Trace.IO, Trace.CARD_IN, RS1.getValue(), word);
+	}
+
+	/**
+	 * IN from DEVID.CORE_ID or CORE_COUNT: which core this is, or how many cores the machine has, so a parallel program
+	 * can split its work between the cores
+	 * @param devId -> the device
+	 */
+	public void getCoreInput(int devId) {
+		int value = devId == DEVID.CORE_ID.getId() ? coreId : coreCount;
+		selectGpr(RS1.getValue()).setValue(value);
+	}
+
+	/**
+	 * Makes this CPU one core of a multi-core machine (see Machine.MultiCoreMachine)
+	 * @param id -> the core number, from 0
+	 * @param count -> how many cores the machine has
+	 */
+	public void setCore(int id, int count) {
+		coreId = id;
+		coreCount = count;
+	}
+
+	public int getCoreId() { return coreId; }
+
+	/**
+	 * @param keyboard -> the queue IN from DEVID.KEYBOARD takes lines from, or null to ask the observer for each one
+	 */
+	public void setKeyboard(Keyboard keyboard) {
+		this.keyboard = keyboard;
+	}
+
+	public Keyboard getKeyboard() {
+		return keyboard;
+	}
+
+	/**
+	 * @param cardReader -> the deck for IN from DEVID.CARD_READER, or null for none
+	 */
+	public void setCardReader(CardReader cardReader) {
+		this.cardReader = cardReader;
+	}
+
+	public CardReader getCardReader() {
+		return cardReader;
+	}
+
 	/**
 	 * Used to either pause or resume the machine
-	 * @param isHalted --> if true, disables the front panel buttons (halted)
+	 * @param isHalted --> if true, the front panel disables its run buttons (halted)
 	 */
 	public void setHalted(boolean isHalted) {
-		// Enable/disable buttons accordingly. But, don't resume CPU execution until user presses run/single step
-		halt.setSelected(isHalted);		run.setEnabled(!isHalted);		singleStep.setEnabled(!isHalted);
+		// Halting pauses the machine, but don't resume CPU execution until user presses run/single step
+		halted = isHalted;
+		if (isHalted) { paused = true; }
+		observer.haltChanged(isHalted);
 	}
 
 	/**
-	 * Creating a thread specifically for the simulator to allow interactions while processing instructions
+	 * Switches the memory over to the user program (if it isn't already) and resets the CPU to its first instruction
 	 */
-	private void createRunThread() {
-		runThread = new Thread("runThread") {
-			@Override
-			public void run() {
-				while (true) {
-					// execute instructions while the machine is not halted
-					if (!paused) {
-						singleInstructionCycle();
-						if (PC.getValue() + 1 == 2048) { break; }
-					} else {
-						if (PC.getValue() != nextPc) { nextPc = PC.getValue() + 1; }
-						try { sleep(10); } catch (java.lang.InterruptedException ignored) {}
-					}
-				}
-			}
-		};
+	public void startUserProgram() {
+		if (!Memory.getRunningUserProgram()) {
+			Memory.setRunningUserProgram(true);
+			reset();
+			// cache statistics and cycles are per run
+			Memory.getHierarchy().resetStatistics();
+		}
 	}
 
 	/**
-	 * Add Listeners for 3 main run buttons
-     * Run, Step and Halt.
+	 * Run: Start the CPU if it wasn't running; otherwise un-pause the machine
 	 */
-	private void addListeners() {
-		run.addActionListener(ae -> {
-			// Start the CPU if it wasn't running; otherwise un-pause the machine
-			if (!runThread.isAlive()) {	runThread.start();	}
-			if (!Memory.getRunningUserProgram()) {
-				Memory.setRunningUserProgram(true);
-				reset();
+	public void run() {
+		runController.run();
+	}
+
+	/**
+	 * Lets runBurst execute again after a pause
+	 */
+	void resume() {
+		paused = false;
+	}
+
+	/**
+	 * Pauses the machine when the PC reaches the last word it can address: the end of memory, or word 4095 when
+	 * memory is bigger than the 12 bit PC can reach (it would otherwise wrap around to 0)
+	 */
+	private void checkEndOfMemory() {
+		if (PC.getValue() + 1 == Math.min(Memory.getSize(), 1 << PC.getLength())) { paused = true; }
+	}
+
+	/**
+	 * Executes instruction cycles until the burst is used up or the machine pauses (HLT, end of memory)
+	 * @param maxInstructions -> the most instructions to execute
+	 * @return -> the number of instructions executed
+	 */
+	int runBurst(int maxInstructions) {
+		if (blockCache != null) {
+			return runBlocks(maxInstructions);
+		}
+		int executed = 0;
+		while (executed < maxInstructions && !paused) {
+			singleInstructionCycle();
+			executed++;
+			checkEndOfMemory();
+		}
+		return executed;
+	}
+
+	/**
+	 * runBurst for DispatchMode.BLOCK: runs the cached block at the PC, one instruction cycle per instruction, until
+	 * the PC leaves it (a jump, a fault) or its code is written. An instruction that can't be decoded ahead of time
+	 * runs step by step. With fusion on, each superinstruction in the block is one step (fusedCycles). In
+	 * DispatchMode.COMPILED a block that has been compiled runs as bytecode, unless the instruction before it was a
+	 * TRAP (the PC comes from memory) or the burst ends inside it
+	 */
+	private int runBlocks(int maxInstructions) {
+		if (fusion) {
+			directMemory();
+		}
+		int executed = 0;
+		while (executed < maxInstructions && !paused) {
+			BlockCache.Block block = blockCache.get(PC.getValue());
+			if (block == null) {
+				singleInstructionCycle();
+				executed++;
+				checkEndOfMemory();
+				continue;
 			}
-			paused = false;
-		});
-
-		halt.addItemListener(e -> {
-			// If the checkbox was checked, halt the execution
-			if (e.getStateChange() == ItemEvent.SELECTED) {
-				setHalted(true);
-				paused = true;
-                System.out.println(this.Memory.getMemoryString());
-			} else {
-				// otherwise, un-halt the machine; don't resume execution though --> lets user decide next action
-				setHalted(false);
+			CompiledBlock compiled = blockCache.compiled(block);
+			if (compiled != null && !halted && currentInstruction != Instruction.TRAP
+					&& maxInstructions - executed >= block.compiledLength) {
+				executed += runCompiled(block, compiled);
+				continue;
+			}
+			BlockCache.Op[] ops = block.ops;
+			int ran = 0;
+			int fused = 0;
+			while (ran < ops.length) {
+				BlockCache.Op op = ops[ran];
+				boolean pair = block.fused != null && block.fused[ran] != null;
+				int count;
+				if (pair && !halted && currentInstruction != Instruction.TRAP && maxInstructions - executed >= 2) {
+					count = fusedCycles(block, op, ops[ran + 1]);
+					fused += count;
+					op = ops[ran + count - 1];
+				} else {
+					instructionCycle(op);
+					count = 1;
+				}
+				ran += count;
+				executed += count;
+				checkEndOfMemory();
+				if (paused || !block.valid || PC.getValue() != op.address + 1 || executed == maxInstructions) {
+					break;
+				}
+			}
+			if (block.fused != null) {
+				blockCache.ran(block, ran, fused);
 			}
-		});
+		}
+		return executed;
+	}
 
-		// run one instruction cycle
-		singleStep.addActionListener(e -> {
-			if (!Memory.getRunningUserProgram()) {
-				Memory.setRunningUserProgram(true);
-				reset();
+	/**
+	 * Runs a superinstruction as one step of the block: both instructions of the pair by their direct steps, on the
+	 * register values and memory words (or the first cache) without the Register views (see directStep), and one
+	 * end of cycle for the pair, so the observer sees a single cycle. The second only runs if the first leaves the
+	 * PC on it with the machine running and the block's code unchanged. A fault in either ends the cycle there, as
+	 * instructionCycle would, so the registers, condition codes, memory, cache accesses and trace events are those
+	 * of the instructions run step by step
+	 * @return -> the number of instructions executed (1 or 2)
+	 */
+	private int fusedCycles(BlockCache.Block block, BlockCache.Op first, BlockCache.Op second) {
+		// neither the pair nor the instruction before it (see runBlocks) is a TRAP, which is all nextInstruction
+		// looks at
+		Instruction before = currentInstruction;
+		lastInstruction = before;
+		BlockCache.Op last = first;
+		try {
+			directStep(first);
+			directNextInstruction();
+			checkEndOfMemory();
+			if (!paused && block.valid && values[RegisterFile.PC] == second.address) {
+				last = second;
+				directStep(second);
+				directNextInstruction();
 			}
-			singleInstructionCycle();
-		});
+			directCount();
+			observer.cycleCompleted(this);
+		} catch (MemoryFault fault) {
+			directCount();
+			memoryFault(fault);
+			endCycle();
+		}
+		applyDecoded(last.decoded);
+		lastInstruction = last == second ? first.decoded.instruction : before;
+		currentInstruction = last.decoded.instruction;
+		resetFlags();
+		return last == second ? 2 : 1;
 	}
 
-	private void addGeneralPurposeRegisters() {
-        // GPU -> CPU
-		GPR0 = new Register("GPR 0", 16, InputSwitches, true);
-		GPR1 = new Register("GPR 1", 16, InputSwitches, true);
-		GPR2 = new Register("GPR 2", 16, InputSwitches, true);
-		GPR3 = new Register("GPR 3", 16, InputSwitches, true);
+	/**
+	 * Runs a compiled block; a MemoryFault ends its instruction cycle the way instructionCycle does. What the
+	 * compiled instructions don't keep up to date as they go (the decoded fields, the current and last instruction,
+	 * the flags) is set for the last one run at the end
+	 * @return -> the number of instructions executed
+	 */
+	private int runCompiled(BlockCache.Block block, CompiledBlock compiled) {
+		compiledBlock = block;
+		compiledExecuted = 0;
+		directMemory();
+		// none of the compiled instructions is a TRAP, which is all nextInstruction looks at
+		Instruction before = currentInstruction;
+		lastInstruction = before;
+		try {
+			compiled.run(this);
+		} catch (MemoryFault fault) {
+			directCount();
+			memoryFault(fault);
+			endCycle();
+			compiledExecuted++;
+			checkEndOfMemory();
+		}
+		BlockCache.Op last = block.ops[compiledExecuted - 1];
+		applyDecoded(last.decoded);
+		lastInstruction = compiledExecuted > 1 ? block.ops[compiledExecuted - 2].decoded.instruction : before;
+		currentInstruction = last.decoded.instruction;
+		resetFlags();
+		compiledBlock = null;
+		return compiledExecuted;
+	}
 
-		// GPR -> GUI
-		Utilities.addComponent(GPR0.getLabel(), mainPanel, 0, 0, 1);
-		Utilities.addComponent(GPR0.getTextField(), mainPanel, 1, 0, 1);
-		Utilities.addComponent(GPR0.getLoad(), mainPanel, 2, 0, 1);
+	/* COMPILED BLOCKS: the steps of an instruction cycle that a compiled block calls (see BlockCompiler) */
 
-		Utilities.addComponent(GPR1.getLabel(), mainPanel, 0, 1, 1);
-		Utilities.addComponent(GPR1.getTextField(), mainPanel, 1, 1, 1);
-		Utilities.addComponent(GPR1.getLoad(), mainPanel, 2, 1, 1);
+	/**
+	 * Steps 1 and 2, as predecodedInstruction
+	 * @param word -> the instruction word
+	 * @param rs1 -> the register its decode step selects
+	 */
+	void compiledFetch(int word, int rs1) {
+		int pc = PC.getValue();
+		MAR.setValue(pc);
+		Memory.fetch(pc);
+		MBR.setValue(word);
+		Trace.event(Trace.FETCH, Trace.FETCH_WORD, pc, MBR.getValue());
+		nextPc = pc + 1;
+		IR.setValue(word);
+		RS1.setValue(rs1);
+	}
 
-		Utilities.addComponent(GPR2.getLabel(), mainPanel, 0, 2, 1);
-		Utilities.addComponent(GPR2.getTextField(), mainPanel, 1, 2, 1);
-		Utilities.addComponent(GPR2.getLoad(), mainPanel, 2, 2, 1);
+	/**
+	 * Step 2a, as fetchOperand with the decode flags already checked
+	 * @param address -> the address field of the instruction
+	 * @param indexRegister -> the index register added to it, or 0 for none
+	 * @param indirect -> true if the address is indirect
+	 */
+	void compiledOperand(int address, int indexRegister, boolean indirect) {
+		IAR.setValue(address);
+		if (indexRegister != 0) {
+			IAR.setValue(IAR.getValue() + IXRS[indexRegister].getValue());
+		}
+		if (indirect) {
+			IAR.setValue(Memory.get(IAR.getValue()));
+		}
+		Trace.event(Trace.DECODE, Trace.EFFECTIVE_ADDRESS, address, IAR.getValue());
+		MAR.setValue(IAR.getValue());
+		MBR.setValue(Memory.get(MAR.getValue()));
+	}
 
-		Utilities.addComponent(GPR3.getLabel(), mainPanel, 0, 3, 1);
-		Utilities.addComponent(GPR3.getTextField(), mainPanel, 1, 3, 1);
-		Utilities.addComponent(GPR3.getLoad(), mainPanel, 2, 3, 1);
+	/**
+	 * Post operation, as depositResults for a GPR or an index register
+	 */
+	void compiledDepositRegister(boolean index) {
+		Trace.event(Trace.MEMORY, Trace.REGISTER_WRITE, RS1.getValue(), IRR.getValue());
+		Register r = index ? selectIxr(RS1.getValue()) : selectGpr(RS1.getValue());
+		r.setValue(IRR.getValue());
 	}
 
-	private void addIndexRegisters() {
-		// IX -> CPU
-		IX1 = new Register("IX 1", 16, InputSwitches, true);
-		IX2 = new Register("IX 2", 16, InputSwitches, true);
-		IX3 = new Register("IX 3", 16, InputSwitches, true);
+	/**
+	 * Post operation, as depositResults for memory
+	 */
+	void compiledDepositMemory() {
+		MBR.setValue(IRR.getValue());
+		Trace.event(Trace.MEMORY, Trace.MEMORY_WRITE, MAR.getValue(), MBR.getValue());
+		Memory.insert(MBR.getValue(), MAR.getValue());
+	}
 
-		// IX -> GUI
-		Utilities.addComponent(IX1.getLabel(), mainPanel, 0, 6, 1);
-		Utilities.addComponent(IX1.getTextField(), mainPanel, 1, 6, 1);
-		Utilities.addComponent(IX1.getLoad(), mainPanel, 2, 6, 1);
+	/**
+	 * The end of the instruction cycle, as runBlocks would end it
+	 * @param nextAddress -> the address of the next instruction in the block
+	 * @return -> true to go on to it; false if the PC has left the block, the block's code was written or the
+	 * machine paused
+	 */
+	boolean compiledFinish(int nextAddress) {
+		Trace.event(Trace.FETCH, Trace.NEXT_PC, PC.getValue(), nextPc);
+		PC.setValue(nextPc);
+		updateInternalRegisters();
+		observer.cycleCompleted(this);
+		compiledExecuted++;
+		checkEndOfMemory();
+		return !paused && compiledBlock.valid && PC.getValue() == nextAddress;
+	}
 
-		Utilities.addComponent(IX2.getLabel(), mainPanel, 0, 7, 1);
-		Utilities.addComponent(IX2.getTextField(), mainPanel, 1, 7, 1);
-		Utilities.addComponent(IX2.getLoad(), mainPanel, 2, 7, 1);
+	/* DIRECT STEPS: whole instruction cycles for the instructions compiled blocks and superinstructions run most, on
+	 * the register values themselves instead of through the Register views, and on the memory words themselves when
+	 * memory has no caches in front of it (Memory.getDirectWords) or on the first cache when it has. Every register,
+	 * event and access ends up as the steps above would leave it; reads made on the words are counted at the end of
+	 * each cycle */
 
-		Utilities.addComponent(IX3.getLabel(), mainPanel, 0, 8, 1);
-		Utilities.addComponent(IX3.getTextField(), mainPanel, 1, 8, 1);
-		Utilities.addComponent(IX3.getLoad(), mainPanel, 2, 8, 1);
+	/**
+	 * LDR, or LDX (into an index register)
+	 * @param word -> the instruction word
+	 * @param rs1 -> the register its decode step selects
+	 * @param address -> the address field of the instruction
+	 * @param indexRegister -> the index register added to it, or 0 for none
+	 * @param indirect -> true if the address is indirect
+	 * @param index -> true to load an index register
+	 * @param nextAddress -> the address of the next instruction in the block
+	 * @return -> as compiledFinish
+	 */
+	boolean directLoad(int word, int rs1, int address, int indexRegister, boolean indirect, boolean index,
+					   int nextAddress) {
+		load(word, rs1, address, indexRegister, indirect, index);
+		return directFinish(nextAddress);
 	}
 
-	private void addFloatRegisters(){
-        // FLOPR -> CPU
-		R0 = new RegisterFloat("FR 0", 16, InputSwitches, true);
-		R1 = new RegisterFloat("FR 1", 16, InputSwitches, true);
+	/**
+	 * LDA (see directLoad)
+	 */
+	boolean directLoadAddress(int word, int rs1, int address, int indexRegister, boolean indirect, int nextAddress) {
+		loadAddress(word, rs1, address, indexRegister, indirect);
+		return directFinish(nextAddress);
+	}
 
-        // FLOPR -> GUI		
-        Utilities.addComponent(R0.getLabel(), mainPanel, 0, 9, 1);
-		Utilities.addComponent(R0.getTextField(), mainPanel, 1, 9, 1);
-		Utilities.addComponent(R0.getLoad(), mainPanel, 2, 9, 1);
+	/**
+	 * STR, or STX (from an index register) (see directLoad)
+	 */
+	boolean directStore(int word, int rs1, int address, int indexRegister, boolean indirect, boolean index,
+						int nextAddress) {
+		store(word, rs1, address, indexRegister, indirect, index);
+		return directFinish(nextAddress);
+	}
 
-		Utilities.addComponent(R1.getLabel(), mainPanel, 0, 10, 1);
-		Utilities.addComponent(R1.getTextField(), mainPanel, 1, 10, 1);
-		Utilities.addComponent(R1.getLoad(), mainPanel, 2, 10, 1);
+	/**
+	 * AMR, or SMR (see directLoad)
+	 * @param subtract -> SMR instead of AMR
+	 */
+	boolean directAddMemory(int word, int rs1, int address, int indexRegister, boolean indirect, boolean subtract,
+							int nextAddress) {
+		addMemory(word, rs1, address, indexRegister, indirect, subtract);
+		return directFinish(nextAddress);
 	}
 
-	private void addPC() {
-		// PC -> CPU
-		PC = new Register("PC", 12, InputSwitches, false);
-		nextPc = 0;
+	/**
+	 * AIR, or SIR (see directLoad)
+	 * @param immediate -> the address field of the instruction
+	 * @param subtract -> SIR instead of AIR
+	 */
+	boolean directAddImmediate(int word, int rs1, int immediate, boolean subtract, int nextAddress) {
+		addImmediate(word, rs1, immediate, subtract);
+		return directFinish(nextAddress);
+	}
 
-        // PC -> GUI
-		Utilities.addComponent(PC.getLabel(), mainPanel, 6, 0, 1);
-		Utilities.addComponent(PC.getTextField(), mainPanel, 7, 0, 1, GridBagConstraints.LINE_END);
-		Utilities.addComponent(PC.getLoad(), mainPanel, 8, 0, 1);
+	/**
+	 * JZ, JNE, JCC, JMA, SOB or JGE (see directLoad)
+	 * @param jump -> which of them
+	 */
+	boolean directJump(Instruction jump, int word, int rs1, int address, int indexRegister, boolean indirect,
+					   int nextAddress) {
+		jump(jump, word, rs1, address, indexRegister, indirect);
+		return directFinish(nextAddress);
 	}
 
-	private void addMAR() {
-		// MAR -> CPU
-		MAR = new Register("MAR", 12, InputSwitches, false);
-		MARMem = new Register("Mem @ MAR", 16, InputSwitches, false);
+	/**
+	 * The direct step for an instruction of a block, up to the end of its cycle (see fusedCycles)
+	 */
+	private void directStep(BlockCache.Op op) {
+		DecodedInstruction d = op.decoded;
+		boolean indirect = d.indirect == 1;
+		switch (d.instruction) {
+			case LDR: load(d.word, op.rs1, d.address, d.ix, indirect, false); break;
+			case LDX: load(d.word, op.rs1, d.address, 0, indirect, true); break;
+			case STR: store(d.word, op.rs1, d.address, d.ix, indirect, false); break;
+			case STX: store(d.word, op.rs1, d.address, 0, indirect, true); break;
+			case LDA: loadAddress(d.word, op.rs1, d.address, d.ix, indirect); break;
+			case AMR: addMemory(d.word, op.rs1, d.address, d.ix, indirect, false); break;
+			case SMR: addMemory(d.word, op.rs1, d.address, d.ix, indirect, true); break;
+			case AIR: addImmediate(d.word, op.rs1, d.address, false); break;
+			case SIR: addImmediate(d.word, op.rs1, d.address, true); break;
+			case JZ: case JNE: case JCC: case JMA: case SOB: case JGE:
+				jump(d.instruction, d.word, op.rs1, d.address, d.ix, indirect);
+				break;
+			default: throw new IllegalArgumentException("no direct step for " + d.instruction);
+		}
+	}
 
-        // MAR -> GUI
-		Utilities.addComponent(MAR.getLabel(), mainPanel, 6, 1, 1);
-		Utilities.addComponent(MAR.getTextField(), mainPanel, 7, 1, 1, GridBagConstraints.LINE_END);
-		Utilities.addComponent(MAR.getLoad(), mainPanel, 8, 1, 1);
+	private void load(int word, int rs1, int address, int indexRegister, boolean indirect, boolean index) {
+		directFetch(word, rs1);
+		directOperand(address, indexRegister, indirect);
+		values[RegisterFile.IRR] = values[RegisterFile.MBR];
+		directDepositRegister(index ? RegisterFile.IX0 : RegisterFile.GPR0);
+	}
 
-		Utilities.addComponent(MARMem.getLabel(), mainPanel, 9, 1, 1);
-		Utilities.addComponent(MARMem.getTextField(), mainPanel, 10, 1, 1, GridBagConstraints.LINE_START);
+	private void loadAddress(int word, int rs1, int address, int indexRegister, boolean indirect) {
+		directFetch(word, rs1);
+		values[RegisterFile.IRR] = (short) directOperand(address, indexRegister, indirect);
+		directDepositRegister(RegisterFile.GPR0);
 	}
 
-	private void addMBR() {
-		// MBR -> CPU
-		MBR = new Register("MBR", 16, InputSwitches, true);
+	private void store(int word, int rs1, int address, int indexRegister, boolean indirect, boolean index) {
+		directFetch(word, rs1);
+		directOperand(address, indexRegister, indirect);
+		values[RegisterFile.IRR] = values[(index ? RegisterFile.IX0 : RegisterFile.GPR0) + rs1];
+		MBR.setValue(IRR.getValue());
+		Trace.event(Trace.MEMORY, Trace.MEMORY_WRITE, MAR.getValue(), MBR.getValue());
+		Memory.insert(MBR.getValue(), MAR.getValue());
+	}
 
-        // MBR -> GUI
-		Utilities.addComponent(MBR.getLabel(), mainPanel, 6, 2, 1);
-		Utilities.addComponent(MBR.getTextField(), mainPanel, 7, 2, 1, GridBagConstraints.LINE_END);
-		Utilities.addComponent(MBR.getLoad(), mainPanel, 8, 2, 1);
+	private void addMemory(int word, int rs1, int address, int indexRegister, boolean indirect, boolean subtract) {
+		directFetch(word, rs1);
+		int effectiveAddress = directOperand(address, indexRegister, indirect);
+		directArithmetic(values[RegisterFile.GPR0 + rs1], directRead(effectiveAddress), subtract);
+		directDepositRegister(RegisterFile.GPR0);
 	}
 
-	private void addIR() {
-		// IR -> CPU
-		IR = new Register("IR", 16, InputSwitches, false);
+	private void addImmediate(int word, int rs1, int immediate, boolean subtract) {
+		directFetch(word, rs1);
+		directOperand(immediate, 0, false);
+		directArithmetic(values[RegisterFile.GPR0 + rs1], immediate, subtract);
+		directDepositRegister(RegisterFile.GPR0);
+	}
 
-        // IR -> GUI
-		Utilities.addComponent(IR.getLabel(), mainPanel, 6, 3, 1);
-		Utilities.addComponent(IR.getTextField(), mainPanel, 7, 3, 1, GridBagConstraints.LINE_END);
+	private void jump(Instruction jump, int word, int rs1, int address, int indexRegister, boolean indirect) {
+		directFetch(word, rs1);
+		int effectiveAddress = directOperand(address, indexRegister, indirect);
+		int r = RegisterFile.GPR0 + rs1;
+		boolean taken;
+		if (jump == Instruction.SOB) {
+			values[r] = (short) (values[r] - 1);
+			taken = values[r] > 0;
+		} else if (jump == Instruction.JZ) {
+			taken = values[r] == 0;
+		} else if (jump == Instruction.JNE) {
+			taken = values[r] != 0;
+		} else if (jump == Instruction.JGE) {
+			taken = values[r] >= 0;
+		} else if (jump == Instruction.JCC) {
+			taken = ALU.testCc(rs1);
+		} else {
+			taken = true;
+		}
+		if (taken) {
+			setNextPc(effectiveAddress);
+		}
 	}
 
-	private void addMFR() {
-		// MFR -> CPU
-		MFR = new Register("MFR", 4, InputSwitches, false);
+	/**
+	 * Picks up what the direct steps read memory through (see Memory.getDirectWords, getDirectInstructionCache)
+	 */
+	private void directMemory() {
+		directBase = Memory.getBase();
+		directLimit = Memory.getLimit();
+		directWords = Memory.getDirectWords();
+		directFetchCache = Memory.getDirectInstructionCache();
+		directDataCache = Memory.getDirectDataCache();
+	}
 
-        // MFR -> GUI
-		Utilities.addComponent(MFR.getLabel(), mainPanel, 6, 4, 1);
-		Utilities.addComponent(MFR.getTextField(), mainPanel, 7, 4, 1, GridBagConstraints.LINE_END);
+	/**
+	 * Steps 1 and 2, as compiledFetch
+	 */
+	private void directFetch(int word, int rs1) {
+		int pc = values[RegisterFile.PC];
+		values[RegisterFile.MAR] = pc;
+		// the block was decoded from memory, so the PC is inside it
+		if (directWords != null) {
+			directReads++;
+		} else if (directFetchCache != null) {
+			directFetchCache.read(pc);
+		} else {
+			Memory.fetch(pc);
+		}
+		values[RegisterFile.MBR] = (short) word;
+		Trace.event(Trace.FETCH, Trace.FETCH_WORD, pc, (short) word);
+		nextPc = pc + 1;
+		values[RegisterFile.IR] = word & 0xFFFF;
+		values[RegisterFile.RS1] = rs1;
 	}
 
 	/**
-	 * Run, Step, Halt Buttons
+	 * Step 2a, as compiledOperand
+	 * @return -> the effective address
 	 */
-	private void addRunHalt() {
-		run = new JButton("RUN");
-		singleStep = new JButton("STEP");
-		halt = new JToggleButton("HALT");
+	private int directOperand(int address, int indexRegister, boolean indirect) {
+		int effectiveAddress = address;
+		if (indexRegister != 0) {
+			effectiveAddress = effectiveAddress + values[RegisterFile.IX0 + indexRegister] & 0xFFFF;
+		}
+		values[RegisterFile.IAR] = effectiveAddress;
+		if (indirect) {
+			effectiveAddress = directRead(effectiveAddress) & 0xFFFF;
+			values[RegisterFile.IAR] = effectiveAddress;
+		}
+		Trace.event(Trace.DECODE, Trace.EFFECTIVE_ADDRESS, address, effectiveAddress);
+		values[RegisterFile.MAR] = effectiveAddress;
+		values[RegisterFile.MBR] = directRead(effectiveAddress);
+		return effectiveAddress;
+	}
 
-		Utilities.addComponent(singleStep, mainPanel, 1, 11, 1);
-		Utilities.addComponent(run, mainPanel, 2, 11, 1);
-		Utilities.addComponent(halt, mainPanel, 3, 11, 1);
+	/**
+	 * Memory.get, on the words themselves when there is nothing in front of them, or on the first cache
+	 */
+	private int directRead(int location) {
+		if (Integer.compareUnsigned(location, directLimit) >= 0) {
+			// outside the program's memory (the fault is thrown there)
+			return Memory.get(location);
+		}
+		if (directWords != null) {
+			directReads++;
+			return directWords[directBase + location];
+		}
+		return directDataCache != null ? directDataCache.read(directBase + location) : Memory.get(location);
 	}
 
-	private void addInternalRegisters() {
-		IAR = new Register("IAR", 16, InputSwitches, true);
-		IARLabel = new JLabel("" + IAR.getValue());
+	/**
+	 * ALU.add or subtract into the IRR
+	 */
+	private void directArithmetic(int value, int operand, boolean subtract) {
+		int result = (short) (subtract ? value - operand : value + operand);
+		values[RegisterFile.IRR] = result;
+		Trace.event(Trace.ALU, subtract ? Trace.ALU_SUBTRACT : Trace.ALU_ADD, value, operand);
+		if (result < 0) {
+			if (value > 0 && (subtract ? operand < 0 : operand > 0)) {
+				ALU.setCcBits(ALU.getCcBits() | CC_OVERFLOW);
+			}
+		} else if (value < 0 && (subtract ? operand > 0 : operand < 0)) {
+			ALU.setCcBits(ALU.getCcBits() | CC_UNDERFLOW);
+		}
+		Trace.event(Trace.ALU, Trace.ALU_RESULT, result, ALU.getCcBits());
+	}
 
-		IRR = new Register("IRR", 16, InputSwitches, true);
-		IRRLabel = new JLabel("" + IRR.getValue());
-		IRRLabel.setPreferredSize(new Dimension(30, 10));
-        
-		RS1 = new Register("RS1", 2, InputSwitches, false);
-		RS1Label = new JLabel("" + RS1.getValue());
-        
-		Utilities.addComponent(IRR.getLabel(), mainPanel, 9, 3, 1);
-		Utilities.addComponent(IRR.getTextField(), mainPanel, 10, 3, 1);
-		Utilities.addComponent(IRRLabel, mainPanel, 11, 3, 1);
+	/**
+	 * Post operation, as compiledDepositRegister
+	 * @param first -> the first register of the kind the RS1 selects from (RegisterFile.GPR0 or IX0)
+	 */
+	private void directDepositRegister(int first) {
+		int rs1 = values[RegisterFile.RS1];
+		Trace.event(Trace.MEMORY, Trace.REGISTER_WRITE, rs1, values[RegisterFile.IRR]);
+		values[first + rs1] = values[RegisterFile.IRR];
+	}
 
-		Utilities.addComponent(IAR.getLabel(), mainPanel, 9, 2, 1);
-		Utilities.addComponent(IAR.getTextField(), mainPanel, 10, 2, 1);
-		Utilities.addComponent(IARLabel, mainPanel, 11, 2, 1);
-		
-        Utilities.addComponent(RS1.getLabel(), mainPanel, 9, 0, 1);
-		Utilities.addComponent(RS1.getTextField(), mainPanel, 10, 0, 1, GridBagConstraints.LINE_END);
-		Utilities.addComponent(RS1Label, mainPanel, 11, 0, 1);
+	/**
+	 * The end of the instruction cycle, as compiledFinish
+	 */
+	private boolean directFinish(int nextAddress) {
+		directNextInstruction();
+		directCount();
+		observer.cycleCompleted(this);
+		compiledExecuted++;
+		checkEndOfMemory();
+		return !paused && compiledBlock.valid && values[RegisterFile.PC] == nextAddress;
 	}
 
-	private void addRxRy() {
-		RX = new Register("RX", 16, InputSwitches, true);
-		RY = new Register("RY", 16, InputSwitches, true);
+	/**
+	 * The PC and the MAR's word at the end of an instruction cycle, as nextInstruction and updateInternalRegisters
+	 */
+	private void directNextInstruction() {
+		Trace.event(Trace.FETCH, Trace.NEXT_PC, values[RegisterFile.PC], nextPc);
+		values[RegisterFile.PC] = nextPc & 0xFFF;
+		int mar = values[RegisterFile.MAR];
+		values[RegisterFile.MAR_MEM] = mar < directLimit ? directRead(mar) & 0xFFFF : 0;
 	}
 
 	/**
-	 * Adds the IO devices (printer, keyboard) to the front panel
+	 * Counts the reads made on the memory words so far
 	 */
-	private void addIODevices() {
-		JLabel printerLabel = new JLabel("Console Printer");
-		DevConsole = new JTextArea(20, 20);
-		JScrollPane scroll = new JScrollPane(DevConsole);
-		DevConsole.setEditable(false);
-		DevConsole.setLineWrap(true);
+	private void directCount() {
+		if (directReads != 0) {
+			Memory.countDirectReads(directReads);
+			directReads = 0;
+		}
+	}
 
-		Utilities.addComponent(printerLabel, mainPanel, 6, 6, 3, GridBagConstraints.CENTER);
-		Utilities.addComponent(scroll, mainPanel, 6, 7, 3, 5, GridBagConstraints.CENTER);
+	/**
+	 * Runs the user program on the calling thread until it halts (or pauses), without the run thread
+	 * @param maxInstructions -> stop after this many instructions even if the program hasn't halted
+	 * @return -> the number of instructions executed
+	 */
+	public long runToHalt(long maxInstructions) {
+		startUserProgram();
+		paused = false;
+		long executed = 0;
+		while (!paused && executed < maxInstructions) {
+			executed += runBurst((int) Math.min(maxInstructions - executed, Integer.MAX_VALUE));
+		}
+		return executed;
+	}
 
-		JLabel keyboardLabel = new JLabel("Last Keyboard Value");
-		InputText = new JTextField("", 10);
-		keyboardLabel.setHorizontalAlignment(JTextField.RIGHT);
-		InputText.setEditable(false);
+	/**
+	 * Step: run one instruction cycle
+	 */
+	public void step() {
+		runController.step();
+	}
 
-		Utilities.addComponent(keyboardLabel, mainPanel, 10, 9, 2, GridBagConstraints.CENTER);
-		Utilities.addComponent(InputText, mainPanel, 10, 10, 3, GridBagConstraints.CENTER);
+	/**
+	 * Halt: stop executing instructions until run or step is pressed
+	 */
+	public void pause() {
+		runController.pause();
 	}
 
-	public void addCurrentInstructionDisplay() {
-		currentInstructionDisplay = new JLabel("Instruction: N/A");
+	/**
+	 * Picks out the register views from the register file. The front panel builds its own displays on top of these
+	 */
+	private void addRegisters() {
+		GPR0 = Registers.getRegister(RegisterFile.GPR0);		GPR1 = Registers.getRegister(RegisterFile.GPR0 + 1);
+		GPR2 = Registers.getRegister(RegisterFile.GPR0 + 2);	GPR3 = Registers.getRegister(RegisterFile.GPR0 + 3);
+		IX1 = Registers.getRegister(RegisterFile.IX0 + 1);		IX2 = Registers.getRegister(RegisterFile.IX0 + 2);
+		IX3 = Registers.getRegister(RegisterFile.IX0 + 3);
+		R0 = (RegisterFloat) Registers.getRegister(RegisterFile.FR0);
+		R1 = (RegisterFloat) Registers.getRegister(RegisterFile.FR0 + 1);
+
+		// Register select lookups: IX 0 doesn't exist, so it falls back to IX 1
+		GPRS = new Register[] { GPR0, GPR1, GPR2, GPR3 };
+		IXRS = new Register[] { IX1, IX1, IX2, IX3 };
+		FPRS = new RegisterFloat[] { R0, R1 };
+
+		PC = Registers.getRegister(RegisterFile.PC);
+		nextPc = 0;
+		MAR = Registers.getRegister(RegisterFile.MAR);		MARMem = Registers.getRegister(RegisterFile.MAR_MEM);
+		MBR = Registers.getRegister(RegisterFile.MBR);		IR = Registers.getRegister(RegisterFile.IR);
+		MFR = Registers.getRegister(RegisterFile.MFR);
 
-		Utilities.addComponent(currentInstructionDisplay, mainPanel, 10, 12, 2, GridBagConstraints.LINE_START);
+		IAR = Registers.getRegister(RegisterFile.IAR);		IRR = Registers.getRegister(RegisterFile.IRR);
+		RS1 = Registers.getRegister(RegisterFile.RS1);
+
+		// RX and RY are aliases of the GPRs selected by the instruction
+		RX = GPR0;		RY = GPR0;
 	}
 
 	/* GETTERS AND SETTERS */
@@ -849,16 +1392,72 @@ public class CPU {
 		this.registerType = registerType;
 	}
 
-	public void updateCurrentInstructionDisplay() {
-		String display;
-		if (currentInstruction == null) {
-			display = "Current Instruction: N/A";
-		} else {
-			display = "Current Instruction: " + currentInstruction;
+	public Instruction getCurrentInstruction() {
+		return currentInstruction;
+	}
+
+	public DecodedInstruction getDecodedInstruction() {
+		return decoded;
+	}
+
+	/**
+	 * Selects how instructions are dispatched (virtual call on the enum or a switch on the opcode)
+	 * @param mode -> the dispatch mode to use from the next instruction on
+	 */
+	public void setDispatchMode(DispatchMode mode) {
+		boolean blocks = mode == DispatchMode.BLOCK || mode == DispatchMode.COMPILED;
+		if (blockCache != null && (!blocks || mode != dispatchMode)) {
+			Memory.setCodeWatcher(null);
+			blockCache = null;
+		}
+		if (blocks && blockCache == null) {
+			blockCache = new BlockCache(this, Memory, mode == DispatchMode.COMPILED, fusion);
 		}
-		currentInstructionDisplay.setText(display);
+		dispatchMode = mode;
+	}
+
+	/**
+	 * Turns superinstructions on or off (see Superinstruction). They are only used by the block dispatch modes; the
+	 * blocks decoded so far are dropped
+	 * @param fuse -> true to run the superinstruction pairs in a block as single steps
+	 */
+	public void setFusion(boolean fuse) {
+		fusion = fuse;
+		if (blockCache != null) {
+			Memory.setCodeWatcher(null);
+			blockCache = new BlockCache(this, Memory, dispatchMode == DispatchMode.COMPILED, fusion);
+		}
+	}
+
+	public boolean getFusion() { return fusion; }
+
+	/**
+	 * @param top -> how many pairs to list
+	 * @return -> the pairs of instructions run most often in blocks (see BlockCache.getPairProfile), or null with
+	 * fusion off or outside the block dispatch modes
+	 */
+	public String getPairProfile(int top) {
+		return blockCache == null ? null : blockCache.getPairProfile(top);
 	}
 
+	/**
+	 * @return -> how many blocks were decoded, invalidated and compiled (DispatchMode.BLOCK and COMPILED), or null in
+	 * the other modes
+	 */
+	public String getBlockStatistics() {
+		return blockCache == null ? null : blockCache.getStatistics();
+	}
+
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+
+	public boolean isHalted() { return halted; }
+
+	public boolean isPaused() { return paused; }
+
+	public RunController getRunController() { return runController; }
+
 	public boolean getRunningBoot() {
 		return runningBoot;
 	}
@@ -899,16 +1498,6 @@ public class CPU {
 		return Count;
 	}
 
-	public String getExponent(Register r){
-		String binary = r.getBinaryStringValue();
-		return binary.substring(1,8);
-	}
-
-	public String getMantissa(Register r){
-		String binary = r.getBinaryStringValue();
-		return binary.substring(8,16);
-	}
-
 	/**
 	 * Gets the value of the two IX bits from the parsed instruction
 	 * @return the value of the two IX bits --> ranges from [0, 3]
@@ -925,6 +1514,10 @@ public class CPU {
 		return ALU;
 	}
 
+	public FPU getFpu() {
+		return FPU;
+	}
+
 	public void setIxiflag(boolean flag) {
 		useIxi = flag;
 	}
@@ -936,24 +1529,35 @@ public class CPU {
 	public void setNextPc(int pcValue) {
 		nextPc = pcValue;
 		// on branches, account for user memory difference
-		if (Memory.getRunningUserProgram() && MFR.getValue() == 0) {
-			nextPc += Common.USER_PROGRAM_OFFSET;
+		if (MFR.getValue() == 0) {
+			nextPc += Memory.getBase();
 		}
 	}
 
+	/**
+	 * @param entryPoint -> where the user program starts, relative to its first location (0 for the text formats)
+	 */
+	public void setEntryPoint(int entryPoint) {
+		this.entryPoint = entryPoint;
+	}
+
 	public void displayRaw(boolean b) {
 		program1 = b;
 	}
 
-	public JToggleButton getHalt() { return halt; }
-
 	public Register getPc() { return PC; }
 
+	public RegisterFile getRegisters() { return Registers; }
+
 	public Register getRx() { return RX; }	
 	public Register getRy() { return RY; }
 
 	public Register getMfr() { return MFR; }
 
+	public Register getMar() { return MAR; }
+	public Register getMarMem() { return MARMem; }
+	public Register getIr() { return IR; }
+
 	public Register getGpr0() { return GPR0; }
 	public Register getGpr1() { return GPR1; }
 	public Register getGpr2() { return GPR2; }
@@ -0,0 +1,185 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Card Reader - The input device behind DEVID.CARD_READER: a stream of text (a file, or stdin) read one character
+ * per word
+ *
+ * The text comes through a byte buffer refilled from a channel (FileChannel for files), so large inputs are read in
+ * blocks, and is decoded as UTF-8. Each line ends with a carriage return (13) and the end of the input is an EOT (4),
+ * the same way program2 expects its paragraph. After the EOT every read gives EOT again.
+ * * next: one word, for IN (reading only ever blocks the run thread, never the front panel)
+ * * transfer: DMA-style, as many words as fit straight into a memory range (see Memory.insertBlock)
+ */
+
+package CPU;
+
+import Common.Trace;
+import Memory.Memory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class CardReader implements Closeable {
+
+    public static final int CARRIAGE_RETURN = 13;
+    public static final int END_OF_TRANSMISSION = 4;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel channel;
+    private final String name;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private boolean endOfInput = false;
+    private boolean lineOpen = false;       // characters read since the last carriage return
+    private boolean afterReturn = false;    // the last character was '\r' (so a '\n' after it is the same line end)
+    private boolean ended = false;          // the EOT has been read
+    private long wordsRead = 0;
+
+    public CardReader(ReadableByteChannel channel, String name) {
+        this.channel = channel;
+        this.name = name;
+        bytes.flip();
+        chars.flip();
+    }
+
+    /**
+     * A card reader for a text file
+     */
+    public static CardReader open(Path file) throws IOException {
+        return new CardReader(FileChannel.open(file, StandardOpenOption.READ), file.toString());
+    }
+
+    /**
+     * A card reader for a stream (stdin, say)
+     */
+    public static CardReader of(InputStream in, String name) {
+        return new CardReader(Channels.newChannel(in), name);
+    }
+
+    /**
+     * @return -> the next word: a character, a carriage return at the end of a line, or EOT at the end of the input
+     */
+    public int next() {
+        while (true) {
+            if (!chars.hasRemaining() && !fill()) {
+                if (lineOpen) {
+                    // the last line didn't end with a newline
+                    lineOpen = false;
+                    return count(CARRIAGE_RETURN);
+                }
+                ended = true;
+                return count(END_OF_TRANSMISSION);
+            }
+            char c = chars.get();
+            if (c == '\n' && afterReturn) {
+                afterReturn = false;
+                continue;
+            }
+            afterReturn = c == '\r';
+            if (c == '\n' || c == '\r') {
+                lineOpen = false;
+                return count(CARRIAGE_RETURN);
+            }
+            lineOpen = true;
+            return count(c);
+        }
+    }
+
+    /**
+     * Reads words straight into memory (a DMA transfer) until the EOT has been stored or the range is full
+     * @param memory -> the memory to write to
+     * @param location -> the first program location (relocated like Memory.insert)
+     * @param length -> the most words to write
+     * @return -> the number of words written
+     * @throws Memory.MemoryFault -> if the range is outside the program's memory (nothing is written)
+     */
+    public int transfer(Memory memory, int location, int length) {
+        memory.checkRange(location, length);
+        short[] block = new short[Math.min(length, BUFFER_SIZE)];
+        int written = 0;
+        boolean done = false;
+        while (!done && written < length) {
+            int count = 0;
+            while (count < block.length && written + count < length) {
+                int word = next();
+                block[count++] = (short) word;
+                if (word == END_OF_TRANSMISSION) {
+                    done = true;
+                    break;
+                }
+            }
+            memory.insertBlock(location + written, block, 0, count);
+            written += count;
+        }
+        Trace.event(Trace.IO, Trace.CARD_DMA, location, written);
+        return written;
+    }
+
+    /**
+     * Decodes the next block of characters, reading more bytes when needed
+     * @return -> false at the end of the input
+     */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        try {
+            chars.clear();
+            while (chars.position() == 0) {
+                bytes.compact();
+                int read = channel.read(bytes);
+                bytes.flip();
+                if (read < 0) {
+                    endOfInput = true;
+                    decoder.decode(bytes, chars, true);
+                    decoder.flush(chars);
+                    break;
+                }
+                decoder.decode(bytes, chars, false);
+            }
+            chars.flip();
+            return chars.hasRemaining();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int count(int word) {
+        wordsRead++;
+        return word;
+    }
+
+    /**
+     * @return -> words read so far (by IN and transfers)
+     */
+    public long getWordsRead() { return wordsRead; }
+
+    /**
+     * @return -> true once the EOT at the end of the input has been read
+     */
+    public boolean isEnded() { return ended; }
+
+    public String getName() { return name; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Checkpoint - The whole machine at one point between instruction cycles (CPU.checkpoint), to go back to with
+ * CPU.restore: every register, the condition codes, where the next instruction comes from, and a snapshot of memory
+ * and the caches (see MemorySnapshot)
+ *
+ * A checkpoint can be restored any number of times, so a loaded program can be run again and again (with different
+ * keyboard input, say) without loading it again.
+ */
+
+package CPU;
+
+import Memory.MemorySnapshot;
+
+public final class Checkpoint {
+
+    final int[] registers;
+    final int condCodes;
+    final int nextPc;
+    final Instruction currentInstruction;
+    final Instruction lastInstruction;
+    final boolean halted;
+    final boolean runningBoot;
+    final boolean displayRaw;
+    final MemorySnapshot memory;
+
+    Checkpoint(int[] registers, int condCodes, int nextPc, Instruction currentInstruction,
+               Instruction lastInstruction, boolean halted, boolean runningBoot, boolean displayRaw,
+               MemorySnapshot memory) {
+        this.registers = registers;
+        this.condCodes = condCodes;
+        this.nextPc = nextPc;
+        this.currentInstruction = currentInstruction;
+        this.lastInstruction = lastInstruction;
+        this.halted = halted;
+        this.runningBoot = runningBoot;
+        this.displayRaw = displayRaw;
+        this.memory = memory;
+    }
+
+    public MemorySnapshot getMemory() { return memory; }
+}
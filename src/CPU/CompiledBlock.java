@@ -0,0 +1,17 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Compiled Block - A basic block translated to JVM bytecode by the BlockCompiler (DispatchMode.COMPILED)
+ */
+
+package CPU;
+
+interface CompiledBlock {
+
+    /**
+     * Runs the block's instructions from the first, one full instruction cycle each, until the last one or until the
+     * PC leaves the block (see CPU.compiledFinish)
+     * @param cpu -> the CPU whose PC is at the first instruction
+     */
+    void run(CPU cpu);
+}
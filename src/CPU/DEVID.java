@@ -2,14 +2,15 @@
  * CSCI 6461 - Fall 2022
  * 
  * DEVID - Device ID Class
- * Constants for Keyboard, Printer (DEV CONSOLE), Card Reader
+ * Constants for Keyboard, Printer (DEV CONSOLE), Card Reader, and the core number and core count of a multi-core
+ * machine (IN only; see Machine.MultiCoreMachine)
  */
 
 
 package CPU;
 
 public enum DEVID {
-    KEYBOARD (0), PRINTER (1), CARD_READER (2);
+    KEYBOARD (0), PRINTER (1), CARD_READER (2), CORE_ID (3), CORE_COUNT (4);
 
     private int id;
 
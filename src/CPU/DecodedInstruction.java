@@ -0,0 +1,50 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Decoded Instruction - The fields of one 16-bit instruction word, already pulled apart
+ *
+ * Bits (15 is the leftmost switch):
+ * [ opcode 15-10 | R 9-8 | IX 7-6 | I 5 | address 4-0 ]
+ * Shift/Rotate instructions reuse the same word as:
+ * [ opcode 15-10 | R 9-8 | A/L 7 | L/R 6 | unused 5-4 | count 3-0 ]
+ */
+
+package CPU;
+
+public final class DecodedInstruction {
+
+    public final int word;
+    public final int opcode;
+    public final int r;
+    public final int ix;
+    public final int indirect;
+    public final int address;
+
+    // used for shift and rotate instructions
+    public final int al;
+    public final int lr;
+    public final int count;
+
+    // The Instruction for the opcode, or null if the opcode is illegal
+    public final Instruction instruction;
+
+    DecodedInstruction(int word) {
+        this.word = word & 0xFFFF;
+        opcode = (this.word >>> 10) & 0x3F;
+        r = (this.word >>> 8) & 0x3;
+        ix = (this.word >>> 6) & 0x3;
+        indirect = (this.word >>> 5) & 0x1;
+        address = this.word & 0x1F;
+
+        al = (this.word >>> 7) & 0x1;
+        lr = (this.word >>> 6) & 0x1;
+        count = this.word & 0xF;
+
+        instruction = Instruction.getInstruction(opcode);
+    }
+
+    public String toString() {
+        return (instruction == null ? "ILLEGAL(" + opcode + ")" : instruction.toString())
+                + " r=" + r + " ix=" + ix + " i=" + indirect + " address=" + address;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Decoder - Turns a 16-bit instruction word into its fields
+ *
+ * There are only 65,536 possible words, so every one of them is decoded once when the class loads.
+ * Decoding an instruction is then a single array load
+ */
+
+package CPU;
+
+public final class Decoder {
+
+    private static final DecodedInstruction[] TABLE = new DecodedInstruction[1 << 16];
+
+    static {
+        for (int word = 0; word < TABLE.length; word++) {
+            TABLE[word] = new DecodedInstruction(word);
+        }
+    }
+
+    private Decoder() {}
+
+    /**
+     * Returns the decoded form of an instruction word
+     * @param word -> the instruction word (only the low 16 bits are used)
+     * @return -> the shared, immutable decoded instruction
+     */
+    public static DecodedInstruction decode(int word) {
+        return TABLE[word & 0xFFFF];
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Dispatch Mode - How the CPU calls into the Instruction set
+ * * ENUM: a virtual call on the Instruction constant (decode/execute)
+ * * SWITCH: a switch on the int opcode (Instruction.decode(opcode, cpu) / Instruction.execute(opcode, cpu))
+ * * BLOCK: like ENUM, but a run executes basic blocks of instructions decoded ahead of time (see BlockCache);
+ *   single steps still go step by step
+ * * COMPILED: like BLOCK, but blocks that have run often are translated to JVM bytecode (see BlockCompiler)
+ */
+
+package CPU;
+
+public enum DispatchMode {
+    ENUM, SWITCH, BLOCK, COMPILED
+}
@@ -7,8 +7,9 @@
 
 package CPU;
 
+import ALU.FPU;
 import Common.Common;
-import Common.Utilities;
+import Common.Trace;
 import Memory.Memory;
 
 public enum Instruction {
@@ -89,13 +90,7 @@ public enum Instruction {
         public void execute(CPU cpu) {
             Register r = cpu.selectGpr(cpu.getRs1().getValue());
             int valToAdd = cpu.getMemory().get(cpu.getIar().getValue());
-            // check for fault
-            int fault = cpu.getMemory().getMemoryFault();
-            if (fault != -1) {
-                cpu.handleMachineFault(fault);
-            } else {
-                cpu.getAlu().add(cpu.getIrr(), r, valToAdd);
-            }
+            cpu.getAlu().add(cpu.getIrr(), r, valToAdd);
         }
     },
 	
@@ -111,13 +106,7 @@ public enum Instruction {
         public void execute(CPU cpu) {
             Register r = cpu.selectGpr(cpu.getRs1().getValue());
             int valToAdd = cpu.getMemory().get(cpu.getIar().getValue());
-
-            int fault = cpu.getMemory().getMemoryFault();
-            if (fault != -1) {
-                cpu.handleMachineFault(fault);
-            } else {
-                cpu.getAlu().subtract(cpu.getIrr(), r, valToAdd);
-            }
+            cpu.getAlu().subtract(cpu.getIrr(), r, valToAdd);
         }
     },
 	
@@ -194,7 +183,7 @@ public enum Instruction {
         @Override
         public void execute(CPU cpu) {
             // if the condition code is set
-            if (cpu.getAlu().getCc(cpu.getRs1().getValue()) == 1) {
+            if (cpu.getAlu().testCc(cpu.getRs1().getValue())) {
                 // PC <-- EA
                 cpu.setNextPc(cpu.getIar().getValue());
             }
@@ -248,9 +237,7 @@ public enum Instruction {
             cpu.getIrr().setValue(cpu.getIar().getValue());
             int returnAddress = cpu.getGpr3().getValue();
             // subtract the user offset since it is being accounted for twice
-            if (cpu.getMemory().getRunningUserProgram()) {
-                returnAddress -= Common.USER_PROGRAM_OFFSET;
-            }
+            returnAddress -= cpu.getMemory().getBase();
             // load PC with R3 value
             cpu.setNextPc(returnAddress);
         }
@@ -298,11 +285,15 @@ public enum Instruction {
             int RYNum = cpu.getIxBits();
 
             if (RXNum != 0 && RXNum != 2) {
-                System.out.println("Invalid RX register for MLT. Expected 0, 2 but got " + RXNum);
+                if (Trace.error(Trace.DECODE)) {
+                    Trace.error(Trace.DECODE, "Invalid RX register for MLT. Expected 0, 2 but got " + RXNum);
+                }
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
                 return;
             } else if (RYNum != 0 && RYNum != 2) {
-                System.out.println("Invalid RY register for MLT. Expected 0, 2 but got " + RYNum);
+                if (Trace.error(Trace.DECODE)) {
+                    Trace.error(Trace.DECODE, "Invalid RY register for MLT. Expected 0, 2 but got " + RYNum);
+                }
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
                 return;
             }
@@ -323,11 +314,15 @@ public enum Instruction {
             int RYNum = cpu.getIxBits();
 
             if (RXNum != 0 && RXNum != 2) {
-                System.out.println("Invalid RX register for DVD. Expected 0, 2 but got " + RXNum);
+                if (Trace.error(Trace.DECODE)) {
+                    Trace.error(Trace.DECODE, "Invalid RX register for DVD. Expected 0, 2 but got " + RXNum);
+                }
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
                 return;
             } else if (RYNum != 0 && RYNum != 2) {
-                System.out.println("Invalid RY register for DVD. Expected 0, 2 but got " + RYNum);
+                if (Trace.error(Trace.DECODE)) {
+                    Trace.error(Trace.DECODE, "Invalid RY register for DVD. Expected 0, 2 but got " + RYNum);
+                }
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
                 return;
             }
@@ -424,26 +419,14 @@ public enum Instruction {
         	int Count = cpu.getCount();
         	int AL = cpu.getAL();
         	int LR = cpu.getLR();
-        	String rV = Integer.toBinaryString(cpu.selectGpr(cpu.getRs1().getValue()).getValue());
-        	String rValue = "0".repeat(16-rV.length()) + rV; 
-        	String result = "";
-        	
+
         	if(Count == 0) {
         		return;
         	}
-        	
+
         	if(AL == 1) { // Rotate
-        		if(LR == 1) { // Rotate Left
-        			String saveRotated = rValue.substring(0,Count);
-        			String saveParsed = rValue.substring(Count);
-        			result = saveParsed + saveRotated;
-        			cpu.selectGpr(cpu.getRs1().getValue()).setValue(Integer.parseInt(result,2));
-        		}else if(LR == 0) { // Rotate Right
-        			String saveRotated = rValue.substring(Count);
-        			String saveParsed = rValue.substring(0,16-Count);
-        			result = saveRotated + saveParsed;
-        			cpu.selectGpr(cpu.getRs1().getValue()).setValue(Integer.parseInt(result,2));
-        		}
+        		Register r = cpu.selectGpr(cpu.getRs1().getValue());
+        		r.setValue(cpu.getAlu().rotate(r, Count, LR));
         	}
         }
     },
@@ -458,11 +441,8 @@ public enum Instruction {
         @Override
         public void execute(CPU cpu) {
             RegisterFloat fr = cpu.selectFpr(cpu.getRs1().getValue());
-            int eaContent = cpu.getMemory().get(cpu.getIar().getValue());
-            cpu.getAlu().add(fr,fr,eaContent);
-
-
-
+            int operand = readFloat(cpu, cpu.getIar().getValue());
+            fr.setValue(cpu.getFpu().add(fr.getValue(), operand));
         }
     },
 
@@ -476,8 +456,8 @@ public enum Instruction {
         @Override
         public void execute(CPU cpu) {
             RegisterFloat fr = cpu.selectFpr(cpu.getRs1().getValue());
-            int eaContent = cpu.getMemory().get(cpu.getIar().getValue());
-            cpu.getAlu().subtract(fr,fr,eaContent);
+            int operand = readFloat(cpu, cpu.getIar().getValue());
+            fr.setValue(cpu.getFpu().subtract(fr.getValue(), operand));
         }
     },
     
@@ -488,21 +468,7 @@ public enum Instruction {
 
         @Override
         public void execute(CPU cpu) {
-            Memory memory = cpu.getMemory();
-            // todo: not sure if there is a different way to get the length for the floating point register
-            int length = cpu.selectFpr(cpu.getRs1().getValue()).getValue();
-
-            // get address of v1
-            int v1Address = cpu.getIar().getValue();
-            int v2Address = v1Address + 1;
-
-            int v1 = memory.get(v1Address);
-            int v2 = memory.get(v2Address);
-
-            for (int i = 0; i < length; i++) {
-                int sum = memory.get(v1 + i) + memory.get(v2+i);
-                memory.insert(sum, v1+i);
-            }
+            vector(cpu, false);
         }
     },
 
@@ -514,25 +480,7 @@ public enum Instruction {
 
         @Override
         public void execute(CPU cpu) {
-            Memory memory = cpu.getMemory();
-
-            // get an integer representation of the floating point value
-            RegisterFloat fr = cpu.selectFpr(cpu.getRs1().getValue());
-            int signAndExponent = fr.getSignAndExponent();
-            int mantissa = fr.getMantissa();
-            int length = Utilities.floatToFixed(signAndExponent, mantissa);
-
-            // get address of v1
-            int v1Address = cpu.getIar().getValue();
-            int v2Address = v1Address + 1;
-
-            int v1 = memory.get(v1Address);
-            int v2 = memory.get(v2Address);
-
-            for (int i = 0; i < length; i++) {
-                int diff = memory.get(v1 + i) - memory.get(v2+i);
-                memory.insert(diff, v1+i);
-            }
+            vector(cpu, true);
         }
     },
 
@@ -549,15 +497,12 @@ public enum Instruction {
             if (F == 0) {
                 // convert c(EA) to a fixed point number and store in r
                 // C(EA) is the exponent, c(EA+1) is the mantissa
-                int signAndExponent = cpu.getMemory().get(cpu.getIar().getValue());
-                int mantissa = cpu.getMemory().get(cpu.getIar().getValue()+1);
-                int fixed = Utilities.floatToFixed(signAndExponent, mantissa);
-                r.setValue(fixed);
+                int floating = readFloat(cpu, cpu.getIar().getValue());
+                r.setValue(cpu.getFpu().toFixed(floating));
             } else if (F == 1) {
                 // convert c(EA) to a floating point number and store in FR0
                 int value = cpu.getMemory().get(cpu.getIar().getValue());
-                int floating = Utilities.fixedToFloat(value);
-                cpu.getFr0().setValue(floating);
+                cpu.getFr0().setValue(cpu.getFpu().fromFixed(value));
             } else {
                 // F has to be 0 or 1
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
@@ -571,7 +516,7 @@ public enum Instruction {
         public void decode(CPU cpu) {
             int ixVal = cpu.getIxBits();
             if (ixVal == 0) {
-                System.out.println("Fault: no index register specified in LDX");
+                Trace.error(Trace.DECODE, "Fault: no index register specified in LDX");
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
             }
             cpu.getRs1().setValue(ixVal);
@@ -592,7 +537,7 @@ public enum Instruction {
         public void decode(CPU cpu) {
             int ixVal = cpu.getIxBits();
             if (ixVal == 0) {
-                System.out.println("Fault: no index register specified in LDX");
+                Trace.error(Trace.DECODE, "Fault: no index register specified in STX");
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
             }
             cpu.getRs1().setValue(ixVal);
@@ -652,10 +597,12 @@ public enum Instruction {
                 // cpu handles setting register value
                 cpu.getKeyboardInput();
             } else if (devId == DEVID.CARD_READER.getId()) {
-                // todo: what is the card reader? do we need to implement?
+                cpu.getCardReaderInput();
+            } else if (devId == DEVID.CORE_ID.getId() || devId == DEVID.CORE_COUNT.getId()) {
+                cpu.getCoreInput(devId);
             } else {
                 // otherwise, invalid devid for this instruction
-                System.out.println("Invalid devid for IN instruction");
+                Trace.error(Trace.IO, "Invalid devid for IN instruction");
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
             }
         }
@@ -676,7 +623,7 @@ public enum Instruction {
                 cpu.printToConsole(cpu.selectGpr(cpu.getRs1().getValue()));
             } else {
                 // otherwise, invalid devid for this instruction
-                System.out.println("Invalid devid for IN instruction");
+                Trace.error(Trace.IO, "Invalid devid for OUT instruction");
                 cpu.handleMachineFault(Common.ILLEGAL_OPERATION_CODE);
             }
         }
@@ -695,6 +642,15 @@ public enum Instruction {
     private final int opcode;
     private final String name;
 
+    // Instruction for every 6-bit opcode; null for illegal opcodes
+    private static final Instruction[] BY_OPCODE = new Instruction[64];
+
+    static {
+        for (Instruction i : Instruction.values()) {
+            BY_OPCODE[i.opcode] = i;
+        }
+    }
+
     Instruction(int opcode, String name) {
         this.opcode = opcode;
         this.name = name;
@@ -712,20 +668,148 @@ public enum Instruction {
      */
     public abstract void execute(CPU cpu);
 
+    /**
+     * Reads a floating point number from memory: c(address) is the sign and exponent, c(address+1) the mantissa
+     * @return -> the 16 bit floating point number
+     */
+    private static int readFloat(CPU cpu, int address) {
+        Memory memory = cpu.getMemory();
+        memory.checkRange(address, 2);
+        return FPU.fromWords(memory.getUnchecked(address), memory.getUnchecked(address + 1));
+    }
+
+    /**
+     * VADD/VSUB: the FPR holds the length, c(EA) the address of v1 (which gets the result) and c(EA+1) that of v2
+     * @param subtract -> VSUB instead of VADD
+     */
+    private static void vector(CPU cpu, boolean subtract) {
+        Memory memory = cpu.getMemory();
+        RegisterFloat fr = cpu.selectFpr(cpu.getRs1().getValue());
+        int length = cpu.getFpu().toFixed(fr.getValue());
+
+        int v1Address = cpu.getIar().getValue();
+        memory.checkRange(v1Address, 2);
+        // the words are read back sign extended; as addresses they are unsigned
+        int v1 = memory.getUnchecked(v1Address) & 0xFFFF;
+        int v2 = memory.getUnchecked(v1Address + 1) & 0xFFFF;
+        int flags = memory.vector(v1, v2, length, subtract);
+        cpu.getAlu().setCcBits(cpu.getAlu().getCcBits() | flags);
+    }
+
     /**
      * Returns the Instruction enum based on the opcode value
      * @param opcode -> the opcode value obtained from parsing the instruction
      * @return -> the corresponding Instruction enum if found, otherwise null
      */
     public static Instruction getInstruction(int opcode) {
-        for (Instruction i : Instruction.values()) {
-            if (i.opcode == opcode) {
-                return i;
-            }
+        if ((opcode & ~0x3F) != 0) {
+            return null;
+        }
+        return BY_OPCODE[opcode];
+    }
+
+    /**
+     * `Decode` portion of the instruction, dispatched with a switch on the opcode instead of a virtual call
+     * @param opcode -> the opcode value obtained from parsing the instruction
+     * @param cpu -> A reference to the cpu to be able to access internal registers
+     * @return -> false if the opcode is illegal
+     */
+    public static boolean decode(int opcode, CPU cpu) {
+        switch (opcode) {
+            case 0:  HALT.decode(cpu);  return true;
+            case 1:  LDR.decode(cpu);   return true;
+            case 2:  STR.decode(cpu);   return true;
+            case 3:  LDA.decode(cpu);   return true;
+            case 4:  AMR.decode(cpu);   return true;
+            case 5:  SMR.decode(cpu);   return true;
+            case 6:  AIR.decode(cpu);   return true;
+            case 7:  SIR.decode(cpu);   return true;
+            case 8:  JZ.decode(cpu);    return true;
+            case 9:  JNE.decode(cpu);   return true;
+            case 10: JCC.decode(cpu);   return true;
+            case 11: JMA.decode(cpu);   return true;
+            case 12: JSR.decode(cpu);   return true;
+            case 13: RFS.decode(cpu);   return true;
+            case 14: SOB.decode(cpu);   return true;
+            case 15: JGE.decode(cpu);   return true;
+            case 16: MLT.decode(cpu);   return true;
+            case 17: DVD.decode(cpu);   return true;
+            case 18: TRR.decode(cpu);   return true;
+            case 19: AND.decode(cpu);   return true;
+            case 20: ORR.decode(cpu);   return true;
+            case 21: NOT.decode(cpu);   return true;
+            case 24: TRAP.decode(cpu);  return true;
+            case 25: SRC.decode(cpu);   return true;
+            case 26: RRC.decode(cpu);   return true;
+            case 27: FADD.decode(cpu);  return true;
+            case 28: FSUB.decode(cpu);  return true;
+            case 29: VADD.decode(cpu);  return true;
+            case 30: VSUB.decode(cpu);  return true;
+            case 31: CNVRT.decode(cpu); return true;
+            case 33: LDX.decode(cpu);   return true;
+            case 34: STX.decode(cpu);   return true;
+            case 40: LDFR.decode(cpu);  return true;
+            case 41: STFR.decode(cpu);  return true;
+            case 49: IN.decode(cpu);    return true;
+            case 50: OUT.decode(cpu);   return true;
+            case 51: CHK.decode(cpu);   return true;
+            default: return false;
         }
-        return null;
     }
 
+    /**
+     * `Execute` portion of the instruction, dispatched with a switch on the opcode instead of a virtual call
+     * @param opcode -> the opcode value obtained from parsing the instruction
+     * @param cpu -> A reference to the cpu to be able to access internal registers
+     * @return -> false if the opcode is illegal
+     */
+    public static boolean execute(int opcode, CPU cpu) {
+        switch (opcode) {
+            case 0:  HALT.execute(cpu);  return true;
+            case 1:  LDR.execute(cpu);   return true;
+            case 2:  STR.execute(cpu);   return true;
+            case 3:  LDA.execute(cpu);   return true;
+            case 4:  AMR.execute(cpu);   return true;
+            case 5:  SMR.execute(cpu);   return true;
+            case 6:  AIR.execute(cpu);   return true;
+            case 7:  SIR.execute(cpu);   return true;
+            case 8:  JZ.execute(cpu);    return true;
+            case 9:  JNE.execute(cpu);   return true;
+            case 10: JCC.execute(cpu);   return true;
+            case 11: JMA.execute(cpu);   return true;
+            case 12: JSR.execute(cpu);   return true;
+            case 13: RFS.execute(cpu);   return true;
+            case 14: SOB.execute(cpu);   return true;
+            case 15: JGE.execute(cpu);   return true;
+            case 16: MLT.execute(cpu);   return true;
+            case 17: DVD.execute(cpu);   return true;
+            case 18: TRR.execute(cpu);   return true;
+            case 19: AND.execute(cpu);   return true;
+            case 20: ORR.execute(cpu);   return true;
+            case 21: NOT.execute(cpu);   return true;
+            case 24: TRAP.execute(cpu);  return true;
+            case 25: SRC.execute(cpu);   return true;
+            case 26: RRC.execute(cpu);   return true;
+            case 27: FADD.execute(cpu);  return true;
+            case 28: FSUB.execute(cpu);  return true;
+            case 29: VADD.execute(cpu);  return true;
+            case 30: VSUB.execute(cpu);  return true;
+            case 31: CNVRT.execute(cpu); return true;
+            case 33: LDX.execute(cpu);   return true;
+            case 34: STX.execute(cpu);   return true;
+            case 40: LDFR.execute(cpu);  return true;
+            case 41: STFR.execute(cpu);  return true;
+            case 49: IN.execute(cpu);    return true;
+            case 50: OUT.execute(cpu);   return true;
+            case 51: CHK.execute(cpu);   return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * @return -> the 6-bit opcode
+     */
+    public int getOpcode() { return opcode; }
 
     public String toString() { return name; }
 }
\ No newline at end of file
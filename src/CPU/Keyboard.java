@@ -0,0 +1,125 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Keyboard - The input device behind DEVID.KEYBOARD when it is fed from a queue instead of asked for each line
+ *
+ * Lines can be typed from any thread (the front panel, an API call) or fed from a file or stdin, and the CPU takes
+ * them one per IN, parsed the same way as typed input (see CPU.getKeyboardInput). Only the thread running the CPU
+ * ever waits for a line. Once the keyboard is closed and every line has been taken, IN stops the program.
+ */
+
+package CPU;
+
+import Common.Trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class Keyboard {
+
+    // How often a waiting take checks whether it should give up
+    private static final long WAIT_MILLIS = 50;
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Queues one line of input
+     * @param line -> the line, without its line separator
+     * @throws IllegalStateException -> if the keyboard has been closed
+     */
+    public void type(String line) {
+        if (closed) {
+            throw new IllegalStateException("keyboard is closed");
+        }
+        lines.add(line);
+    }
+
+    /**
+     * Queues lines of input, in order
+     */
+    public void typeAll(Collection<String> input) {
+        if (closed) {
+            throw new IllegalStateException("keyboard is closed");
+        }
+        lines.addAll(input);
+    }
+
+    /**
+     * Queues every line of a reader (a file, stdin) from a new daemon thread, so lines are available as soon as they
+     * are read. The keyboard is closed at the end of the reader.
+     * @param reader -> the input; closed when it has been read
+     * @param name -> a name for the thread
+     * @return -> the thread reading the input
+     */
+    public Thread feed(Reader reader, String name) {
+        Thread feeder = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(reader)) {
+                String line;
+                while ((line = in.readLine()) != null && !closed) {
+                    lines.add(line);
+                }
+            } catch (IOException e) {
+                Trace.error(Trace.IO, "Keyboard input " + name + " can't be read: " + e.getMessage());
+            } finally {
+                close();
+            }
+        }, "keyboard-" + name);
+        feeder.setDaemon(true);
+        feeder.start();
+        return feeder;
+    }
+
+    /**
+     * No more lines will be typed; IN stops the program once the queued lines are used up
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() { return closed; }
+
+    /**
+     * @return -> the number of lines waiting to be taken
+     */
+    public int pending() { return lines.size(); }
+
+    /**
+     * @return -> the next line, if one is queued (never waits)
+     */
+    public String poll() {
+        return lines.poll();
+    }
+
+    /**
+     * Waits for the next line
+     * @param cancelled -> checked while waiting; the wait is given up when it is true
+     * @return -> the next line, or null if the keyboard is closed with nothing queued, or the wait was cancelled
+     */
+    String take(BooleanSupplier cancelled) {
+        try {
+            while (true) {
+                String line = lines.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    return line;
+                }
+                if (closed) {
+                    // a line may have come in just before the keyboard was closed
+                    return lines.poll();
+                }
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * MachineObserver - Everything outside of the CPU that wants to follow the machine (front panel, console, tests)
+ * The CPU runs without any observer; every callback defaults to doing nothing
+ */
+
+package CPU;
+
+public interface MachineObserver {
+
+    /**
+     * Called after every completed instruction cycle
+     * @param cpu -> the cpu that finished the cycle
+     */
+    default void cycleCompleted(CPU cpu) {}
+
+    /**
+     * Called when the machine is halted or un-halted
+     * @param halted -> true if the machine is now halted
+     */
+    default void haltChanged(boolean halted) {}
+
+    /**
+     * Called when a user program executes its final HLT
+     */
+    default void programTerminated() {}
+
+    /**
+     * Output written to the console printer (OUT to the printer device)
+     * @param text -> the text to print
+     */
+    default void print(String text) {}
+
+    /**
+     * Input requested by the keyboard device (IN from the keyboard)
+     * @param prompt -> a message describing the expected input
+     * @return -> the line typed by the user, or null if there is no input available
+     */
+    default String readKeyboard(String prompt) { return null; }
+
+    /**
+     * Called when IN from the keyboard is about to wait for the keyboard queue (see Keyboard) to be typed into
+     * @param prompt -> a message describing the expected input
+     */
+    default void keyboardWaiting(String prompt) {}
+
+    /**
+     * Called when the keyboard input was not a valid character or number. The CPU will ask again
+     * @param message -> the reason the input was rejected
+     */
+    default void keyboardRejected(String message) {}
+
+    /**
+     * Called when the keyboard input was accepted
+     * @param shown -> the value that was loaded into the register
+     */
+    default void keyboardAccepted(String shown) {}
+
+    /**
+     * Called when the keyboard has no input to give
+     * @return -> true to stop the program, false to ask for input again
+     */
+    default boolean keyboardClosed() { return true; }
+}
@@ -1,69 +1,71 @@
 /**
  * CSCI 6461 - Fall 2022
- * 
+ *
  * Register Class controls the attrivutes needed for all registers (outside of floating point ones)
+ *
+ * The value itself lives in a primitive int slot (usually a slot of the RegisterFile); the binary string is only
+ * built when something asks for it, such as the front panel display
  */
 
 package CPU;
 
-import javax.swing.*;
-
+import Common.Trace;
 import Common.Utilities;
-import GUI.InputSwitches;
 
 public class Register {
 
-    // Name, Length (in bits), Value, and Flags
+    // Name, Length (in bits), and Flags
     protected final String name;
     protected final int length;
-    protected int value;
 
     protected final boolean isSigned;
     protected boolean isChar;
 
-    // GUI Components
-    protected final JLabel label;
-    protected final JTextField textField;
-    protected final JButton load;
-    protected final InputSwitches switches;
+    // Storage for the value: values[index]
+    protected final int[] values;
+    protected final int index;
+
+    // Used to fit a value into `length` bits: 32 - length for sign extension, mask for unsigned
+    private final int shift;
+    private final int mask;
+
+    /**
+     * Creates a stand-alone register that owns its own storage
+     */
+    public Register(String name, int length, boolean supportsNegatives) {
+        this(name, length, supportsNegatives, new int[1], 0);
+    }
 
-    public Register(String name, int length, InputSwitches switches, boolean supportsNegatives) {
+    /**
+     * Creates a register backed by a slot of a shared value array (see RegisterFile)
+     */
+    Register(String name, int length, boolean supportsNegatives, int[] values, int index) {
         this.name = name;
         this.length = length;
-        this.switches = switches;
         this.isSigned = supportsNegatives;
+        this.values = values;
+        this.index = index;
 
-        value = 0;   isChar = false;   label = new JLabel(name);
-        textField = new JTextField(length);
-        textField.setName(name);
-        textField.setText("0".repeat(length));
-        textField.setEditable(false);
-        textField.setHorizontalAlignment(JTextField.RIGHT);
-        load = new JButton("Load");
-
-        addLoadListener();
+        shift = 32 - length;
+        mask = (int) ((1L << length) - 1);
+        isChar = false;
     }
 
     /**
-     * Adds a listener to the load button that stores the value in the switches into the register
+     * Loads the register from a binary string, such as the value held by the front panel switches
+     * @param switchValue -> the binary string to load. Only the last `length` bits are used
      */
-    protected void addLoadListener() {
-        load.addActionListener(ae -> {
-            // Some registers can't hold all of the bits provided in the input switches
-            if (switches.getValue().length() > length) {
-                System.out.println("Warning: switch length is greater than register length. Only setting first "
-                        + length + " bits.");
-            }
-            // Set the register value to whatever the switches represent
-            String valueToSet = switches.getValue().substring(switches.getValue().length() - length);
-            textField.setText(valueToSet);
-            if (isSigned) {
-                value = Utilities.signedBinaryToInt(valueToSet);
-            } else {
-                value = Integer.parseInt(valueToSet, 2);
-            }
-            System.out.println("setting " + name + " to value " + value);
-        });
+    public void loadBinary(String switchValue) {
+        // Some registers can't hold all of the bits provided in the input switches
+        if (switchValue.length() > length && Trace.info(Trace.IO)) {
+            Trace.info(Trace.IO, "Warning: switch length is greater than register length. Only setting first "
+                    + length + " bits.");
+        }
+        // Set the register value to whatever the switches represent
+        setValue(Integer.parseInt(switchValue.substring(switchValue.length() - length), 2));
+        if (Trace.info(Trace.IO)) {
+            Trace.info(Trace.IO, "setting " + name + " to value " + getValue());
+        }
     }
 
     public String getName() {
@@ -71,27 +73,21 @@ public class Register {
     }
 
     public int getValue() {
-        return value;
+        return values[index];
     }
 
     public char getChar() {
-        return (char) value;
+        return (char) values[index];
     }
 
     /**
-     * Sets the value of the register based on the inputted integer. Must convert to binary for display/usage purposes
+     * Sets the value of the register based on the inputted integer. Only the low `length` bits are kept,
+     * and signed registers sign extend from the top bit
      * @param value -> the integer value to set the register to
      */
     public void setValue(int value) {
         isChar = false;
-        String binary = Utilities.intToSignedBinary(value, length);
-
-        if (isSigned) {
-            this.value = Utilities.signedBinaryToInt(binary);
-        } else {
-            this.value = Integer.parseInt(binary, 2);
-        }
-        textField.setText(binary);
+        values[index] = isSigned ? (value << shift) >> shift : value & mask;
     }
 
     /**
@@ -100,20 +96,18 @@ public class Register {
      */
     public void setValue(char value) {
         isChar = true;
-        this.value = value;
+        values[index] = value;
     }
 
-    public String getBinaryStringValue() { return textField.getText(); }
+    /**
+     * Binary representation of the value (what the front panel shows). Built on every call
+     * @return -> the value as a binary string of `length` bits
+     */
+    public String getBinaryStringValue() { return Utilities.intToSignedBinary(values[index], length); }
 
     public boolean isChar() { return isChar; }
 
-    public JLabel getLabel() { return label; }
-
-    public JTextField getTextField() { return textField; }
-
-    public JButton getLoad() { return load; }
-
     public int getLength() { return length; }
 
-    public String toString() { return name + ": " + length + " bits. Value: " + value; }
-}
\ No newline at end of file
+    public String toString() { return name + ": " + length + " bits. Value: " + getValue(); }
+}
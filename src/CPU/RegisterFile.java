@@ -0,0 +1,115 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Register File - Every register of the CPU packed into one primitive int array
+ *
+ * Registers are addressed by index (GPR0 + r, IX0 + x, FR0 + f, ...). The Register objects handed out by the
+ * file are views onto a slot of the array, so the front panel and the instructions see the same value
+ */
+
+package CPU;
+
+import java.util.Arrays;
+
+public class RegisterFile {
+
+    // Register indices
+    public static final int GPR0 = 0;   // GPR 0-3 -> 0-3
+    public static final int IX0 = 3;    // IX 1-3 -> 4-6 (there is no IX 0)
+    public static final int FR0 = 7;    // FR 0-1 -> 7-8
+    public static final int PC = 9;
+    public static final int MAR = 10;
+    public static final int MAR_MEM = 11;
+    public static final int MBR = 12;
+    public static final int IR = 13;
+    public static final int MFR = 14;
+    public static final int IAR = 15;
+    public static final int IRR = 16;
+    public static final int RS1 = 17;
+    public static final int COUNT = 18;
+
+    private final int[] values = new int[COUNT];
+    private final Register[] registers = new Register[COUNT];
+
+    public RegisterFile() {
+        // General Purpose Registers
+        for (int r = 0; r < 4; r++) {
+            registers[GPR0 + r] = new Register("GPR " + r, 16, true, values, GPR0 + r);
+        }
+        // Index Registers
+        for (int x = 1; x < 4; x++) {
+            registers[IX0 + x] = new Register("IX " + x, 16, true, values, IX0 + x);
+        }
+        // Floating Point Registers
+        for (int f = 0; f < 2; f++) {
+            registers[FR0 + f] = new RegisterFloat("FR " + f, 16, true, values, FR0 + f);
+        }
+        // PC, Memory, Instruction and Fault Registers
+        registers[PC] = new Register("PC", 12, false, values, PC);
+        registers[MAR] = new Register("MAR", 16, false, values, MAR);
+        registers[MAR_MEM] = new Register("Mem @ MAR", 16, false, values, MAR_MEM);
+        registers[MBR] = new Register("MBR", 16, true, values, MBR);
+        registers[IR] = new Register("IR", 16, false, values, IR);
+        registers[MFR] = new Register("MFR", 4, false, values, MFR);
+
+        // Internal Registers (IAR holds an effective address, unsigned like MAR)
+        registers[IAR] = new Register("IAR", 16, false, values, IAR);
+        registers[IRR] = new Register("IRR", 16, true, values, IRR);
+        registers[RS1] = new Register("RS1", 2, false, values, RS1);
+    }
+
+    /**
+     * Reads a register by index
+     * @param index -> the register index (e.g. RegisterFile.GPR0 + 2)
+     * @return -> the register value
+     */
+    public int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Writes a register by index, fitting the value to the register length
+     * @param index -> the register index
+     * @param value -> the value to store
+     */
+    public void set(int index, int value) {
+        registers[index].setValue(value);
+    }
+
+    /**
+     * Returns the register view for an index
+     * @param index -> the register index
+     * @return -> the Register backed by that slot
+     */
+    public Register getRegister(int index) {
+        return registers[index];
+    }
+
+    /**
+     * @return -> the register values themselves, for compiled blocks (see CPU.directFetch)
+     */
+    int[] values() {
+        return values;
+    }
+
+    /**
+     * @return -> a copy of every register value, for a checkpoint
+     */
+    public int[] copyValues() {
+        return values.clone();
+    }
+
+    /**
+     * Sets every register from a copy made by copyValues
+     */
+    public void restoreValues(int[] copy) {
+        System.arraycopy(copy, 0, values, 0, values.length);
+    }
+
+    /**
+     * Sets every register to 0
+     */
+    public void reset() {
+        Arrays.fill(values, 0);
+    }
+}
@@ -1,70 +1,73 @@
 /**
  * CSCI 6461 - Fall 2022
- * 
+ *
  * Register Float extends a register to also support floating point values and operations
+ *
+ * Layout of the 16 bits: [ sign (1) | exponent (7) | mantissa (8) ]
  */
 
 package CPU;
 
-import Common.Utilities;
-import GUI.InputSwitches;
+import ALU.FPU;
 
 public class RegisterFloat extends Register {
 
     // Nothing extra during register creation compared to all other registers
-    public RegisterFloat(String name, int length, InputSwitches switches, boolean supportsNegatives) {
-        super(name, length, switches, supportsNegatives);
+    public RegisterFloat(String name, int length, boolean supportsNegatives) {
+        super(name, length, supportsNegatives);
+    }
+
+    RegisterFloat(String name, int length, boolean supportsNegatives, int[] values, int index) {
+        super(name, length, supportsNegatives, values, index);
     }
 
     // Returns the exponent portion of the register (only should be used for floating point registers)
     public int getExponent() {
         if (length != 16) { return 0; }
         // bits 1-7 represent the (signed) exponent
-        return Utilities.signedBinaryToInt(getBinaryStringValue().substring(1, 8));
+        return (getValue() << 17) >> 25;
     }
 
     /**
      * Sets the exponent portion of a floating point register to the specified value
-     * @param value - the value to set the exponent to
+     * @param value - the value to set the exponent to (only the low 7 bits are used)
      */
     public void setExponent(int value) {
-        String binaryValue = Integer.toBinaryString(value);
-        String oldVal = getBinaryStringValue();
-        String newVal = oldVal.charAt(0) + binaryValue + oldVal.substring(8);
-        setValue(Utilities.signedBinaryToInt(newVal));
+        setValue((getValue() & 0x80FF) | ((value & 0x7F) << 8));
     }
 
     // Get the beginning part of the register
     public int getSignAndExponent() {
         // bit 0 is signed; bits 1-7 represent the (signed) exponent
-        return Utilities.signedBinaryToInt(getBinaryStringValue().substring(0, 8));
+        return (getValue() << 16) >> 24;
+    }
+
+    /**
+     * Sets the sign and exponent of a floating point register (what LDFR loads from c(EA))
+     * @param value - bit 7 is the sign, bits 0-6 the exponent (the rest is ignored)
+     */
+    public void setSignAndExponent(int value) {
+        setValue((value & 0xFF) << 8 | getMantissa());
     }
 
     // The bulk of the value of the register. This is used with exponents and sign
     public int getMantissa() {
         if (length != 16) { return 0; }
-        return Integer.parseInt(getBinaryStringValue().substring(8), 2);
+        return getValue() & 0xFF;
     }
 
     /**
      * Sets the mantissa portion of a floating point register to the specified value
-     * @param value - the value to set the mantissa to
+     * @param value - the value to set the mantissa to (only the low 8 bits are used)
      */
     public void setMantissa(int value) {
-        String binaryValue = Utilities.intToSignedBinary(value, 8);
-        String oldVal = getBinaryStringValue();
-        String newVal = oldVal.substring(0, 8) + binaryValue;
-        setValue(Utilities.signedBinaryToInt(newVal));
+        setValue((getValue() & 0xFF00) | (value & 0xFF));
     }
 
-    public int getSign() { return getBinaryStringValue().charAt(0); }
+    public int getSign() { return (getValue() >> 15) & 1; }
 
     // Calculate the Register Value from the mantissa, exponent, and sign
     public double getFloatingPointValue() {
-        int mantissa = getMantissa();
-        int exponent = getExponent();
-        double result = mantissa * Math.pow(2, exponent);
-        if (getSign() == 1) { result *= -1; }
-        return result;
+        return FPU.toDouble(getValue());
     }
 }
@@ -0,0 +1,152 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Run Controller - Owns the thread that runs the CPU for Run, Single Step and Halt
+ *
+ * The thread parks while the machine is paused and is unparked straight away when one of the buttons is pressed,
+ * so there is no polling delay. While running it executes instructions in bursts (-Dsimulator.burst, default 4096)
+ * and only reads the volatile request flags between bursts, so the instruction loop runs at interpreter speed.
+ */
+
+package CPU;
+
+import java.util.concurrent.locks.LockSupport;
+
+public class RunController {
+
+    public static final int DEFAULT_BURST_SIZE = Integer.getInteger("simulator.burst", 4096);
+
+    private final CPU cpu;
+    private Thread runThread;
+
+    // Requests from other threads (front panel), picked up by the run thread between bursts
+    private volatile boolean runRequested = false;
+    private volatile boolean stepRequested = false;
+    private volatile boolean pauseRequested = false;
+    private volatile int burstSize = DEFAULT_BURST_SIZE;
+
+    // Only changed by the run thread
+    private volatile boolean running = false;
+    private long runStart;
+
+    // Statistics for the current (or last) run, published after every burst
+    private volatile long instructions = 0;
+    private volatile long elapsedNanos = 0;
+
+    RunController(CPU cpu) {
+        this.cpu = cpu;
+    }
+
+    /**
+     * Run: start (or resume) executing instructions until the program halts or pause is called
+     */
+    public void run() {
+        runRequested = true;
+        wake();
+    }
+
+    /**
+     * Step: execute one instruction cycle
+     */
+    public void step() {
+        stepRequested = true;
+        wake();
+    }
+
+    /**
+     * Halt: stop executing instructions at the end of the current burst
+     */
+    public synchronized void pause() {
+        if (runThread == null) {
+            // nothing is running, so there is nobody to hand the request to
+            cpu.setHalted(true);
+            return;
+        }
+        pauseRequested = true;
+        LockSupport.unpark(runThread);
+    }
+
+    /**
+     * Sets how many instructions run between checks of the request flags
+     * @param burstSize -> instructions per burst (at least 1)
+     */
+    public void setBurstSize(int burstSize) { this.burstSize = Math.max(1, burstSize); }
+
+    public int getBurstSize() { return burstSize; }
+
+    /**
+     * @return -> true if Halt was pressed and the run thread hasn't stopped yet (an IN waiting for input gives up)
+     */
+    boolean isPauseRequested() { return pauseRequested; }
+
+    /**
+     * @return -> true while the run thread is executing bursts
+     */
+    public boolean isRunning() { return running; }
+
+    /**
+     * @return -> instructions executed since run was last pressed
+     */
+    public long getInstructionCount() { return instructions; }
+
+    /**
+     * @return -> the speed of the current (or last) run, in instructions per second
+     */
+    public double getInstructionsPerSecond() {
+        long nanos = elapsedNanos;
+        return nanos == 0 ? 0 : instructions * 1e9 / nanos;
+    }
+
+    private synchronized void wake() {
+        if (runThread == null) {
+            runThread = new Thread(this::loop, "runThread");
+            runThread.start();
+        } else {
+            LockSupport.unpark(runThread);
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            if (pauseRequested) {
+                pauseRequested = false;
+                runRequested = false;
+                stop();
+                cpu.setHalted(true);
+            }
+            if (runRequested) {
+                runRequested = false;
+                cpu.startUserProgram();
+                cpu.resume();
+                if (!running) {
+                    running = true;
+                    instructions = 0;
+                    elapsedNanos = 0;
+                    runStart = System.nanoTime();
+                }
+            }
+            if (stepRequested) {
+                stepRequested = false;
+                cpu.startUserProgram();
+                cpu.singleInstructionCycle();
+            }
+            if (running) {
+                instructions += cpu.runBurst(burstSize);
+                elapsedNanos = System.nanoTime() - runStart;
+                if (cpu.isPaused()) {
+                    stop();
+                }
+                continue;
+            }
+            // Unpark can come before park; the permit is kept so the request isn't missed
+            LockSupport.park(this);
+        }
+    }
+
+    private void stop() {
+        if (running) {
+            running = false;
+            elapsedNanos = System.nanoTime() - runStart;
+        }
+    }
+}
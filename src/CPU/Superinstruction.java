@@ -0,0 +1,66 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Superinstruction - Pairs of instructions that often run one after the other, run by a block as a single step when
+ * fusion is on (see CPU.setFusion)
+ *
+ * The pairs are the most frequent ones in the shipped programs (BlockCache.getPairProfile lists what a run executes
+ * most, fused or not) that both have a direct step (see CPU.directStep): the loads, stores and subtracts of
+ * program1's comparisons, the index register loads before a jump, an add or subtract before a jump or a SOB loop,
+ * and program2's search loop. A fused pair runs as one step on the register values, with one end of cycle for the
+ * pair (see CPU.fusedCycles); a fault or a write to its block's code in the first instruction still stops the pair
+ * there, and condition codes are set by each instruction as step by step.
+ */
+
+package CPU;
+
+public enum Superinstruction {
+
+    // program1
+    LDR_SMR(Instruction.LDR, Instruction.SMR),
+    SMR_JGE(Instruction.SMR, Instruction.JGE),
+    SMR_LDX(Instruction.SMR, Instruction.LDX),
+    LDX_JGE(Instruction.LDX, Instruction.JGE),
+    LDX_JMA(Instruction.LDX, Instruction.JMA),
+    LDX_LDR(Instruction.LDX, Instruction.LDR),
+    STR_LDX(Instruction.STR, Instruction.LDX),
+    STR_SMR(Instruction.STR, Instruction.SMR),
+    STR_SIR(Instruction.STR, Instruction.SIR),
+    LDR_STR(Instruction.LDR, Instruction.STR),
+    LDR_SIR(Instruction.LDR, Instruction.SIR),
+    SIR_STR(Instruction.SIR, Instruction.STR),
+    SIR_LDR(Instruction.SIR, Instruction.LDR),
+    // an add or subtract before a jump, and SOB loops
+    AIR_JMA(Instruction.AIR, Instruction.JMA),
+    AIR_JZ(Instruction.AIR, Instruction.JZ),
+    SIR_JZ(Instruction.SIR, Instruction.JZ),
+    SIR_JGE(Instruction.SIR, Instruction.JGE),
+    AIR_SOB(Instruction.AIR, Instruction.SOB),
+    STR_SOB(Instruction.STR, Instruction.SOB),
+    // program2
+    STR_LDR(Instruction.STR, Instruction.LDR);
+
+    private static final int INSTRUCTIONS = Instruction.values().length;
+    private static final Superinstruction[] PAIRS = new Superinstruction[INSTRUCTIONS * INSTRUCTIONS];
+
+    static {
+        for (Superinstruction pair : values()) {
+            PAIRS[pair.first.ordinal() * INSTRUCTIONS + pair.second.ordinal()] = pair;
+        }
+    }
+
+    public final Instruction first;
+    public final Instruction second;
+
+    Superinstruction(Instruction first, Instruction second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * @return -> the superinstruction for a pair of instructions, or null if the pair isn't fused
+     */
+    public static Superinstruction of(Instruction first, Instruction second) {
+        return PAIRS[first.ordinal() * INSTRUCTIONS + second.ordinal()];
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Trace - Switchable logging for the simulator, by subsystem (category) and level
+ *
+ * Everything is chosen with system properties when the simulator starts:
+ * * -Dsimulator.trace=fetch,decode,alu,memory,cache,io (or all): categories to trace
+ * * -Dsimulator.trace.level=error|info|trace: how much to log for those categories (default trace)
+ * * -Dsimulator.trace.file=path: where to write the trace (default stderr)
+ * * -Dsimulator.trace.format=text|binary: binary writes fixed-size 16 byte records (see TraceDump)
+ *
+ * Errors are logged for every category unless the level is off. The masks are static final, so once the JIT has
+ * compiled a trace point that is switched off it costs nothing. Events only take ints (no boxing, no strings);
+ * messages take a String, so callers should check info()/error() before building one.
+ */
+
+package Common;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public final class Trace {
+
+    // Categories
+    public static final int FETCH = 1;
+    public static final int DECODE = 1 << 1;
+    public static final int ALU = 1 << 2;
+    public static final int MEMORY = 1 << 3;
+    public static final int CACHE = 1 << 4;
+    public static final int IO = 1 << 5;
+    public static final int ALL = FETCH | DECODE | ALU | MEMORY | CACHE | IO;
+    private static final String[] CATEGORY_NAMES = { "fetch", "decode", "alu", "memory", "cache", "io" };
+
+    // Events (logged at the trace level): a and b are event specific
+    public static final int FETCH_WORD = 0;         // a = pc, b = instruction word
+    public static final int NEXT_PC = 1;            // a = pc, b = next pc
+    public static final int EFFECTIVE_ADDRESS = 2;  // a = address field, b = effective address
+    public static final int ALU_ADD = 3;            // a = operand, b = operand
+    public static final int ALU_SUBTRACT = 4;       // a = operand, b = operand
+    public static final int ALU_MULTIPLY = 5;       // a = high order word, b = low order word
+    public static final int ALU_DIVIDE = 6;         // a = quotient, b = remainder
+    public static final int ALU_TEST = 7;           // a = value, b = value
+    public static final int ALU_LOGIC = 8;          // a = opcode, b = result
+    public static final int ALU_SHIFT = 9;          // a = value, b = result
+    public static final int ALU_RESULT = 10;        // a = result, b = condition codes
+    public static final int REGISTER_WRITE = 11;    // a = register select, b = value
+    public static final int MEMORY_WRITE = 12;      // a = address, b = value
+    public static final int CACHE_HIT = 13;         // a = address, b = value
+    public static final int CACHE_MISS = 14;        // a = address, b = value
+    public static final int KEYBOARD_IN = 15;       // a = register select, b = value
+    public static final int PRINTER_OUT = 16;       // a = register select, b = value
+    public static final int CACHE_EVICT = 17;       // a = block address, b = 1 if it was written back
+    public static final int CARD_IN = 18;           // a = register select, b = value
+    public static final int CARD_DMA = 19;          // a = first location, b = words transferred
+    private static final String[] EVENT_NAMES = {
+            "FETCH", "NEXT_PC", "EA", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "TEST", "LOGIC", "SHIFT",
+            "RESULT", "REGISTER_WRITE", "MEMORY_WRITE", "CACHE_HIT", "CACHE_MISS", "IN", "OUT",
+            "CACHE_EVICT", "CARD_IN", "CARD_DMA"
+    };
+
+    // Binary records: [ int sequence | short category | short event | int a | int b ]
+    public static final int RECORD_SIZE = 16;
+    public static final int MAGIC = 0x53545243; // "STRC"
+
+    // Categories enabled at each level
+    private static final int ERROR_MASK;
+    private static final int INFO_MASK;
+    private static final int TRACE_MASK;
+
+    private static final boolean BINARY;
+    private static PrintStream text;
+    private static FileChannel binary;
+    private static ByteBuffer records;
+    private static int sequence = 0;
+
+    static {
+        int categories = parseCategories(System.getProperty("simulator.trace", ""));
+        String level = System.getProperty("simulator.trace.level", "trace").toLowerCase();
+        int errorMask = level.equals("off") ? 0 : ALL;
+        int infoMask = 0;
+        int traceMask = 0;
+        if (level.equals("info")) {
+            infoMask = categories;
+        } else if (level.equals("trace")) {
+            infoMask = categories;
+            traceMask = categories;
+        }
+
+        String file = System.getProperty("simulator.trace.file");
+        boolean isBinary = System.getProperty("simulator.trace.format", "text").equalsIgnoreCase("binary");
+        text = System.err;
+        try {
+            if (isBinary && traceMask != 0) {
+                openBinary(file != null ? file : "simulator.trace");
+            } else if (file != null) {
+                text = new PrintStream(new FileOutputStream(file), true);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not open trace file " + file + ": " + e.getMessage());
+            isBinary = false;
+        }
+        BINARY = isBinary && binary != null;
+        ERROR_MASK = errorMask;
+        INFO_MASK = infoMask;
+        TRACE_MASK = traceMask;
+    }
+
+    private Trace() {}
+
+    private static int parseCategories(String list) {
+        int mask = 0;
+        for (String name : list.toLowerCase().split(",")) {
+            name = name.trim();
+            if (name.equals("all")) {
+                mask |= ALL;
+            }
+            for (int i = 0; i < CATEGORY_NAMES.length; i++) {
+                if (CATEGORY_NAMES[i].equals(name)) {
+                    mask |= 1 << i;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static void openBinary(String file) throws IOException {
+        binary = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        records = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+        records.putInt(MAGIC).putInt(RECORD_SIZE);
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::flush, "traceFlush"));
+    }
+
+    /* LEVEL CHECKS */
+
+    public static boolean error(int category) { return (ERROR_MASK & category) != 0; }
+
+    public static boolean info(int category) { return (INFO_MASK & category) != 0; }
+
+    public static boolean trace(int category) { return (TRACE_MASK & category) != 0; }
+
+    /* LOGGING */
+
+    /**
+     * Logs a trace level event. Does nothing (and allocates nothing) when the category isn't traced
+     * @param category -> the subsystem logging the event (e.g. Trace.ALU)
+     * @param event -> the event id (e.g. Trace.ALU_ADD)
+     * @param a -> first event value
+     * @param b -> second event value
+     */
+    public static void event(int category, int event, int a, int b) {
+        if ((TRACE_MASK & category) == 0) {
+            return;
+        }
+        write(category, event, a, b);
+    }
+
+    /**
+     * Logs an error. Build the message only after checking Trace.error(category)
+     * @param category -> the subsystem logging the error
+     * @param message -> the message to log
+     */
+    public static void error(int category, String message) {
+        if ((ERROR_MASK & category) != 0) {
+            print(category, "[ERROR] " + message);
+        }
+    }
+
+    /**
+     * Logs an informational message. Build the message only after checking Trace.info(category)
+     * @param category -> the subsystem logging the message
+     * @param message -> the message to log
+     */
+    public static void info(int category, String message) {
+        if ((INFO_MASK & category) != 0) {
+            print(category, message);
+        }
+    }
+
+    private static synchronized void print(int category, String message) {
+        text.println("[" + categoryName(category) + "] " + message);
+    }
+
+    private static synchronized void write(int category, int event, int a, int b) {
+        if (!BINARY) {
+            text.println("[" + categoryName(category) + "] " + EVENT_NAMES[event] + " " + a + " " + b);
+            return;
+        }
+        if (records.remaining() < RECORD_SIZE) {
+            drain();
+        }
+        records.putInt(sequence++).putShort((short) category).putShort((short) event).putInt(a).putInt(b);
+    }
+
+    /**
+     * Writes out any buffered binary records
+     */
+    public static synchronized void flush() {
+        if (BINARY) {
+            drain();
+        } else {
+            text.flush();
+        }
+    }
+
+    private static void drain() {
+        try {
+            records.flip();
+            while (records.hasRemaining()) {
+                binary.write(records);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not write trace records: " + e.getMessage());
+        }
+        records.clear();
+    }
+
+    public static String categoryName(int category) {
+        int index = Integer.numberOfTrailingZeros(category);
+        return index < CATEGORY_NAMES.length ? CATEGORY_NAMES[index] : "?";
+    }
+
+    public static String eventName(int event) {
+        return event >= 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : "?";
+    }
+}
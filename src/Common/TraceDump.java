@@ -0,0 +1,45 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Trace Dump - Prints a binary trace file (-Dsimulator.trace.format=binary) as text
+ *
+ * Usage: TraceDump <trace file>
+ */
+
+package Common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+public class TraceDump {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TraceDump <trace file>");
+            System.exit(2);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            if (in.readInt() != Trace.MAGIC || in.readInt() != Trace.RECORD_SIZE) {
+                System.err.println(args[0] + " is not a simulator trace file");
+                System.exit(1);
+            }
+            while (true) {
+                int sequence;
+                try {
+                    sequence = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int category = in.readShort();
+                int event = in.readShort();
+                int a = in.readInt();
+                int b = in.readInt();
+                System.out.println(sequence + "\t[" + Trace.categoryName(category) + "] " + Trace.eventName(event)
+                        + " " + a + " " + b);
+            }
+        }
+    }
+}
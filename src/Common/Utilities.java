@@ -90,35 +90,6 @@ public class Utilities {
 		return result;
 	}
 
-    /**
-	 * Convert floating point value to int
-	 * @param value -> the int to be converted
-	 * @param length -> the length of the string to be returned
-	 * @return -> the result of the int value with length length in binary
-	 */
-	public static int floatToFixed(int signAndExponent, int mantissa) {
-		String s = Utilities.intToSignedBinary(signAndExponent, 8);
-		int sign = Integer.parseInt(s.substring(0, 1));
-		int exponent = signedBinaryToInt(s.substring(1));
-
-		if (sign == 1) {
-			mantissa *= -1;
-		}
-		return (int) (mantissa * Math.pow(2, exponent));
-	}
-
-	public static int fixedToFloat(int value) {
-		String sign;
-		if (value < 0) {
-			sign = "1";
-		} else {
-			sign = "0";
-		}
-		String signAndExponent = sign + "0000000";
-		String combined = signAndExponent + Utilities.intToUnsignedBinary(Math.abs(value), 8);
-		return Utilities.signedBinaryToInt(combined);
-	}
-
 	/**
 	 * Generalized method to add a component to the specified panel using the GridBagLayout.
 	 * 
@@ -9,24 +9,56 @@ package GUI;
 import javax.swing.*;
 
 import CPU.*;
-import Common.Common;
+import Common.Trace;
 import Common.Utilities;
+import Machine.Machine;
 import Memory.Memory;
 
 import java.awt.*;
+import java.awt.event.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class GUI {
+public class GUI implements MachineObserver {
     // main frame and panels to hold other components
     private final JFrame mainFrame;  private final JPanel mainPanel;
 
     // Initial program load
-    private JButton IPLButton;   private JFileChooser fileChooser;
+    private JButton IPLButton;   private JButton reloadButton;   private JFileChooser fileChooser;
 
-    // Memory reference
+    // Machine reference
+    private final Machine machine;
     private final CPU cpu; private final Memory memory;
     private final InputSwitches inputerSwitches;
 
+    // Register displays
+    private final List<RegisterDisplay> registerDisplays = new ArrayList<>();
+
+    // Internal register values
+    private JLabel IARLabel;    private JLabel IRRLabel;    private JLabel RS1Label;
+
+    // Condition code values
+    private final JLabel[] condCodeValues = new JLabel[4];
+
+    // Run and Halt Buttons
+    private JButton run;    private JButton singleStep;    private JToggleButton halt;
+
+    // IO devices
+    private JTextArea DevConsole;   private JTextField InputText;
+    private JTextField keyboardText;    private JButton keysFileButton;
+    // IN from the keyboard takes its lines from here; typed in keyboardText or queued from a file
+    private final Keyboard keyboard = new Keyboard();
+    private JLabel currentInstructionDisplay;
+
+    // Front panel refresh rate (-Dsimulator.gui.fps). While running, the run thread only copies the machine state
+    // into a snapshot when a frame is due; snapshots not shown yet are replaced by newer ones
+    private static final int FRAME_RATE = Math.max(1, Integer.getInteger("simulator.gui.fps", 30));
+    private final AtomicReference<Snapshot> pendingSnapshot = new AtomicReference<>();
+    private volatile boolean frameDue = true;
+
     /**
      * FrontPanel constructor to initialize every part of the machine, most of which
      * is added to the panels and displayed to the user.
@@ -43,17 +75,28 @@ public class GUI {
         mainPanel = new JPanel(new GridBagLayout());
 
         inputerSwitches = new InputSwitches();
-        memory = new Memory();
-        cpu = new CPU(mainPanel, memory, inputerSwitches);
+        machine = new Machine();
+        cpu = machine.getCpu();
+        memory = machine.getMemory();
 
+        addRegisters();
+        addRunHalt();
+        addInternalRegisters();
+        addIODevices();
+        addCurrentInstructionDisplay();
+        addConditionCodeBits();
         addIPL();
         addListeners();
+        machine.setObserver(this);
+        machine.setKeyboard(keyboard);
         resetCPUandInput();
 
         mainFrame.setLayout(new BoxLayout(mainFrame.getContentPane(), BoxLayout.Y_AXIS));
         mainFrame.add(inputerSwitches.getPanel());
         mainFrame.add(mainPanel);
         mainFrame.pack();
+
+        new Timer(1000 / FRAME_RATE, e -> frameDue = true).start();
     }
 
     public void startMachine() {
@@ -67,6 +110,209 @@ public class GUI {
     private void resetCPUandInput() {
         cpu.reset();
         inputerSwitches.reset();
+        refreshDisplays();
+    }
+
+    /**
+     * Copies the state of the machine onto the front panel. Only call this on the EDT while the machine isn't running
+     */
+    private void refreshDisplays() {
+        showSnapshot(new Snapshot());
+    }
+
+    /**
+     * The values shown on the front panel, copied from the machine by the thread running it
+     */
+    private class Snapshot {
+        final int[] registers = new int[registerDisplays.size()];
+        final int condCodes = cpu.getAlu().getCcBits();
+        final int iar = cpu.getIar().getValue();
+        final int irr = cpu.getIrr().getValue();
+        final int rs1 = cpu.getRs1().getValue();
+        final int ir = cpu.getIr().getValue();
+        final Instruction currentInstruction = cpu.getCurrentInstruction();
+
+        Snapshot() {
+            for (int i = 0; i < registers.length; i++) {
+                registers[i] = registerDisplays.get(i).getRegister().getValue();
+            }
+        }
+    }
+
+    /**
+     * Hands a snapshot to the EDT. If the last one hasn't been shown yet it is replaced instead of queueing another
+     */
+    private void publishSnapshot() {
+        if (pendingSnapshot.getAndSet(new Snapshot()) == null) {
+            SwingUtilities.invokeLater(() -> {
+                Snapshot snapshot = pendingSnapshot.getAndSet(null);
+                if (snapshot != null) {
+                    // set the switches to the value of the instruction for display purposes
+                    inputerSwitches.setSwitchValue(Utilities.intToSignedBinary(snapshot.ir, 16));
+                    showSnapshot(snapshot);
+                }
+            });
+        }
+    }
+
+    private void showSnapshot(Snapshot snapshot) {
+        for (int i = 0; i < snapshot.registers.length; i++) {
+            registerDisplays.get(i).show(snapshot.registers[i]);
+        }
+        IARLabel.setText("" + snapshot.iar);
+        IRRLabel.setText("" + snapshot.irr);
+        RS1Label.setText("" + snapshot.rs1);
+
+        for (int i = 0; i < condCodeValues.length; i++) {
+            condCodeValues[i].setText("" + (snapshot.condCodes >>> i & 1));
+        }
+
+        if (snapshot.currentInstruction == null) {
+            currentInstructionDisplay.setText("Current Instruction: N/A");
+        } else {
+            currentInstructionDisplay.setText("Current Instruction: " + snapshot.currentInstruction);
+        }
+    }
+
+    /**
+     * Creates a display for the register and adds it to the front panel
+     */
+    private RegisterDisplay addRegister(Register register, int x, int y, boolean loadable, int anchor) {
+        RegisterDisplay display = new RegisterDisplay(register, inputerSwitches);
+        registerDisplays.add(display);
+
+        Utilities.addComponent(display.getLabel(), mainPanel, x, y, 1);
+        Utilities.addComponent(display.getTextField(), mainPanel, x + 1, y, 1, anchor);
+        if (loadable) {
+            Utilities.addComponent(display.getLoad(), mainPanel, x + 2, y, 1);
+        }
+        return display;
+    }
+
+    private void addRegisters() {
+        // GPR -> GUI
+        addRegister(cpu.getGpr0(), 0, 0, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getGpr1(), 0, 1, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getGpr2(), 0, 2, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getGpr3(), 0, 3, true, GridBagConstraints.CENTER);
+
+        // IX -> GUI
+        addRegister(cpu.getIx1(), 0, 6, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getIx2(), 0, 7, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getIx3(), 0, 8, true, GridBagConstraints.CENTER);
+
+        // FLOPR -> GUI
+        addRegister(cpu.getFr0(), 0, 9, true, GridBagConstraints.CENTER);
+        addRegister(cpu.getFr1(), 0, 10, true, GridBagConstraints.CENTER);
+
+        // PC, MAR, MBR, IR, MFR -> GUI
+        addRegister(cpu.getPc(), 6, 0, true, GridBagConstraints.LINE_END);
+        addRegister(cpu.getMar(), 6, 1, true, GridBagConstraints.LINE_END);
+        addRegister(cpu.getMarMem(), 9, 1, false, GridBagConstraints.LINE_START);
+        addRegister(cpu.getMbr(), 6, 2, true, GridBagConstraints.LINE_END);
+        addRegister(cpu.getIr(), 6, 3, false, GridBagConstraints.LINE_END);
+        addRegister(cpu.getMfr(), 6, 4, false, GridBagConstraints.LINE_END);
+    }
+
+    private void addInternalRegisters() {
+        addRegister(cpu.getIrr(), 9, 3, false, GridBagConstraints.CENTER);
+        IRRLabel = new JLabel("0");
+        IRRLabel.setPreferredSize(new Dimension(30, 10));
+        Utilities.addComponent(IRRLabel, mainPanel, 11, 3, 1);
+
+        addRegister(cpu.getIar(), 9, 2, false, GridBagConstraints.CENTER);
+        IARLabel = new JLabel("0");
+        Utilities.addComponent(IARLabel, mainPanel, 11, 2, 1);
+
+        addRegister(cpu.getRs1(), 9, 0, false, GridBagConstraints.LINE_END);
+        RS1Label = new JLabel("0");
+        Utilities.addComponent(RS1Label, mainPanel, 11, 0, 1);
+    }
+
+    /**
+     * Run, Step, Halt Buttons
+     */
+    private void addRunHalt() {
+        run = new JButton("RUN");
+        singleStep = new JButton("STEP");
+        halt = new JToggleButton("HALT");
+
+        Utilities.addComponent(singleStep, mainPanel, 1, 11, 1);
+        Utilities.addComponent(run, mainPanel, 2, 11, 1);
+        Utilities.addComponent(halt, mainPanel, 3, 11, 1);
+    }
+
+    /**
+     * Adds the IO devices (printer, keyboard) to the front panel
+     */
+    private void addIODevices() {
+        JLabel printerLabel = new JLabel("Console Printer");
+        DevConsole = new JTextArea(20, 20);
+        JScrollPane scroll = new JScrollPane(DevConsole);
+        DevConsole.setEditable(false);
+        DevConsole.setLineWrap(true);
+
+        Utilities.addComponent(printerLabel, mainPanel, 6, 6, 3, GridBagConstraints.CENTER);
+        Utilities.addComponent(scroll, mainPanel, 6, 7, 3, 5, GridBagConstraints.CENTER);
+
+        JLabel keyboardLabel = new JLabel("Last Keyboard Value");
+        InputText = new JTextField("", 10);
+        keyboardLabel.setHorizontalAlignment(JTextField.RIGHT);
+        InputText.setEditable(false);
+
+        Utilities.addComponent(keyboardLabel, mainPanel, 10, 9, 2, GridBagConstraints.CENTER);
+        Utilities.addComponent(InputText, mainPanel, 10, 10, 3, GridBagConstraints.CENTER);
+
+        // Lines typed here (or queued from a file) wait for IN; the program never stops for a dialog
+        keyboardText = new JTextField("", 10);
+        keyboardText.setToolTipText("Keyboard: type a character or number and press Enter");
+        keysFileButton = new JButton("KEYS FILE");
+        keysFileButton.setToolTipText("Queue every line of a file as keyboard input");
+
+        Utilities.addComponent(keyboardText, mainPanel, 10, 11, 2, GridBagConstraints.CENTER);
+        Utilities.addComponent(keysFileButton, mainPanel, 12, 11, 1);
+    }
+
+    /**
+     * Queues every line of a file as keyboard input, to replay a recorded session
+     */
+    private void queueKeysFile() {
+        if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        try {
+            List<String> lines = Files.readAllLines(file.toPath());
+            keyboard.typeAll(lines);
+            keyboardText.setBackground(Color.white);
+            DevConsole.append("\nQueued " + lines.size() + " lines of keyboard input from " + file.getName() + "\n");
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(mainFrame, "Failed to read " + file.getName() + ": " + e.getMessage(),
+                    "Error", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    private void addCurrentInstructionDisplay() {
+        currentInstructionDisplay = new JLabel("Instruction: N/A");
+
+        Utilities.addComponent(currentInstructionDisplay, mainPanel, 10, 12, 2, GridBagConstraints.LINE_START);
+    }
+
+    /**
+     * Adds the condition code bits to the front panel
+     */
+    private void addConditionCodeBits() {
+        JLabel[] condCodeLabels = new JLabel[4];
+        condCodeLabels[0] = new JLabel("0 - OverFlow");
+        condCodeLabels[1] = new JLabel("1 - UnderFlow");
+        condCodeLabels[2] = new JLabel("2 - Divide by Zero");
+        condCodeLabels[3] = new JLabel("3 - EqualOrNot");
+
+        for (int i = 0; i < condCodeValues.length; i++) {
+            condCodeValues[i] = new JLabel("0");
+            Utilities.addComponent(condCodeLabels[i], mainPanel, 10, 4 + i, 1, GridBagConstraints.LINE_START);
+            Utilities.addComponent(condCodeValues[i], mainPanel, 11, 4 + i, 1);
+        }
     }
 
     /**
@@ -80,6 +326,23 @@ public class GUI {
         IPLButton.setBackground(Color.darkGray);
 
         Utilities.addComponent(IPLButton, mainPanel, 0, 11, 1);
+
+        // Puts the machine back the way it was right after the IPL, to run the program again
+        reloadButton = new JButton("RELOAD");
+        Utilities.addComponent(reloadButton, mainPanel, 4, 11, 1);
+    }
+
+    /**
+     * Restores the machine to where it was when the last IPL finished (see Machine.reload)
+     */
+    private void reload() {
+        if (machine.reload()) {
+            refreshDisplays();
+            DevConsole.append("\nProgram reloaded. Press Run or Single Step to execute it again.\n");
+        } else {
+            JOptionPane.showMessageDialog(mainFrame, "Load a program with the IPL button first.", "Error",
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
     }
 
     /**
@@ -93,57 +356,26 @@ public class GUI {
      */
     private void initialProgramLoad() {
         try {
-            String s;
             int returnVal = fileChooser.showOpenDialog(mainFrame);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
-                memory.setRunningUserProgram(true);
-
-                // Reset Machine to load user program
-                resetCPUandInput();
+                inputerSwitches.reset();
 
                 File file = fileChooser.getSelectedFile();
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                if (file.getName().equalsIgnoreCase("testing.txt")) {
-                    while ((s = reader.readLine()) != null) {
-                        String[] line = s.split("\\s+");
-                        int new_location = Integer.parseInt(line[0], 2);
-                        int new_value = Integer.parseInt(line[1], 2);
-                        System.out.println(new_value + " inserted into memory location " + new_location);
-                        memory.insert(new_value, new_location);
-                    }
-                    cpu.displayRaw(true); // Displays inpput values
-                    reader.close();
-                }else {
-                    while ((s = reader.readLine()) != null) {
-                        String[] line = s.split("\\s+");
-                        int new_location = memory.hexToDec(line[0]);
-                        int new_value = memory.hexToDec(line[1]);
-                        System.out.println(new_value + " inserted into memory location " + new_location);
-                        memory.insert(new_value, new_location);
-                    }
-                    reader.close();
-                }
+                machine.initialProgramLoad(file);
+                refreshDisplays();
 
-                
-                System.out.println(memory.getMemoryString());
                 String success = "IPL file loaded successfully. Press Run or Single Step to execute the program.";
                 JOptionPane.showMessageDialog(mainFrame, success, "Success", JOptionPane.INFORMATION_MESSAGE);
 
                 // program2 specific memory loading
-                if (file.getName().equalsIgnoreCase("program2.txt")) {
+                if (Machine.needsParagraph(file)) {
                     loadParagraph();
-                    cpu.displayRaw(false);
-                } else if (file.getName().equalsIgnoreCase("program1.txt")) {
-                    cpu.displayRaw(true);
                 }
-
-                memory.setRunningUserProgram(false);
             }
         } catch (Exception e) {
             String error = "There was an error loading the IPL file";
             JOptionPane.showMessageDialog(mainFrame, error, "Error", JOptionPane.INFORMATION_MESSAGE);
             System.out.println(error + ": " + e.getMessage());
-            memory.setRunningUserProgram(false);
         }
     }
 
@@ -153,31 +385,11 @@ public class GUI {
      * Used for program2.txt
      */
     private void loadParagraph() {
-        System.out.println("Started Loading paragraph");
         try {
             int returnVal = fileChooser.showOpenDialog(mainFrame);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
-                File file = fileChooser.getSelectedFile();
+                machine.loadParagraph(fileChooser.getSelectedFile());
 
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
-    
-                int location = Common.PROGRAM2_PARAGRAPH_INDEX;
-                while ((line = reader.readLine()) != null) {
-                    String[] sentence = line.split("");
-                    for (String c : sentence) {
-                        memory.insert(c.charAt(0), location);
-                        location++;
-                    }
-                    // Enter at the end of each line
-                    memory.insert(13, location);
-                    location++;
-                }
-                reader.close();
-                // EOT to indicate end of paragraph
-                memory.insert(4, location);
-                System.out.println("Loaded paragraph into memory");
-    
                 String success = "6 sentence paragraph loaded into memory location 1024 (for program 2)";
                 JOptionPane.showMessageDialog(mainFrame, success, "Success", JOptionPane.INFORMATION_MESSAGE);
             } else {
@@ -194,5 +406,85 @@ public class GUI {
     private void addListeners() {
         // Load new program
         IPLButton.addActionListener(ae -> initialProgramLoad());
+        reloadButton.addActionListener(ae -> reload());
+
+        // Enter queues the line for IN
+        keyboardText.addActionListener(ae -> {
+            keyboard.type(keyboardText.getText());
+            keyboardText.setText("");
+            keyboardText.setBackground(Color.white);
+        });
+        keysFileButton.addActionListener(ae -> queueKeysFile());
+
+        // Start the CPU if it wasn't running; otherwise un-pause the machine
+        run.addActionListener(ae -> cpu.run());
+
+        halt.addItemListener(e -> {
+            // If the checkbox was checked, halt the execution
+            if (e.getStateChange() == ItemEvent.SELECTED) {
+                cpu.pause();
+                if (Trace.info(Trace.MEMORY)) {
+                    Trace.info(Trace.MEMORY, memory.getMemoryString());
+                }
+            } else {
+                // otherwise, un-halt the machine; don't resume execution though --> lets user decide next action
+                cpu.setHalted(false);
+            }
+        });
+
+        // run one instruction cycle
+        singleStep.addActionListener(e -> cpu.step());
+    }
+
+    /* MACHINE OBSERVER */
+
+    @Override
+    public void cycleCompleted(CPU cpu) {
+        // Single step shows every cycle; a running machine only when the frame timer says so
+        if (frameDue || !cpu.getRunController().isRunning()) {
+            frameDue = false;
+            publishSnapshot();
+        }
+    }
+
+    @Override
+    public void haltChanged(boolean halted) {
+        publishSnapshot();
+        // Enable/disable buttons accordingly
+        SwingUtilities.invokeLater(() -> {
+            halt.setSelected(halted);     run.setEnabled(!halted);     singleStep.setEnabled(!halted);
+        });
+    }
+
+    @Override
+    public void programTerminated() {
+        publishSnapshot();
+        SwingUtilities.invokeLater(() -> DevConsole.append("\nProgram finished.\nUse the IPL or RELOAD button.\n"));
+    }
+
+    @Override
+    public void print(String text) {
+        SwingUtilities.invokeLater(() -> DevConsole.append(text));
+    }
+
+    @Override
+    public void keyboardWaiting(String prompt) {
+        // show the machine as it is when it asks for input
+        publishSnapshot();
+        SwingUtilities.invokeLater(() -> {
+            keyboardText.setBackground(Color.yellow);
+            keyboardText.setToolTipText("Keyboard: " + prompt + " and press Enter");
+            keyboardText.requestFocusInWindow();
+        });
+    }
+
+    @Override
+    public void keyboardRejected(String message) {
+        SwingUtilities.invokeLater(() -> DevConsole.append("\n" + message + "\n"));
+    }
+
+    @Override
+    public void keyboardAccepted(String shown) {
+        SwingUtilities.invokeLater(() -> InputText.setText(shown));
     }
 }
@@ -0,0 +1,63 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Register Display - The front panel widgets (label, bits and load button) for a single register
+ */
+
+package GUI;
+
+import javax.swing.*;
+
+import CPU.Register;
+import Common.Utilities;
+
+public class RegisterDisplay {
+
+    private final Register register;
+
+    // GUI Components
+    private final JLabel label;
+    private final JTextField textField;
+    private final JButton load;
+
+    public RegisterDisplay(Register register, InputSwitches switches) {
+        this.register = register;
+
+        label = new JLabel(register.getName());
+        textField = new JTextField(register.getLength());
+        textField.setName(register.getName());
+        textField.setEditable(false);
+        textField.setHorizontalAlignment(JTextField.RIGHT);
+        load = new JButton("Load");
+
+        // Load button stores the value in the switches into the register
+        load.addActionListener(ae -> {
+            register.loadBinary(switches.getValue());
+            refresh();
+        });
+        refresh();
+    }
+
+    /**
+     * Copies the current register value onto the display
+     */
+    public void refresh() {
+        show(register.getValue());
+    }
+
+    /**
+     * Shows a value of the register taken earlier (see GUI.Snapshot)
+     * @param value -> the register value to show
+     */
+    public void show(int value) {
+        textField.setText(Utilities.intToSignedBinary(value, register.getLength()));
+    }
+
+    public Register getRegister() { return register; }
+
+    public JLabel getLabel() { return label; }
+
+    public JTextField getTextField() { return textField; }
+
+    public JButton getLoad() { return load; }
+}
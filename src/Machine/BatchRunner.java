@@ -0,0 +1,505 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Batch Runner - Runs many programs headless at once, each on its own machine, and checks their console output
+ *
+ * Usage: BatchRunner <manifest> [--threads N] [--max-instructions N] [--timeout MILLISECONDS]
+ *                    [--dispatch enum|switch|block|compiled] [--fuse] [--format junit|json] [--output FILE]
+ *
+ * The manifest has one run per line: a name, then key=value fields separated by spaces. Blank lines and lines
+ * starting with # are skipped, and paths are relative to the manifest's directory.
+ * * program: the program file, text or image (see Machine.initialProgramLoad); required
+ * * paragraph: a paragraph to load after the program (see Machine.loadParagraph)
+ * * input: keyboard input, one line per IN (see Keyboard); without it IN from the keyboard ends the program
+ * * cards: a deck for the card reader (see CardReader)
+ * * expect: the console output the run must print, exactly (line endings aside)
+ * * max-instructions, timeout: this run's limits, instead of the ones on the command line
+ * For example:
+ *     program1-sorted  program=programs/program1.txt input=tests/sorted.txt expect=tests/sorted.out
+ *     program2-the     program=programs/program2.img paragraph=programs/paragraph.txt input=tests/the.txt
+ *
+ * Every run boots a new machine, so runs share nothing and can run on every core (a fork-join pool, one thread per
+ * core by default). Each machine has memory of its own, as -Dsimulator.memory asks (see MemoryBackend), except that a
+ * named file (mapped:FILE) would be one memory for every run: each run maps a temporary file instead. A run passes if it halts within its limits and prints what it is expected to. The results go to
+ * stdout, or to --output, as a JUnit XML test suite or as JSON. The exit status is 0 if every run passed.
+ */
+
+package Machine;
+
+import CPU.CardReader;
+import CPU.DispatchMode;
+import CPU.Keyboard;
+import CPU.MachineObserver;
+import Memory.Memory;
+import Memory.MemoryBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class BatchRunner {
+
+    private static final String USAGE = "Usage: BatchRunner <manifest> [--threads N] [--max-instructions N] "
+            + "[--timeout MILLISECONDS] [--dispatch enum|switch|block|compiled] [--fuse] [--format junit|json] "
+            + "[--output FILE]";
+
+    // Instructions run between checks of the timeout
+    private static final int SLICE = 1 << 16;
+
+    /**
+     * How a run ended
+     */
+    public enum Status {
+        PASSED,
+        // halted, but printed something other than expected
+        FAILED,
+        // couldn't be loaded or threw
+        ERROR,
+        TIMED_OUT,
+        INSTRUCTION_LIMIT
+    }
+
+    /**
+     * One line of the manifest
+     */
+    public static final class Run {
+        final String name;
+        File program;
+        File paragraph;
+        Path input;
+        Path cards;
+        Path expect;
+        long maxInstructions;
+        long timeoutMillis;
+
+        Run(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+    }
+
+    /**
+     * What a run did
+     */
+    public static final class Result {
+        final Run run;
+        final Status status;
+        final long instructions;
+        final long elapsedNanos;
+        final String output;
+        final String message;
+
+        Result(Run run, Status status, long instructions, long elapsedNanos, String output, String message) {
+            this.run = run;
+            this.status = status;
+            this.instructions = instructions;
+            this.elapsedNanos = elapsedNanos;
+            this.output = output;
+            this.message = message;
+        }
+
+        public Run getRun() { return run; }
+
+        public Status getStatus() { return status; }
+
+        public long getInstructions() { return instructions; }
+
+        public String getOutput() { return output; }
+
+        public String getMessage() { return message; }
+    }
+
+    private final DispatchMode dispatchMode;
+    private final boolean fuse;
+
+    // Every run's memory: -Dsimulator.memory and -Dsimulator.memory.size, with mapped:FILE made private (see above)
+    private final String memory;
+    private final int memorySize;
+
+    /**
+     * @param dispatchMode -> how every machine runs instructions (see DispatchMode)
+     * @param fuse -> run superinstructions (see CPU.setFusion)
+     */
+    public BatchRunner(DispatchMode dispatchMode, boolean fuse) {
+        this.dispatchMode = dispatchMode;
+        this.fuse = fuse;
+        String spec = System.getProperty("simulator.memory", "heap").trim();
+        memory = spec.toLowerCase(Locale.ROOT).startsWith("mapped") ? "mapped" : spec;
+        memorySize = Integer.getInteger("simulator.memory.size", MemoryBackend.DEFAULT_SIZE);
+    }
+
+    public static void main(String[] args) {
+        Path manifest = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxInstructions = Long.MAX_VALUE;
+        long timeoutMillis = 0;
+        DispatchMode dispatchMode = DispatchMode.ENUM;
+        boolean fuse = false;
+        String format = "junit";
+        Path output = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--max-instructions") && i + 1 < args.length) {
+                    maxInstructions = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--timeout") && i + 1 < args.length) {
+                    timeoutMillis = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--dispatch") && i + 1 < args.length) {
+                    dispatchMode = DispatchMode.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                } else if (args[i].equals("--fuse")) {
+                    fuse = true;
+                } else if (args[i].equals("--format") && i + 1 < args.length) {
+                    format = args[++i];
+                } else if (args[i].equals("--output") && i + 1 < args.length) {
+                    output = Path.of(args[++i]);
+                } else if (manifest == null) {
+                    manifest = Path.of(args[i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            manifest = null;
+        }
+        if (manifest == null || threads < 1 || !(format.equals("junit") || format.equals("json"))) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<Run> runs;
+        try {
+            runs = readManifest(manifest, maxInstructions, timeoutMillis);
+        } catch (IOException e) {
+            System.err.println("There was an error reading the manifest: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchRunner(dispatchMode, fuse).runAll(runs, threads);
+        long elapsed = System.nanoTime() - start;
+
+        String suite = manifest.getFileName().toString();
+        String report = format.equals("json") ? toJson(suite, results, elapsed) : toJUnitXml(suite, results, elapsed);
+        try {
+            if (output == null) {
+                System.out.print(report);
+            } else {
+                Files.writeString(output, report, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            System.err.println("There was an error writing the results: " + e.getMessage());
+            System.exit(1);
+        }
+
+        long passed = results.stream().filter(result -> result.status == Status.PASSED).count();
+        System.err.printf("%d of %d runs passed in %.1f ms (%d threads)%n", passed, results.size(), elapsed / 1e6,
+                threads);
+        System.exit(passed == results.size() ? 0 : 1);
+    }
+
+    /**
+     * Reads a manifest (see the class comment)
+     * @param manifest -> the manifest file
+     * @param maxInstructions -> the instruction limit of runs that don't set one
+     * @param timeoutMillis -> the timeout of runs that don't set one, 0 for none
+     * @return -> the runs, in order
+     * @throws IOException -> if the manifest can't be read, or a line isn't a run
+     */
+    public static List<Run> readManifest(Path manifest, long maxInstructions, long timeoutMillis) throws IOException {
+        Path directory = manifest.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(manifest);
+        List<Run> runs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            Run run = new Run(fields[0]);
+            run.maxInstructions = maxInstructions;
+            run.timeoutMillis = timeoutMillis;
+            try {
+                for (int f = 1; f < fields.length; f++) {
+                    int equals = fields[f].indexOf('=');
+                    if (equals < 0) {
+                        throw new IllegalArgumentException("not key=value: " + fields[f]);
+                    }
+                    String key = fields[f].substring(0, equals);
+                    String value = fields[f].substring(equals + 1);
+                    switch (key) {
+                        case "program": run.program = directory.resolve(value).toFile(); break;
+                        case "paragraph": run.paragraph = directory.resolve(value).toFile(); break;
+                        case "input": run.input = directory.resolve(value); break;
+                        case "cards": run.cards = directory.resolve(value); break;
+                        case "expect": run.expect = directory.resolve(value); break;
+                        case "max-instructions": run.maxInstructions = Long.parseLong(value); break;
+                        case "timeout": run.timeoutMillis = Long.parseLong(value); break;
+                        default: throw new IllegalArgumentException("unknown field " + key);
+                    }
+                }
+                if (run.program == null) {
+                    throw new IllegalArgumentException("no program");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(manifest + " line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    /**
+     * Runs every run on its own machine, on a pool of threads
+     * @param runs -> the runs
+     * @param threads -> how many run at once
+     * @return -> the results, in the order of the runs
+     */
+    public List<Result> runAll(List<Run> runs, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>();
+            for (Run run : runs) {
+                tasks.add(() -> run(run));
+            }
+            List<Result> results = new ArrayList<>();
+            List<Future<Result>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(runs.get(i), Status.ERROR, 0, 0, "", String.valueOf(e.getCause())));
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while running the batch", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Boots a new machine, loads the run's program, input and deck, and runs it on the calling thread until it halts
+     * or runs out of instructions or time
+     * @param run -> the run
+     * @return -> what it did
+     */
+    public Result run(Run run) {
+        long start = System.nanoTime();
+        Console console = new Console();
+        Machine machine = new Machine(new Memory(MemoryBackend.create(memory, memorySize)));
+        machine.setObserver(console);
+        machine.getCpu().setDispatchMode(dispatchMode);
+        machine.getCpu().setFusion(fuse);
+        long executed = 0;
+        try {
+            Keyboard keyboard = new Keyboard();
+            if (run.input != null) {
+                keyboard.typeAll(Files.readAllLines(run.input));
+            }
+            keyboard.close();
+            machine.setKeyboard(keyboard);
+            machine.boot();
+            machine.initialProgramLoad(run.program);
+            if (run.paragraph != null) {
+                machine.loadParagraph(run.paragraph);
+            }
+            if (run.cards != null) {
+                machine.attachCardReader(run.cards.toString());
+            }
+
+            // The timeout is checked between slices; a run that stops early (HLT, end of memory) is paused
+            long deadline = run.timeoutMillis > 0 ? start + run.timeoutMillis * 1_000_000 : Long.MAX_VALUE;
+            while (executed < run.maxInstructions) {
+                executed += machine.runToHalt(Math.min(SLICE, run.maxInstructions - executed));
+                if (machine.getCpu().isPaused()) {
+                    break;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    return new Result(run, Status.TIMED_OUT, executed, System.nanoTime() - start, console.text(),
+                            "still running after " + run.timeoutMillis + " ms");
+                }
+            }
+            if (!machine.getCpu().isPaused()) {
+                return new Result(run, Status.INSTRUCTION_LIMIT, executed, System.nanoTime() - start, console.text(),
+                        "still running after " + executed + " instructions");
+            }
+
+            String output = console.text();
+            if (run.expect != null) {
+                String expected = normalize(Files.readString(run.expect));
+                if (!normalize(output).equals(expected)) {
+                    return new Result(run, Status.FAILED, executed, System.nanoTime() - start, output,
+                            "output differs from " + run.expect.getFileName() + " at character "
+                                    + firstDifference(normalize(output), expected));
+                }
+            }
+            return new Result(run, Status.PASSED, executed, System.nanoTime() - start, output, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(run, Status.ERROR, executed, System.nanoTime() - start, console.text(), e.toString());
+        } finally {
+            CardReader cards = machine.getCpu().getCardReader();
+            if (cards != null) {
+                try {
+                    cards.close();
+                } catch (IOException e) {
+                    // the run is over either way
+                }
+            }
+            machine.close();
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.replace("\r\n", "\n");
+    }
+
+    private static int firstDifference(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /* REPORTS */
+
+    /**
+     * @return -> the results as a JUnit XML test suite: FAILED, TIMED_OUT and INSTRUCTION_LIMIT runs are failures,
+     *            ERROR runs are errors, and every run's console output is its system-out
+     */
+    public static String toJUnitXml(String suite, List<Result> results, long elapsedNanos) {
+        long failures = results.stream().filter(r -> r.status != Status.PASSED && r.status != Status.ERROR).count();
+        long errors = results.stream().filter(r -> r.status == Status.ERROR).count();
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append(String.format(Locale.ROOT, "<testsuite name=\"%s\" tests=\"%d\" failures=\"%d\" errors=\"%d\" "
+                + "skipped=\"0\" time=\"%.3f\">%n", xml(suite), results.size(), failures, errors, elapsedNanos / 1e9));
+        for (Result result : results) {
+            xml.append(String.format(Locale.ROOT, "  <testcase name=\"%s\" classname=\"%s\" time=\"%.3f\">%n",
+                    xml(result.run.name), xml(result.run.program.getName()), result.elapsedNanos / 1e9));
+            if (result.status == Status.ERROR) {
+                xml.append("    <error message=\"").append(xml(result.message)).append("\"/>\n");
+            } else if (result.status != Status.PASSED) {
+                xml.append("    <failure type=\"").append(result.status).append("\" message=\"")
+                        .append(xml(result.message)).append("\"/>\n");
+            }
+            xml.append("    <properties><property name=\"instructions\" value=\"").append(result.instructions)
+                    .append("\"/></properties>\n");
+            xml.append("    <system-out>").append(xml(result.output)).append("</system-out>\n");
+            xml.append("  </testcase>\n");
+        }
+        return xml.append("</testsuite>\n").toString();
+    }
+
+    /**
+     * @return -> the results as a JSON object with a summary and one entry per run
+     */
+    public static String toJson(String suite, List<Result> results, long elapsedNanos) {
+        Map<Status, Integer> counts = new LinkedHashMap<>();
+        for (Status status : Status.values()) {
+            counts.put(status, 0);
+        }
+        for (Result result : results) {
+            counts.merge(result.status, 1, Integer::sum);
+        }
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"suite\": ").append(json(suite)).append(",\n");
+        json.append(String.format(Locale.ROOT, "  \"time\": %.3f,%n", elapsedNanos / 1e9));
+        json.append("  \"summary\": {");
+        String separator = "";
+        for (Map.Entry<Status, Integer> count : counts.entrySet()) {
+            json.append(separator).append(json(count.getKey().name().toLowerCase(Locale.ROOT)))
+                    .append(": ").append(count.getValue());
+            separator = ", ";
+        }
+        json.append("},\n  \"runs\": [");
+        separator = "\n";
+        for (Result result : results) {
+            json.append(separator).append("    {\"name\": ").append(json(result.run.name))
+                    .append(", \"program\": ").append(json(result.run.program.getPath()))
+                    .append(", \"status\": ").append(json(result.status.name()))
+                    .append(", \"instructions\": ").append(result.instructions)
+                    .append(String.format(Locale.ROOT, ", \"time\": %.3f", result.elapsedNanos / 1e9))
+                    .append(", \"message\": ").append(result.message == null ? "null" : json(result.message))
+                    .append(", \"output\": ").append(json(result.output)).append("}");
+            separator = ",\n";
+        }
+        return json.append(results.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    private static String xml(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default:
+                    // XML 1.0 has no way to write most control characters, even escaped
+                    if (c < 0x20 && c != '\n' && c != '\r' && c != '\t') {
+                        escaped.append('?');
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String json(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': escaped.append("\\\""); break;
+                case '\\': escaped.append("\\\\"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                case '\t': escaped.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+
+    /**
+     * The console printer of one run: keeps what the program prints
+     */
+    private static final class Console implements MachineObserver {
+        private final StringBuilder printed = new StringBuilder();
+
+        @Override
+        public void print(String text) {
+            printed.append(text);
+        }
+
+        String text() {
+            return printed.toString();
+        }
+    }
+}
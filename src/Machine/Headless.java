@@ -0,0 +1,340 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Headless - Runs a program from the command line without loading any GUI classes
+ * * The console printer writes to stdout
+ * * The keyboard reads lines from stdin, through a keyboard queue (see Keyboard) fed by its own thread
+ *
+ * Usage: Headless <program file> [paragraph file] [--max-instructions N] [--dispatch enum|switch|block|compiled]
+ *                 [--hierarchy SPEC]... [--memory heap|mapped[:FILE]] [--memory-size N]
+ *                 [--load-image FILE] [--save-image FILE] [--input FILE]... [--card-reader FILE|-] [--fuse]
+ *                 [--cores N] [--lock-step]
+ *
+ * --memory and --memory-size pick where memory is kept and how many words it has (see MemoryBackend). An image given
+ * with --load-image replaces memory after the boot program runs, before the program is loaded; --save-image writes
+ * memory out once the program halts.
+ *
+ * With --input the keyboard reads from the files instead of stdin, one run per file. The program is loaded once and
+ * every run starts from a checkpoint of the loaded machine (see Checkpoint).
+ *
+ * --fuse runs the superinstructions in blocks as single steps (see Superinstruction; block and compiled dispatch
+ * only) and prints how many instructions ran fused, and the pairs of instructions that ran most often.
+ *
+ * --card-reader attaches a deck for IN from the card reader (see CardReader); "-" reads it from stdin. Every run
+ * reads the file from the start.
+ *
+ * --cores runs the program on a machine of N cores sharing memory (see MultiCoreMachine), each on its own thread, and
+ * prints each core's caches, the shared levels and the coherence bus. With --lock-step the cores take turns, one
+ * instruction each, so every run gives the same result. --input can't be used with more than one core.
+ *
+ * With more than one --hierarchy (see MemoryHierarchy) the program is run once per hierarchy with the same input,
+ * and the cache statistics and cycles of each are printed so they can be compared. Only the first run prints output.
+ */
+
+package Machine;
+
+import CPU.Checkpoint;
+import CPU.DispatchMode;
+import CPU.Keyboard;
+import CPU.MachineObserver;
+import Memory.Memory;
+import Memory.MemoryBackend;
+import Memory.MemoryHierarchy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class Headless implements MachineObserver {
+
+    // Pairs of instructions listed with --fuse
+    private static final int PROFILED_PAIRS = 8;
+
+    private static final String USAGE = "Usage: Headless <program file> [paragraph file] [--max-instructions N] "
+            + "[--dispatch enum|switch|block|compiled] [--hierarchy SPEC]... [--memory heap|mapped[:FILE]] "
+            + "[--memory-size N] [--load-image FILE] [--save-image FILE] [--input FILE]... [--card-reader FILE|-] "
+            + "[--fuse] [--cores N] [--lock-step]";
+
+    private final boolean quiet;
+
+    private Headless(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    public static void main(String[] args) {
+        File program = null;
+        File paragraph = null;
+        long maxInstructions = Long.MAX_VALUE;
+        DispatchMode dispatchMode = DispatchMode.ENUM;
+        List<String> hierarchies = new ArrayList<>();
+        Options options = new Options();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--max-instructions") && i + 1 < args.length) {
+                maxInstructions = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--dispatch") && i + 1 < args.length) {
+                dispatchMode = DispatchMode.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("--hierarchy") && i + 1 < args.length) {
+                hierarchies.add(args[++i]);
+            } else if (args[i].equals("--memory") && i + 1 < args.length) {
+                options.memory = args[++i];
+            } else if (args[i].equals("--memory-size") && i + 1 < args.length) {
+                options.memorySize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--load-image") && i + 1 < args.length) {
+                options.loadImage = Path.of(args[++i]);
+            } else if (args[i].equals("--save-image") && i + 1 < args.length) {
+                options.saveImage = Path.of(args[++i]);
+            } else if (args[i].equals("--input") && i + 1 < args.length) {
+                options.inputs.add(Path.of(args[++i]));
+            } else if (args[i].equals("--card-reader") && i + 1 < args.length) {
+                options.cardReader = args[++i];
+            } else if (args[i].equals("--fuse")) {
+                options.fuse = true;
+            } else if (args[i].equals("--cores") && i + 1 < args.length) {
+                options.cores = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lock-step")) {
+                options.lockStep = true;
+            } else if (program == null) {
+                program = new File(args[i]);
+            } else {
+                paragraph = new File(args[i]);
+            }
+        }
+        if (program == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (hierarchies.size() <= 1) {
+            Keyboard keyboard = new Keyboard();
+            if (options.inputs.isEmpty()) {
+                keyboard.feed(new InputStreamReader(System.in), "stdin");
+            }
+            run(program, paragraph, maxInstructions, dispatchMode, hierarchies.isEmpty() ? null : hierarchies.get(0),
+                    options, keyboard, new Headless(false));
+            return;
+        }
+
+        // Every run needs the same keyboard input
+        List<String> input = options.inputs.isEmpty()
+                ? new BufferedReader(new InputStreamReader(System.in)).lines().collect(Collectors.toList())
+                : List.of();
+        for (int i = 0; i < hierarchies.size(); i++) {
+            Keyboard keyboard = new Keyboard();
+            keyboard.typeAll(input);
+            keyboard.close();
+            run(program, paragraph, maxInstructions, dispatchMode, hierarchies.get(i), options, keyboard,
+                    new Headless(i > 0));
+        }
+    }
+
+    private static void run(File program, File paragraph, long maxInstructions, DispatchMode dispatchMode,
+                            String hierarchy, Options options, Keyboard keyboard, Headless observer) {
+        if (options.cores > 1) {
+            runCores(program, paragraph, maxInstructions, dispatchMode, hierarchy, options, keyboard, observer);
+            return;
+        }
+        Machine machine;
+        try {
+            machine = new Machine(new Memory(MemoryBackend.create(options.memory, options.memorySize)));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (hierarchy != null) {
+            machine.getMemory().setHierarchy(hierarchy);
+        }
+        machine.setObserver(observer);
+        machine.setKeyboard(keyboard);
+        machine.getCpu().setDispatchMode(dispatchMode);
+        machine.getCpu().setFusion(options.fuse);
+        machine.boot();
+        try {
+            if (options.loadImage != null) {
+                machine.getMemory().loadImage(options.loadImage);
+            }
+            machine.initialProgramLoad(program);
+            if (paragraph != null) {
+                machine.loadParagraph(paragraph);
+            }
+        } catch (IOException e) {
+            System.err.println("There was an error loading the IPL file: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (options.inputs.isEmpty()) {
+            attachCardReader(machine, options);
+            execute(machine, maxInstructions, options, observer.quiet);
+            machine.close();
+            return;
+        }
+        // Every input runs the program from the same loaded machine
+        Checkpoint loaded = machine.checkpoint();
+        for (Path input : options.inputs) {
+            try {
+                Keyboard lines = new Keyboard();
+                lines.typeAll(Files.readAllLines(input));
+                lines.close();
+                machine.setKeyboard(lines);
+                machine.restore(loaded);
+                attachCardReader(machine, options);
+                if (!observer.quiet) {
+                    System.err.println("Input " + input + ":");
+                }
+                execute(machine, maxInstructions, options, observer.quiet);
+            } catch (IOException e) {
+                System.err.println("There was an error reading the input file: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        machine.close();
+    }
+
+    /**
+     * run, on a machine of options.cores cores
+     */
+    private static void runCores(File program, File paragraph, long maxInstructions, DispatchMode dispatchMode,
+                                 String hierarchy, Options options, Keyboard keyboard, Headless observer) {
+        if (!options.inputs.isEmpty()) {
+            System.err.println("--input can't be used with --cores");
+            System.exit(2);
+        }
+        MultiCoreMachine machine;
+        try {
+            machine = new MultiCoreMachine(options.cores, MemoryBackend.create(options.memory, options.memorySize),
+                    hierarchy != null ? hierarchy : MemoryHierarchy.specFromSystemProperties());
+            machine.setDispatchMode(dispatchMode);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        machine.setObserver(observer);
+        machine.setKeyboard(keyboard);
+        machine.boot();
+        Memory memory = machine.getCore(0).getMemory();
+        try {
+            if (options.loadImage != null) {
+                memory.loadImage(options.loadImage);
+            }
+            machine.initialProgramLoad(program);
+            if (paragraph != null) {
+                machine.loadParagraph(paragraph);
+            }
+            if (options.cardReader != null) {
+                machine.attachCardReader(options.cardReader);
+            }
+        } catch (IOException e) {
+            System.err.println("There was an error loading the IPL file: " + e.getMessage());
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        long executed;
+        try {
+            executed = options.lockStep ? machine.runLockStep(maxInstructions, 1) : machine.run(maxInstructions);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            machine.close();
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.flush();
+        System.err.printf("Executed %d instructions on %d cores in %.1f ms (%.0f instructions/second)%n",
+                executed, options.cores, elapsed / 1e6, elapsed == 0 ? 0 : executed * 1e9 / elapsed);
+        System.err.println("Memory hierarchy " + memory.getHierarchy() + (options.lockStep ? ", lock step:" : ":"));
+        System.err.println(machine.getStatistics());
+
+        if (options.saveImage != null && !observer.quiet) {
+            try {
+                memory.saveImage(options.saveImage);
+            } catch (IOException e) {
+                System.err.println("There was an error saving the memory image: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        machine.close();
+    }
+
+    private static void attachCardReader(Machine machine, Options options) {
+        if (options.cardReader == null) {
+            return;
+        }
+        try {
+            machine.attachCardReader(options.cardReader);
+        } catch (IOException e) {
+            System.err.println("There was an error opening the card reader file: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void execute(Machine machine, long maxInstructions, Options options, boolean quiet) {
+        long start = System.nanoTime();
+        long executed = machine.runToHalt(maxInstructions);
+        long elapsed = System.nanoTime() - start;
+        System.out.flush();
+        System.err.printf("Executed %d instructions in %.1f ms (%.0f instructions/second)%n",
+                executed, elapsed / 1e6, elapsed == 0 ? 0 : executed * 1e9 / elapsed);
+        System.err.println("Memory hierarchy " + machine.getMemory().getHierarchy() + ":");
+        System.err.println(machine.getMemory().getHierarchy().getStatistics());
+        if (machine.getCpu().getBlockStatistics() != null) {
+            System.err.println(machine.getCpu().getBlockStatistics());
+        }
+        if (machine.getCpu().getPairProfile(PROFILED_PAIRS) != null) {
+            System.err.println(machine.getCpu().getPairProfile(PROFILED_PAIRS));
+        }
+
+        if (options.saveImage != null && !quiet) {
+            try {
+                machine.getMemory().saveImage(options.saveImage);
+            } catch (IOException e) {
+                System.err.println("There was an error saving the memory image: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Where memory is kept, the images to load and save, the keyboard input files, the card reader deck, fusion and
+     * the cores (see the class comment)
+     */
+    private static final class Options {
+        String memory = System.getProperty("simulator.memory", "heap");
+        int memorySize = Integer.getInteger("simulator.memory.size", MemoryBackend.DEFAULT_SIZE);
+        Path loadImage;
+        Path saveImage;
+        final List<Path> inputs = new ArrayList<>();
+        String cardReader;
+        boolean fuse;
+        int cores = 1;
+        boolean lockStep;
+    }
+
+    @Override
+    public void print(String text) {
+        if (!quiet) {
+            System.out.print(text);
+        }
+    }
+
+    @Override
+    public void keyboardRejected(String message) {
+        if (!quiet) {
+            System.err.println(message);
+        }
+    }
+
+    @Override
+    public void programTerminated() {
+        if (!quiet) {
+            System.err.println("Program finished.");
+        }
+    }
+}
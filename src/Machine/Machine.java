@@ -0,0 +1,243 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Machine Class puts the CPU and Memory together without any GUI
+ *
+ * The front panel (GUI) and the command line (Headless) both drive the simulator through this class
+ */
+
+package Machine;
+
+import CPU.CPU;
+import CPU.CardReader;
+import CPU.Checkpoint;
+import CPU.Keyboard;
+import CPU.MachineObserver;
+import Common.Common;
+import Common.Trace;
+import Memory.Memory;
+import Memory.MemoryFault;
+import Memory.ProgramImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+public class Machine implements AutoCloseable {
+
+    private final Memory memory;
+    private final CPU cpu;
+
+    // The machine as it was when the last program (and paragraph) finished loading, for reload
+    private Checkpoint loaded;
+
+    public Machine() {
+        this(new Memory());
+    }
+
+    /**
+     * @param memory -> the memory to run with (see MemoryBackend for the choices)
+     */
+    public Machine(Memory memory) {
+        this.memory = memory;
+        cpu = new CPU(memory);
+    }
+
+    /**
+     * Attaches an observer (front panel, console) to the machine
+     * @param observer -> the observer to notify
+     */
+    public void setObserver(MachineObserver observer) {
+        cpu.setObserver(observer);
+    }
+
+    /**
+     * Loads and runs the boot program
+     */
+    public void boot() {
+        cpu.boot();
+    }
+
+    /**
+     * Reads in values from an IPL file, that stores two hexadecimal numbers
+     * per line as follows:
+     * XXXX XXXX
+     * This can be translated to the full binary instruction and broken down to each component of an effective address
+     *
+     * The file can also be a binary program image (see ProgramImage), which is copied into memory in blocks;
+     * ProgramImageConverter makes one from a text file. 'testing.txt' holds binary numbers instead of hex.
+     *
+     * @param file -> the program file to load into user memory
+     * @throws IOException -> if the file can't be read or puts a word outside user memory
+     */
+    public void initialProgramLoad(File file) throws IOException {
+        ProgramImage image = readProgram(file);
+        memory.setRunningUserProgram(true);
+        try {
+            // Reset Machine to load user program
+            cpu.setEntryPoint(image.getEntry());
+            cpu.reset();
+
+            image.loadInto(memory);
+            if (Trace.info(Trace.MEMORY)) {
+                Trace.info(Trace.MEMORY, "Loaded " + image.getWordCount() + " words from " + file.getName());
+                Trace.info(Trace.MEMORY, memory.getMemoryString());
+            }
+
+            String name = programName(file);
+            if (name.equals("program2")) {
+                cpu.displayRaw(false);
+            } else if (name.equals("program1") || name.equals("testing")) {
+                cpu.displayRaw(true); // Displays inpput values
+            }
+        } catch (MemoryFault fault) {
+            throw new IOException("program word outside memory: " + fault.getMessage(), fault);
+        } finally {
+            memory.setRunningUserProgram(false);
+        }
+        loaded = cpu.checkpoint();
+    }
+
+    /**
+     * Reads a program file: a program image, or one of the text formats (see initialProgramLoad)
+     * @param file -> the program file
+     * @return -> the program
+     * @throws IOException -> if the file can't be read or isn't a program
+     */
+    public static ProgramImage readProgram(File file) throws IOException {
+        Path path = file.toPath();
+        if (ProgramImage.isImage(path)) {
+            return ProgramImage.read(path);
+        }
+        return ProgramImage.fromText(Files.readAllLines(path), isBinaryText(file), 0, 0);
+    }
+
+    /**
+     * @return -> true if the text file holds binary numbers instead of hex ('testing.txt')
+     */
+    static boolean isBinaryText(File file) {
+        return file.getName().equalsIgnoreCase("testing.txt");
+    }
+
+    /**
+     * The file name without its extension, in lower case: program1.txt and program1.img are both "program1"
+     */
+    private static String programName(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * program2 also needs a paragraph loaded into memory before it runs
+     * @param file -> the program file that was loaded
+     * @return -> true if a paragraph should be loaded with loadParagraph
+     */
+    public static boolean needsParagraph(File file) {
+        return programName(file).equals("program2");
+    }
+
+    /**
+     * Loads a paragraph of 6 sentences into memory location 1024 (1/2 of allocated memory)
+     *
+     * Used for program2.txt. The paragraph is read through a CardReader and written in blocks, each line followed by
+     * a carriage return (13) and the whole paragraph by an EOT (4).
+     *
+     * @param file -> the text file holding the paragraph
+     * @throws IOException -> if the file can't be read or the paragraph doesn't fit in user memory
+     */
+    public void loadParagraph(File file) throws IOException {
+        Trace.info(Trace.MEMORY, "Started Loading paragraph");
+        memory.setRunningUserProgram(true);
+        try (CardReader reader = CardReader.open(file.toPath())) {
+            int location = Common.PROGRAM2_PARAGRAPH_INDEX;
+            int room = memory.getLimit() - location;
+            reader.transfer(memory, location, room);
+            if (!reader.isEnded()) {
+                throw new IOException("paragraph doesn't fit in memory: more than " + room + " words");
+            }
+            Trace.info(Trace.MEMORY, "Loaded paragraph into memory");
+        } catch (MemoryFault fault) {
+            throw new IOException("paragraph doesn't fit in memory: " + fault.getMessage(), fault);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            memory.setRunningUserProgram(false);
+        }
+        loaded = cpu.checkpoint();
+    }
+
+    /**
+     * Attaches a keyboard queue, for IN from DEVID.KEYBOARD (see Keyboard)
+     * @param keyboard -> the queue, or null to ask the observer for every line again
+     */
+    public void setKeyboard(Keyboard keyboard) {
+        cpu.setKeyboard(keyboard);
+    }
+
+    /**
+     * Attaches a deck to the card reader, for IN from DEVID.CARD_READER (any deck attached before is closed)
+     * @param file -> a text file, or "-" for stdin
+     * @throws IOException -> if the file can't be opened
+     */
+    public void attachCardReader(String file) throws IOException {
+        CardReader reader = file.equals("-") ? CardReader.of(System.in, "stdin") : CardReader.open(Path.of(file));
+        CardReader old = cpu.getCardReader();
+        cpu.setCardReader(reader);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Runs the loaded user program on the calling thread until it halts
+     * @param maxInstructions -> upper bound on the number of instructions to execute
+     * @return -> the number of instructions executed
+     */
+    public long runToHalt(long maxInstructions) {
+        return cpu.runToHalt(maxInstructions);
+    }
+
+    /**
+     * Saves the whole machine (see CPU.checkpoint)
+     * @return -> the checkpoint, for restore
+     */
+    public Checkpoint checkpoint() {
+        return cpu.checkpoint();
+    }
+
+    /**
+     * Puts the whole machine back the way it was at a checkpoint (see CPU.restore)
+     * @param checkpoint -> a checkpoint of this machine
+     */
+    public void restore(Checkpoint checkpoint) {
+        cpu.restore(checkpoint);
+    }
+
+    /**
+     * Puts the machine back the way it was when the last program finished loading, so it can be run again
+     * @return -> false if no program has been loaded
+     */
+    public boolean reload() {
+        if (loaded == null) {
+            return false;
+        }
+        cpu.restore(loaded);
+        return true;
+    }
+
+    /**
+     * Releases the memory's backend (see MemoryBackend.close); the machine isn't run after
+     */
+    @Override
+    public void close() {
+        memory.getBackend().close();
+    }
+
+    public CPU getCpu() { return cpu; }
+
+    public Memory getMemory() { return memory; }
+}
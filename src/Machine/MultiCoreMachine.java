@@ -0,0 +1,300 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Multi-Core Machine - N cores sharing one memory, each with its own registers, PC and L1 caches
+ *
+ * Every core is a Machine with a CPU of its own and a Memory of its own over the one shared backend. A Memory has the
+ * core's relocation registers and caches. The cores' L1 caches are kept coherent by a CoherenceBus (MSI) in front of
+ * the shared L2 and memory (see MemoryHierarchy). A program finds out which core it is on, and how many cores there
+ * are, with IN from DEVID.CORE_ID and CORE_COUNT, so every core can run the same program on its own part of the
+ * work. The keyboard queue is shared: each IN from the keyboard takes the next line, whichever core runs it.
+ *
+ * Every core runs on its own host thread:
+ * * run: the cores run freely, so how their accesses interleave (and the cache statistics) can change from run to run
+ * * runLockStep: the cores take turns in order, a quantum of instructions each, so every run is the same
+ * A core is done when it halts; the machine is done when every core is.
+ *
+ * The cores run in ENUM or SWITCH dispatch only: a block decoded ahead of time (BLOCK, COMPILED) only hears about
+ * writes to its code made by its own core.
+ */
+
+package Machine;
+
+import CPU.CPU;
+import CPU.DispatchMode;
+import CPU.Keyboard;
+import CPU.MachineObserver;
+import Memory.CoherenceBus;
+import Memory.Memory;
+import Memory.MemoryBackend;
+import Memory.MemoryHierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+public class MultiCoreMachine implements AutoCloseable {
+
+    private final Machine[] cores;
+    private final CoherenceBus bus = new CoherenceBus();
+
+    // Instructions each core executed in the last run
+    private final long[] executed;
+
+    /**
+     * @param count -> how many cores
+     */
+    public MultiCoreMachine(int count) {
+        this(count, MemoryBackend.fromSystemProperties(), MemoryHierarchy.specFromSystemProperties());
+    }
+
+    /**
+     * @param count -> how many cores
+     * @param backend -> the memory the cores share (see MemoryBackend)
+     * @param hierarchy -> every core's caches and the shared levels behind them (see MemoryHierarchy)
+     */
+    public MultiCoreMachine(int count, MemoryBackend backend, String hierarchy) {
+        if (count < 1) {
+            throw new IllegalArgumentException("a machine needs at least one core: " + count);
+        }
+        cores = new Machine[count];
+        executed = new long[count];
+        for (int i = 0; i < count; i++) {
+            Memory memory = new Memory(backend);
+            memory.setHierarchy(hierarchy, bus, i);
+            cores[i] = new Machine(memory);
+            cores[i].getCpu().setCore(i, count);
+        }
+    }
+
+    /**
+     * Attaches one observer to every core. Free running cores call it from their own threads
+     * @param observer -> the observer to notify
+     */
+    public void setObserver(MachineObserver observer) {
+        for (Machine core : cores) {
+            core.setObserver(observer);
+        }
+    }
+
+    /**
+     * Attaches one keyboard queue to every core (see Keyboard)
+     */
+    public void setKeyboard(Keyboard keyboard) {
+        for (Machine core : cores) {
+            core.setKeyboard(keyboard);
+        }
+    }
+
+    /**
+     * @param mode -> ENUM or SWITCH (see the class comment)
+     * @throws IllegalArgumentException -> for a mode that decodes blocks ahead of time
+     */
+    public void setDispatchMode(DispatchMode mode) {
+        if (mode == DispatchMode.BLOCK || mode == DispatchMode.COMPILED) {
+            throw new IllegalArgumentException(mode + " dispatch doesn't see code written by another core; "
+                    + "use ENUM or SWITCH with more than one core");
+        }
+        for (Machine core : cores) {
+            core.getCpu().setDispatchMode(mode);
+        }
+    }
+
+    /**
+     * Boots every core. Each boot resets the shared memory, so boot before loading anything
+     */
+    public void boot() {
+        for (Machine core : cores) {
+            core.boot();
+        }
+    }
+
+    /**
+     * Loads a program into the shared memory and points every core at its entry (see Machine.initialProgramLoad)
+     * @param file -> the program file
+     * @throws IOException -> if the file can't be read or puts a word outside user memory
+     */
+    public void initialProgramLoad(File file) throws IOException {
+        for (Machine core : cores) {
+            core.initialProgramLoad(file);
+        }
+    }
+
+    /**
+     * Loads program2's paragraph into the shared memory (see Machine.loadParagraph)
+     */
+    public void loadParagraph(File file) throws IOException {
+        cores[0].loadParagraph(file);
+    }
+
+    /**
+     * Attaches a deck to core 0's card reader (see Machine.attachCardReader); the other cores read an empty deck
+     */
+    public void attachCardReader(String file) throws IOException {
+        cores[0].attachCardReader(file);
+    }
+
+    /**
+     * Runs every core freely on its own thread until they have all halted
+     * @param maxInstructions -> upper bound on the number of instructions each core executes
+     * @return -> the number of instructions executed by all the cores
+     * @throws InterruptedException -> if the calling thread is interrupted while the cores run (they are stopped)
+     */
+    public long run(long maxInstructions) throws InterruptedException {
+        Thread[] threads = new Thread[cores.length];
+        RuntimeException[] failures = new RuntimeException[cores.length];
+        for (int i = 0; i < cores.length; i++) {
+            int core = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    executed[core] = cores[core].runToHalt(maxInstructions);
+                } catch (RuntimeException e) {
+                    failures[core] = e;
+                }
+            }, "core " + i);
+        }
+        return runThreads(threads, failures);
+    }
+
+    /**
+     * Runs the cores in lock step until they have all halted: each core runs on its own thread, but only on its turn,
+     * and the turns go around the cores in order, so the interleaving is the same on every run
+     * @param maxInstructions -> upper bound on the number of instructions each core executes
+     * @param quantum -> instructions a core executes per turn
+     * @return -> the number of instructions executed by all the cores
+     * @throws InterruptedException -> if the calling thread is interrupted while the cores run (they are stopped)
+     */
+    public long runLockStep(long maxInstructions, int quantum) throws InterruptedException {
+        if (quantum < 1) {
+            throw new IllegalArgumentException("quantum must be at least 1: " + quantum);
+        }
+        Semaphore[] turns = new Semaphore[cores.length];
+        for (int i = 0; i < cores.length; i++) {
+            turns[i] = new Semaphore(0);
+        }
+        // only changed by the core whose turn it is; the semaphores pass it on
+        int[] running = { cores.length };
+        boolean[] done = new boolean[cores.length];
+
+        Thread[] threads = new Thread[cores.length];
+        RuntimeException[] failures = new RuntimeException[cores.length];
+        for (int i = 0; i < cores.length; i++) {
+            int core = i;
+            threads[i] = new Thread(() -> {
+                Semaphore next = turns[(core + 1) % cores.length];
+                try {
+                    while (true) {
+                        turns[core].acquire();
+                        if (running[0] == 0) {
+                            next.release();
+                            return;
+                        }
+                        if (!done[core]) {
+                            try {
+                                executed[core] += cores[core].runToHalt(
+                                        Math.min(quantum, maxInstructions - executed[core]));
+                            } catch (RuntimeException e) {
+                                failures[core] = e;
+                            }
+                            // a core that halted is left paused; running it again would restart its program
+                            if (failures[core] != null || cores[core].getCpu().isPaused()
+                                    || executed[core] >= maxInstructions) {
+                                done[core] = true;
+                                running[0]--;
+                            }
+                        }
+                        next.release();
+                    }
+                } catch (InterruptedException e) {
+                    // stopped by run
+                }
+            }, "core " + i);
+        }
+        turns[0].release();
+        return runThreads(threads, failures);
+    }
+
+    private long runThreads(Thread[] threads, RuntimeException[] failures) throws InterruptedException {
+        Arrays.fill(executed, 0);
+        // every core starts before any runs, so no core's statistics are reset after another core has begun
+        for (Machine core : cores) {
+            core.getCpu().startUserProgram();
+        }
+        bus.resetStatistics();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Machine core : cores) {
+                core.getCpu().pause();
+            }
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        long total = 0;
+        for (long count : executed) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return -> instructions executed by a core in the last run
+     */
+    public long getExecuted(int core) { return executed[core]; }
+
+    public int getCoreCount() { return cores.length; }
+
+    /**
+     * @return -> a core: its CPU, and its view of the shared memory
+     */
+    public Machine getCore(int core) { return cores[core]; }
+
+    public CoherenceBus getBus() { return bus; }
+
+    /**
+     * Releases the backend the cores share (see MemoryBackend.close); the machine isn't run after
+     */
+    @Override
+    public void close() {
+        cores[0].close();
+    }
+
+    /**
+     * @return -> simulated cycles spent in every core's caches and the shared levels
+     */
+    public long getCycles() {
+        long cycles = bus.getCycles();
+        for (Machine core : cores) {
+            cycles += core.getMemory().getHierarchy().getCycles();
+        }
+        return cycles;
+    }
+
+    /**
+     * Each core's instructions and caches, then the shared levels and the bus, then the total cycles
+     */
+    public String getStatistics() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < cores.length; i++) {
+            CPU cpu = cores[i].getCpu();
+            s.append("core ").append(cpu.getCoreId()).append(": ").append(executed[i]).append(" instructions\n");
+            s.append(cores[i].getMemory().getHierarchy().getStatistics()).append('\n');
+        }
+        s.append("shared:\n").append(bus.getStatistics()).append('\n');
+        s.append("total cycles ").append(getCycles());
+        return s.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Program Image Converter - Turns a program in one of the text formats into a binary program image (see ProgramImage)
+ *
+ * Usage: ProgramImageConverter [--binary] [--offset N] [--entry N] [--symbol NAME=LOCATION]... <text file> <image file>
+ * * --binary: the text is binary pairs (the default for 'testing.txt'), not hex
+ * * --offset: added to every location; the boot program is converted with --offset 8 (Common.BOOT_PROGRAM_ADDRESS)
+ * * --entry: the location the program starts at, relative to its first location (default 0)
+ * * --symbol: a name for a location, kept in the image's symbol table
+ * Numbers are decimal, or hex with 0x.
+ */
+
+package Machine;
+
+import Memory.ProgramImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ProgramImageConverter {
+
+    private static final String USAGE = "Usage: ProgramImageConverter [--binary] [--offset N] [--entry N] "
+            + "[--symbol NAME=LOCATION]... <text file> <image file>";
+
+    public static void main(String[] args) {
+        File text = null;
+        Path output = null;
+        Boolean binary = null;
+        int offset = 0;
+        int entry = 0;
+        Map<String, Integer> symbols = new LinkedHashMap<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--binary")) {
+                    binary = true;
+                } else if (args[i].equals("--offset") && i + 1 < args.length) {
+                    offset = Integer.decode(args[++i]);
+                } else if (args[i].equals("--entry") && i + 1 < args.length) {
+                    entry = Integer.decode(args[++i]);
+                } else if (args[i].equals("--symbol") && i + 1 < args.length) {
+                    String[] pair = args[++i].split("=", 2);
+                    symbols.put(pair[0], Integer.decode(pair[1]));
+                } else if (text == null) {
+                    text = new File(args[i]);
+                } else {
+                    output = Path.of(args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (text == null || output == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try {
+            boolean binaryText = binary != null ? binary : Machine.isBinaryText(text);
+            ProgramImage parsed = ProgramImage.fromText(Files.readAllLines(text.toPath()), binaryText, offset, entry);
+            ProgramImage image = new ProgramImage(entry, parsed.getSegments(), symbols);
+            image.write(output);
+            System.err.printf("%s: %d words in %d segments%n", output, image.getWordCount(),
+                    image.getSegments().size());
+        } catch (IOException e) {
+            System.err.println("There was an error converting " + text + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
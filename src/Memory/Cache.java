@@ -1,70 +1,611 @@
 /**
  * CSCI 6461 - Fall 2022
- * 
- * Cache Class handles the indexing for a cahce level memory
+ *
+ * Cache Class models a set-associative cache in front of the next level of memory (see CacheConfig for the options)
+ *
+ * Tags, dirty bits, replacement stamps and the cached words are kept in primitive arrays, indexed by line
+ * (set * ways + way).
+ * * Write-through: writes update the line if it is cached (no allocate on a miss) and go to the next level through
+ *   the write buffer. The buffer is drained when it is full and before any block is filled, so reads never see old data.
+ * * Write-back: writes allocate a line and mark it dirty; dirty lines are written back when evicted or flushed.
+ *
+ * Split L1 caches are each other's peer: a write invalidates the block in the peer, and a fill first cleans the
+ * block out of the peer, so instruction fetches always see the latest stores.
+ *
+ * In a multi-core machine the L1 caches of the cores are on a CoherenceBus (MSI): a line is Modified when it is dirty,
+ * Shared when it is clean, and Invalid when it isn't cached. A miss asks the bus first, and so does a write to a line
+ * that isn't Modified; the other cores' caches then write their copy back, and drop it for a write (snoopRead,
+ * snoopWrite).
  */
 
 package Memory;
-import java.util.HashMap;
-
-public class Cache {
-
-    // Buffer to save addresses, size for the buffer, etc.
-	private HashMap<Integer, Integer> buffer; // address + data format
-	private final int bufferSize = 4;
-	private int [] writingBuffer;
-	private boolean bufferFull = true;
-
-	public Cache() {
-         buffer = new HashMap<>();
-         writingBuffer = new int[bufferSize];
-         for(int i = 0; i < bufferSize; i++) {
-        	 writingBuffer[i]=-1;
-         }
-	}
-	
-	// Inserts into cache at the specified location
-	public void cacheInsert(int address, int data, Memory mem) {
-		buffer.put(address, data);
-		wbInsert(address, data, mem);
-	}
-	
-    // Inserts into the writing buffer with data 
-	public void wbInsert(int address, int data, Memory mem) {
-		for(int i = 0; i < bufferSize; i++) {
-			if(writingBuffer[i] != -1) {
-				writingBuffer[i] = address;
-				bufferFull = false; 
+import Common.Trace;
+
+import java.util.Arrays;
+
+public class Cache implements MemoryLevel {
+
+	private static final int EMPTY = -1;
+	private static final int RECENT = 64;
+
+	private final String name;
+	private final CacheConfig config;
+	private final MemoryLevel next;
+	private Cache peer;
+	private CoherenceBus bus;	// only in a multi-core machine
+	private int core;
+
+	// Geometry: address = [ tag | set | offset ]
+	private final int ways;
+	private final int blockSize;
+	private final int offsetBits;
+	private final int offsetMask;
+	private final int setBits;
+	private final int setMask;
+	private final boolean lru;
+	private final boolean writeBack;
+
+	// Line state. A tag of EMPTY marks an unused line
+	private final int[] tags;
+	private final boolean[] dirty;
+	private final long[] stamps;	// last use (LRU) or fill time (FIFO)
+	private final int[] data;		// line * blockSize + offset
+	private long clock = 0;
+	private int random = 0x2545F491;
+	private boolean lastHit;		// whether the last lookup hit (for tracing)
+	private final int[] recent;		// the line that last held a block, by its low bits (see find)
+
+	// Write buffer (write-through): a circular queue of address/value pairs
+	private final int[] bufferAddress;
+	private final int[] bufferValue;
+	private int bufferHead = 0;
+	private int bufferCount = 0;
+
+	// Statistics since the last resetStatistics()
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writebacks;
+
+	public Cache(String name, CacheConfig config, MemoryLevel next) {
+		this.name = name;
+		this.config = config;
+		this.next = next;
+
+		ways = config.associativity;
+		blockSize = config.blockSize;
+		offsetBits = Integer.numberOfTrailingZeros(blockSize);
+		offsetMask = blockSize - 1;
+		int sets = config.lines / ways;
+		setBits = Integer.numberOfTrailingZeros(sets);
+		setMask = sets - 1;
+		lru = config.replacement == CacheConfig.Replacement.LRU;
+		writeBack = config.writePolicy == CacheConfig.WritePolicy.BACK;
+
+		tags = new int[config.lines];
+		dirty = new boolean[config.lines];
+		stamps = new long[config.lines];
+		data = new int[config.lines * blockSize];
+		recent = new int[RECENT];
+		bufferAddress = new int[config.writeBufferSize];
+		bufferValue = new int[config.writeBufferSize];
+		invalidate();
+	}
+
+	/**
+	 * Pairs this cache with the other half of a split L1 (see the class comment)
+	 */
+	void setPeer(Cache peer) { this.peer = peer; }
+
+	/**
+	 * Puts this cache on a coherence bus, as one of a core's caches (see the class comment)
+	 */
+	void setBus(CoherenceBus bus, int core) {
+		this.bus = bus;
+		this.core = core;
+	}
+
+	int getCore() { return core; }
+
+	/**
+	 * Reads a word, filling its block from the next level on a miss
+	 * @param address -> a valid (physical) memory address
+	 * @return -> the word at that address
+	 */
+	@Override
+	public int read(int address) {
+		int line = lookup(address);
+		int value = data[(line << offsetBits) + (address & offsetMask)];
+		Trace.event(Trace.CACHE, lastHit ? Trace.CACHE_HIT : Trace.CACHE_MISS, address, value);
+		return value;
+	}
+
+	/**
+	 * Writes a word according to the write policy
+	 * @param address -> a valid (physical) memory address
+	 * @param value -> the word to write
+	 */
+	@Override
+	public void write(int address, int value) {
+		if (peer != null) {
+			peer.invalidateBlock(address);
+		}
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (bus != null && (line == EMPTY || !dirty[line])) {
+			// not Modified here: the other cores give up their copies first
+			bus.write(core, address, line != EMPTY);
+		}
+		if (line == EMPTY) {
+			misses++;
+			Trace.event(Trace.CACHE, Trace.CACHE_MISS, address, value);
+			if (!writeBack) {
+				bufferWrite(address, value);
+				return;
+			}
+			line = fill(block & setMask, block);
+		} else {
+			hits++;
+			Trace.event(Trace.CACHE, Trace.CACHE_HIT, address, value);
+		}
+		if (lru) {
+			stamps[line] = ++clock;
+		}
+		data[(line << offsetBits) + (address & offsetMask)] = value;
+		if (writeBack) {
+			dirty[line] = true;
+		} else {
+			bufferWrite(address, value);
+		}
+	}
+
+	/**
+	 * Fills the level above: one access per block of this cache the request covers
+	 */
+	@Override
+	public void readBlock(int address, int[] into, int start, int length) {
+		int end = address + length;
+		while (address < end) {
+			int line = lookup(address);
+			int count = Math.min(end - address, blockSize - (address & offsetMask));
+			System.arraycopy(data, (line << offsetBits) + (address & offsetMask), into, start, count);
+			address += count;
+			start += count;
+		}
+	}
+
+	/**
+	 * Takes a block written back (or written through) by the level above
+	 */
+	@Override
+	public void writeBlock(int address, int[] from, int start, int length) {
+		if (peer != null) {
+			peer.invalidateBlock(address);
+		}
+		int end = address + length;
+		while (address < end) {
+			int count = Math.min(end - address, blockSize - (address & offsetMask));
+			int block = address >>> offsetBits;
+			int line = find(block & setMask, block >>> setBits);
+			if (line == EMPTY) {
+				misses++;
+				if (writeBack) {
+					line = fill(block & setMask, block);
+				}
+			} else {
+				hits++;
+			}
+			if (line != EMPTY) {
+				if (lru) {
+					stamps[line] = ++clock;
+				}
+				System.arraycopy(from, start, data, (line << offsetBits) + (address & offsetMask), count);
+				dirty[line] |= writeBack;
+			}
+			if (!writeBack) {
+				for (int i = 0; i < count; i++) {
+					bufferWrite(address + i, from[start + i]);
+				}
+			}
+			address += count;
+			start += count;
+		}
+	}
+
+	/**
+	 * Bulk access: counts a hit or a miss for every block of the range, without filling anything
+	 */
+	@Override
+	public void account(int address, int length) {
+		int end = address + length;
+		for (int a = address & ~offsetMask; a < end; a += blockSize) {
+			int block = a >>> offsetBits;
+			int line = find(block & setMask, block >>> setBits);
+			if (line != EMPTY) {
+				hits++;
+				if (lru) {
+					stamps[line] = ++clock;
+				}
+				Trace.event(Trace.CACHE, Trace.CACHE_HIT, a, 0);
+			} else {
+				misses++;
+				Trace.event(Trace.CACHE, Trace.CACHE_MISS, a, 0);
+				int from = Math.max(a, address);
+				next.account(from, Math.min(a + blockSize, end) - from);
+			}
+		}
+	}
+
+	/**
+	 * Looks a word up without counting it or changing the replacement state (for memory dumps)
+	 * @param address -> a valid (physical) memory address
+	 * @return -> the newest value of the word, wherever it is
+	 */
+	@Override
+	public int peek(int address) {
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (line != EMPTY) {
+			return data[(line << offsetBits) + (address & offsetMask)];
+		}
+		// newest buffered write first
+		for (int i = bufferCount - 1; i >= 0; i--) {
+			int entry = (bufferHead + i) % bufferAddress.length;
+			if (bufferAddress[entry] == address) {
+				return bufferValue[entry];
+			}
+		}
+		return next.peek(address);
+	}
+
+	/**
+	 * Finds the line holding the address, filling it on a miss, and counts the access
+	 */
+	private int lookup(int address) {
+		int block = address >>> offsetBits;
+		int set = block & setMask;
+		int line = find(set, block >>> setBits);
+		lastHit = line != EMPTY;
+		if (lastHit) {
+			hits++;
+		} else {
+			misses++;
+			if (bus != null) {
+				bus.read(core, address);
+			}
+			line = fill(set, block);
+		}
+		if (lru) {
+			stamps[line] = ++clock;
+		}
+		return line;
+	}
+
+	/**
+	 * @return -> the line in the set holding the tag, or EMPTY. The line that last held a block with the same low
+	 * bits is tried first, so a block used again and again (a loop's code and data) isn't searched for every time
+	 */
+	private int find(int set, int tag) {
+		int base = set * ways;
+		int hint = (tag << setBits | set) & RECENT - 1;
+		int line = recent[hint];
+		if (line >= base && line < base + ways && tags[line] == tag) {
+			return line;
+		}
+		for (line = base; line < base + ways; line++) {
+			if (tags[line] == tag) {
+				recent[hint] = line;
+				return line;
+			}
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Brings a block into the set, evicting a line if the set is full
+	 * @return -> the line now holding the block
+	 */
+	private int fill(int set, int block) {
+		int address = block << offsetBits;
+		// the next level has to be up to date before the block is read
+		drainWriteBuffer();
+		if (peer != null) {
+			peer.clean(address, blockSize);
+		}
+
+		int line = victim(set);
+		if (tags[line] != EMPTY) {
+			evictions++;
+			int evicted = (tags[line] << setBits | set) << offsetBits;
+			Trace.event(Trace.CACHE, Trace.CACHE_EVICT, evicted, dirty[line] ? 1 : 0);
+			if (dirty[line]) {
+				writeBackLine(line, evicted);
+			}
+		}
+		tags[line] = block >>> setBits;
+		dirty[line] = false;
+		stamps[line] = ++clock;
+		next.readBlock(address, data, line << offsetBits, blockSize);
+		return line;
+	}
+
+	/**
+	 * Picks the line to replace: an empty line if there is one, otherwise by the replacement policy
+	 */
+	private int victim(int set) {
+		int base = set * ways;
+		for (int line = base; line < base + ways; line++) {
+			if (tags[line] == EMPTY) {
+				return line;
+			}
+		}
+		if (config.replacement == CacheConfig.Replacement.RANDOM) {
+			// xorshift: cheap and the same on every run
+			random ^= random << 13;
+			random ^= random >>> 17;
+			random ^= random << 5;
+			return base + (random & (ways - 1));
+		}
+		// LRU stamps on every use, FIFO only on fill; either way the oldest stamp goes
+		int oldest = base;
+		for (int line = base + 1; line < base + ways; line++) {
+			if (stamps[line] < stamps[oldest]) {
+				oldest = line;
+			}
+		}
+		return oldest;
+	}
+
+	private void writeBackLine(int line, int address) {
+		next.writeBlock(address, data, line << offsetBits, blockSize);
+		dirty[line] = false;
+		writebacks++;
+	}
+
+	private void bufferWrite(int address, int value) {
+		if (bufferCount == bufferAddress.length) {
+			// full: the oldest write goes to the next level first
+			next.write(bufferAddress[bufferHead], bufferValue[bufferHead]);
+			writebacks++;
+			bufferHead = (bufferHead + 1) % bufferAddress.length;
+			bufferCount--;
+		}
+		int tail = (bufferHead + bufferCount) % bufferAddress.length;
+		bufferAddress[tail] = address;
+		bufferValue[tail] = value;
+		bufferCount++;
+	}
+
+	private void drainWriteBuffer() {
+		while (bufferCount > 0) {
+			next.write(bufferAddress[bufferHead], bufferValue[bufferHead]);
+			writebacks++;
+			bufferHead = (bufferHead + 1) % bufferAddress.length;
+			bufferCount--;
+		}
+	}
+
+	/**
+	 * The range is about to be read from the next level (by the peer, or in bulk), so anything newer held here goes
+	 * down first
+	 */
+	void clean(int address, int length) {
+		drainWriteBuffer();
+		for (int a = address & ~offsetMask; a < address + length; a += blockSize) {
+			int block = a >>> offsetBits;
+			int line = find(block & setMask, block >>> setBits);
+			if (line != EMPTY && dirty[line]) {
+				writeBackLine(line, a);
+			}
+		}
+	}
+
+	/**
+	 * Peer request: the block was written through the other cache, so the copy here is out of date
+	 */
+	private void invalidateBlock(int address) {
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (line != EMPTY) {
+			if (dirty[line]) {
+				writeBackLine(line, block << offsetBits);
 			}
+			tags[line] = EMPTY;
 		}
-        // If the buffer is full, shift data to maintain the FIFO order
-		if(bufferFull == true) { 
-			mem.insert(writingBuffer[0], data); 
-			writingBuffer[0] = writingBuffer[1];
-			writingBuffer[1] = writingBuffer[2];
-			writingBuffer[2] = writingBuffer[3];
-			writingBuffer[3] = address;
-		}
-	}
-	
-	public boolean isBufferFull() { return bufferFull; }
-	
-	// Gets a value in cache at the specified location
-	public int getData(int key) {
-		System.out.println("tag: "+key);
-		printCache();
-		return buffer.get(key);
-	}
-	
-    // Checks if a value is in the cache
-	public boolean inCache(int key) {
-		if(buffer.containsKey(key)) {
+	}
+
+	/**
+	 * Bus request: another core is about to read the block, so a Modified copy here is written back and kept (Shared).
+	 * Buffered writes go down first too
+	 * @return -> true if the copy here was Modified
+	 */
+	boolean snoopRead(int address) {
+		drainWriteBuffer();
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (line != EMPTY && dirty[line]) {
+			writeBackLine(line, block << offsetBits);
 			return true;
 		}
 		return false;
 	}
 
-	public HashMap<Integer, Integer> getCache() { return buffer; }
+	/**
+	 * Bus request: another core is about to write the block, so the copy here is written back if it is Modified and
+	 * dropped (Invalid). Buffered writes go down first too
+	 * @return -> true if there was a copy here
+	 */
+	boolean snoopWrite(int address) {
+		drainWriteBuffer();
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (line == EMPTY) {
+			return false;
+		}
+		if (dirty[line]) {
+			writeBackLine(line, block << offsetBits);
+		}
+		tags[line] = EMPTY;
+		return true;
+	}
+
+	/**
+	 * @return -> true if this cache holds a newer value of the word than the levels below it: a Modified line, or a
+	 *            buffered write
+	 */
+	boolean holdsNewer(int address) {
+		int block = address >>> offsetBits;
+		int line = find(block & setMask, block >>> setBits);
+		if (line != EMPTY && dirty[line]) {
+			return true;
+		}
+		for (int i = 0; i < bufferCount; i++) {
+			if (bufferAddress[(bufferHead + i) % bufferAddress.length] == address) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-	public void printCache() { System.out.println(buffer); }
+	/**
+	 * The range was written below this cache (in bulk), so the lines holding it are out of date
+	 */
+	void discard(int address, int length) {
+		for (int a = address & ~offsetMask; a < address + length; a += blockSize) {
+			invalidateBlock(a);
+		}
+	}
+
+	/**
+	 * Writes everything the cache is holding back (write buffer, dirty lines) to the next level. The lines stay cached
+	 */
+	public void flush() {
+		drainWriteBuffer();
+		for (int line = 0; line < tags.length; line++) {
+			if (dirty[line]) {
+				int set = line / ways;
+				writeBackLine(line, (tags[line] << setBits | set) << offsetBits);
+			}
+		}
+	}
+
+	/**
+	 * Empties the cache and the write buffer without writing anything back (memory was reset or reloaded)
+	 */
+	public void invalidate() {
+		Arrays.fill(tags, EMPTY);
+		Arrays.fill(dirty, false);
+		Arrays.fill(stamps, 0);
+		bufferHead = 0;
+		bufferCount = 0;
+		clock = 0;
+	}
+
+	@Override
+	public void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		writebacks = 0;
+	}
+
+	/**
+	 * Copies everything the cache holds (lines, write buffer, replacement state, statistics), for a checkpoint
+	 */
+	State saveState() {
+		return new State(this);
+	}
+
+	/**
+	 * Puts the cache back the way saveState found it
+	 */
+	void restoreState(State state) {
+		System.arraycopy(state.tags, 0, tags, 0, tags.length);
+		System.arraycopy(state.dirty, 0, dirty, 0, dirty.length);
+		System.arraycopy(state.stamps, 0, stamps, 0, stamps.length);
+		System.arraycopy(state.data, 0, data, 0, data.length);
+		System.arraycopy(state.bufferAddress, 0, bufferAddress, 0, bufferAddress.length);
+		System.arraycopy(state.bufferValue, 0, bufferValue, 0, bufferValue.length);
+		clock = state.clock;
+		random = state.random;
+		bufferHead = state.bufferHead;
+		bufferCount = state.bufferCount;
+		hits = state.hits;
+		misses = state.misses;
+		evictions = state.evictions;
+		writebacks = state.writebacks;
+	}
+
+	static final class State {
+		private final int[] tags;
+		private final boolean[] dirty;
+		private final long[] stamps;
+		private final int[] data;
+		private final int[] bufferAddress;
+		private final int[] bufferValue;
+		private final long clock;
+		private final int random;
+		private final int bufferHead;
+		private final int bufferCount;
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final long writebacks;
+
+		private State(Cache cache) {
+			tags = cache.tags.clone();
+			dirty = cache.dirty.clone();
+			stamps = cache.stamps.clone();
+			data = cache.data.clone();
+			bufferAddress = cache.bufferAddress.clone();
+			bufferValue = cache.bufferValue.clone();
+			clock = cache.clock;
+			random = cache.random;
+			bufferHead = cache.bufferHead;
+			bufferCount = cache.bufferCount;
+			hits = cache.hits;
+			misses = cache.misses;
+			evictions = cache.evictions;
+			writebacks = cache.writebacks;
+		}
+	}
+
+	@Override
+	public String getName() { return name; }
+
+	@Override
+	public int getLatency() { return config.latency; }
+
+	@Override
+	public long getAccesses() { return hits + misses; }
+
+	public CacheConfig getConfig() { return config; }
+
+	public long getHits() { return hits; }
+
+	public long getMisses() { return misses; }
+
+	public long getEvictions() { return evictions; }
+
+	/**
+	 * @return -> writes to the next level made by the cache: dirty lines (write-back) or drained buffer entries
+	 * (write-through)
+	 */
+	public long getWritebacks() { return writebacks; }
+
+	public double getHitRate() {
+		long accesses = hits + misses;
+		return accesses == 0 ? 0 : (double) hits / accesses;
+	}
+
+	public String getStatistics() {
+		return String.format("hits=%d misses=%d (%.1f%% hit rate) evictions=%d writebacks=%d",
+				hits, misses, getHitRate() * 100, evictions, writebacks);
+	}
+
+	public void printCache() {
+		if (Trace.info(Trace.CACHE)) {
+			Trace.info(Trace.CACHE, name + " " + config + ": " + getStatistics());
+		}
+	}
 }
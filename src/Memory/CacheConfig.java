@@ -0,0 +1,124 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Cache Config - The shape and policies of a cache
+ *
+ * Written as a comma separated list, e.g. lines=16,block=4,ways=16,replace=fifo,write=through,buffer=4,latency=1
+ * (any key can be left out to keep its default). Lines, block and ways must be powers of two, and ways can't be
+ * more than lines. Latency is the number of cycles charged for each access (see MemoryHierarchy).
+ */
+
+package Memory;
+
+import java.util.Locale;
+
+public class CacheConfig {
+
+    public enum Replacement { LRU, FIFO, RANDOM }
+
+    public enum WritePolicy {
+        // Every write also goes to memory through the write buffer; write misses don't allocate a line
+        THROUGH,
+        // Writes stay in the cache until the (dirty) line is evicted
+        BACK
+    }
+
+    // 16 fully associative lines of 4 words, FIFO replacement, write-through with a 4 entry write buffer, 1 cycle
+    public static final CacheConfig DEFAULT = new CacheConfig(16, 4, 16, Replacement.FIFO, WritePolicy.THROUGH, 4, 1);
+
+    public final int lines;
+    public final int blockSize;
+    public final int associativity;
+    public final Replacement replacement;
+    public final WritePolicy writePolicy;
+    public final int writeBufferSize;
+    public final int latency;
+
+    public CacheConfig(int lines, int blockSize, int associativity, Replacement replacement,
+                       WritePolicy writePolicy, int writeBufferSize, int latency) {
+        if (!isPowerOfTwo(lines) || !isPowerOfTwo(blockSize) || !isPowerOfTwo(associativity)) {
+            throw new IllegalArgumentException("cache lines, block size and ways must be powers of two");
+        }
+        if (associativity > lines) {
+            throw new IllegalArgumentException("cache ways (" + associativity + ") can't be more than lines (" + lines + ")");
+        }
+        if (writeBufferSize < 1) {
+            throw new IllegalArgumentException("the write buffer needs at least one entry");
+        }
+        if (latency < 0) {
+            throw new IllegalArgumentException("cache latency can't be negative");
+        }
+        this.lines = lines;
+        this.blockSize = blockSize;
+        this.associativity = associativity;
+        this.replacement = replacement;
+        this.writePolicy = writePolicy;
+        this.writeBufferSize = writeBufferSize;
+        this.latency = latency;
+    }
+
+    /**
+     * Reads a config such as "lines=64,block=8,ways=2,replace=lru,write=back". Missing keys keep their defaults
+     * @param spec -> the config string, or "off"
+     * @return -> the config, or null for "off"
+     */
+    public static CacheConfig parse(String spec) {
+        return parse(spec, DEFAULT);
+    }
+
+    /**
+     * Reads a config, taking missing keys from defaults. Ways defaults to fully associative
+     * @param spec -> the config string, or "off"
+     * @param defaults -> where the missing keys come from
+     * @return -> the config, or null for "off"
+     */
+    public static CacheConfig parse(String spec, CacheConfig defaults) {
+        spec = spec.trim().toLowerCase(Locale.ROOT);
+        if (spec.equals("off") || spec.equals("none")) {
+            return null;
+        }
+        int lines = defaults.lines;
+        int blockSize = defaults.blockSize;
+        int associativity = -1;
+        Replacement replacement = defaults.replacement;
+        WritePolicy writePolicy = defaults.writePolicy;
+        int writeBufferSize = defaults.writeBufferSize;
+        int latency = defaults.latency;
+
+        for (String setting : spec.split(",")) {
+            if (setting.isBlank()) {
+                continue;
+            }
+            String[] pair = setting.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("cache setting needs a value: " + setting);
+            }
+            String value = pair[1].trim();
+            switch (pair[0].trim()) {
+                case "lines": lines = Integer.parseInt(value); break;
+                case "block": blockSize = Integer.parseInt(value); break;
+                case "ways": associativity = value.equals("full") ? 0 : Integer.parseInt(value); break;
+                case "replace": replacement = Replacement.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                case "write": writePolicy = WritePolicy.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                case "buffer": writeBufferSize = Integer.parseInt(value); break;
+                case "latency": latency = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("unknown cache setting: " + pair[0]);
+            }
+        }
+        // fully associative unless told otherwise
+        if (associativity <= 0) {
+            associativity = lines;
+        }
+        return new CacheConfig(lines, blockSize, associativity, replacement, writePolicy, writeBufferSize, latency);
+    }
+
+    private static boolean isPowerOfTwo(int n) { return n > 0 && (n & (n - 1)) == 0; }
+
+    public String toString() {
+        return "lines=" + lines + ",block=" + blockSize + ",ways=" + associativity
+                + ",replace=" + replacement.name().toLowerCase(Locale.ROOT)
+                + ",write=" + writePolicy.name().toLowerCase(Locale.ROOT)
+                + (writePolicy == WritePolicy.THROUGH ? ",buffer=" + writeBufferSize : "")
+                + ",latency=" + latency;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Code Watcher - Told when memory the CPU has decoded ahead of time is written (see Memory.watch)
+ */
+
+package Memory;
+
+public interface CodeWatcher {
+
+    /**
+     * Called after a write to a range holding at least one watched word
+     * @param location -> the first (absolute) location written
+     * @param length -> the number of words written
+     */
+    void codeWritten(int location, int length);
+}
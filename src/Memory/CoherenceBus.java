@@ -0,0 +1,269 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Coherence Bus - The snooping bus of a multi-core machine: keeps the cores' L1 caches coherent (MSI) over the levels
+ * they share, an optional L2 and memory
+ *
+ * Each core has its own MemoryHierarchy of L1 caches (see MemoryHierarchy(Memory, String, CoherenceBus, int)), in
+ * front of the shared levels the bus builds for the first core. A cache asks the bus before it fills a block (read)
+ * and before it writes to a block it doesn't hold Modified (write); the bus then has every other core's cache snoop
+ * the block (see Cache.snoopRead, snoopWrite):
+ * * read (BusRd): a Modified copy is written back to the shared level and stays cached, Shared
+ * * write miss (BusRdX) or write hit on a Shared line (BusUpgr): every other copy is written back if Modified and
+ *   dropped
+ * The caches of one core are kept coherent between themselves the way they always were (Cache.setPeer). A core with
+ * no L1 cache on a side (no l1i, say) makes the same requests itself for every word it reads or writes on that side.
+ *
+ * Like a real bus, it carries one transaction at a time: every access a core makes goes through a port that holds
+ * the bus's lock, so cores running on their own threads see each access whole and in some order.
+ */
+
+package Memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CoherenceBus {
+
+    // Every core's caches, then the shared ones top down (for bulk accesses, flush and invalidate)
+    private final List<Cache> coreCaches = new ArrayList<>();
+    private final List<Cache> sharedCaches = new ArrayList<>();
+    private final List<Cache> caches = new ArrayList<>();
+    private final List<MemoryLevel> sharedLevels = new ArrayList<>();
+    private MemoryLevel top;
+
+    // Statistics since the last resetStatistics()
+    private long reads;
+    private long readsExclusive;
+    private long upgrades;
+    private long interventions;
+    private long invalidations;
+
+    /**
+     * The levels the cores share, built the first time a core asks for them (later cores get the same ones)
+     * @param memory -> the memory at the bottom
+     * @param l2 -> the L2 cache, or null for none
+     * @param memoryLatency -> cycles per access to memory
+     * @return -> the top shared level, for the cores' L1 caches to sit in front of
+     */
+    MemoryLevel shared(Memory memory, CacheConfig l2, int memoryLatency) {
+        if (top == null) {
+            MainMemory main = new MainMemory(memory, memoryLatency);
+            top = main;
+            if (l2 != null) {
+                Cache secondLevel = new Cache("L2", l2, main);
+                sharedCaches.add(secondLevel);
+                sharedLevels.add(secondLevel);
+                top = secondLevel;
+            }
+            sharedLevels.add(main);
+        }
+        return top;
+    }
+
+    /**
+     * Puts one of a core's caches on the bus
+     */
+    void attach(Cache cache, int core) {
+        cache.setBus(this, core);
+        coreCaches.add(cache);
+        caches.clear();
+        caches.addAll(coreCaches);
+        caches.addAll(sharedCaches);
+    }
+
+    /**
+     * @param level -> where a core's accesses on one side go first
+     * @param core -> the core
+     * @param cached -> true if the level is one of the core's caches, false if it is shared
+     * @return -> a level in front of the given one that holds the bus for every access through it
+     */
+    MemoryLevel port(MemoryLevel level, int core, boolean cached) {
+        return new Port(level, core, cached);
+    }
+
+    /* TRANSACTIONS */
+
+    /**
+     * BusRd: a core is about to read the block from the shared levels (a cache filling it, or an uncached read)
+     */
+    void read(int core, int address) {
+        reads++;
+        for (Cache cache : coreCaches) {
+            if (cache.getCore() != core && cache.snoopRead(address)) {
+                interventions++;
+            }
+        }
+    }
+
+    /**
+     * BusRdX (a miss, or an uncached write) or BusUpgr (a hit on a Shared line): a core is about to write to the block
+     */
+    void write(int core, int address, boolean hit) {
+        if (hit) {
+            upgrades++;
+        } else {
+            readsExclusive++;
+        }
+        for (Cache cache : coreCaches) {
+            if (cache.getCore() != core && cache.snoopWrite(address)) {
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Looks a word up without counting an access: a newer copy in any core's cache (Modified, or waiting in a write
+     * buffer) wins over what the asking core's caches and the shared levels hold
+     * @param address -> a valid (physical) memory address
+     * @param own -> the asking core's way in
+     */
+    synchronized int peek(int address, MemoryLevel own) {
+        for (Cache cache : coreCaches) {
+            if (cache.holdsNewer(address)) {
+                return cache.peek(address);
+            }
+        }
+        return own.peek(address);
+    }
+
+    /* STATE */
+
+    /**
+     * @return -> every cache on the bus: the cores' caches, then the shared ones top down
+     */
+    List<Cache> getCaches() { return caches; }
+
+    /**
+     * @return -> the levels the cores share, top down (memory last)
+     */
+    public List<MemoryLevel> getSharedLevels() { return Collections.unmodifiableList(sharedLevels); }
+
+    public synchronized void resetStatistics() {
+        for (MemoryLevel level : sharedLevels) {
+            level.resetStatistics();
+        }
+        reads = 0;
+        readsExclusive = 0;
+        upgrades = 0;
+        interventions = 0;
+        invalidations = 0;
+    }
+
+    /**
+     * @return -> simulated cycles spent in the shared levels since the statistics were reset
+     */
+    public synchronized long getCycles() {
+        long cycles = 0;
+        for (MemoryLevel level : sharedLevels) {
+            cycles += level.getAccesses() * level.getLatency();
+        }
+        return cycles;
+    }
+
+    public long getReads() { return reads; }
+
+    public long getReadsExclusive() { return readsExclusive; }
+
+    public long getUpgrades() { return upgrades; }
+
+    /**
+     * @return -> Modified copies written back because another core read the block
+     */
+    public long getInterventions() { return interventions; }
+
+    /**
+     * @return -> copies dropped because another core wrote the block
+     */
+    public long getInvalidations() { return invalidations; }
+
+    /**
+     * One line per shared level, then the bus transactions and the shared levels' cycles
+     */
+    public synchronized String getStatistics() {
+        StringBuilder s = new StringBuilder();
+        for (MemoryLevel level : sharedLevels) {
+            s.append(MemoryHierarchy.describe(level)).append('\n');
+        }
+        s.append(String.format("bus: reads=%d exclusive=%d upgrades=%d interventions=%d invalidations=%d%n",
+                reads, readsExclusive, upgrades, interventions, invalidations));
+        s.append("cycles ").append(getCycles());
+        return s.toString();
+    }
+
+    /**
+     * Where a core's accesses get onto the bus
+     */
+    private final class Port implements MemoryLevel {
+        private final MemoryLevel level;
+        private final int core;
+        private final boolean cached;
+
+        Port(MemoryLevel level, int core, boolean cached) {
+            this.level = level;
+            this.core = core;
+            this.cached = cached;
+        }
+
+        @Override
+        public int read(int address) {
+            synchronized (CoherenceBus.this) {
+                if (!cached) {
+                    CoherenceBus.this.read(core, address);
+                }
+                return level.read(address);
+            }
+        }
+
+        @Override
+        public void write(int address, int value) {
+            synchronized (CoherenceBus.this) {
+                if (!cached) {
+                    CoherenceBus.this.write(core, address, false);
+                }
+                level.write(address, value);
+            }
+        }
+
+        @Override
+        public void readBlock(int address, int[] into, int start, int length) {
+            synchronized (CoherenceBus.this) {
+                level.readBlock(address, into, start, length);
+            }
+        }
+
+        @Override
+        public void writeBlock(int address, int[] from, int start, int length) {
+            synchronized (CoherenceBus.this) {
+                level.writeBlock(address, from, start, length);
+            }
+        }
+
+        @Override
+        public void account(int address, int length) {
+            synchronized (CoherenceBus.this) {
+                level.account(address, length);
+            }
+        }
+
+        @Override
+        public int peek(int address) {
+            synchronized (CoherenceBus.this) {
+                return level.peek(address);
+            }
+        }
+
+        @Override
+        public String getName() { return level.getName(); }
+
+        @Override
+        public int getLatency() { return level.getLatency(); }
+
+        @Override
+        public long getAccesses() { return level.getAccesses(); }
+
+        @Override
+        public void resetStatistics() { level.resetStatistics(); }
+    }
+}
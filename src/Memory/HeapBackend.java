@@ -0,0 +1,89 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Heap Backend - Memory words in a short[] (see MemoryBackend)
+ */
+
+package Memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+class HeapBackend implements MemoryBackend {
+
+    private final short[] words;
+
+    HeapBackend(int size) {
+        words = new short[size];
+    }
+
+    @Override
+    public int size() { return words.length; }
+
+    @Override
+    public int read(int address) { return words[address]; }
+
+    @Override
+    public void write(int address, int value) { words[address] = (short) value; }
+
+    @Override
+    public void read(int address, short[] into, int start, int length) {
+        System.arraycopy(words, address, into, start, length);
+    }
+
+    @Override
+    public void write(int address, short[] from, int start, int length) {
+        System.arraycopy(from, start, words, address, length);
+    }
+
+    @Override
+    public void clear() { Arrays.fill(words, (short) 0); }
+
+    @Override
+    public int addSubtract(VectorUnit unit, int dst, int src, int length, boolean subtract) {
+        return unit.addSubtract(words, dst, src, length, subtract);
+    }
+
+    @Override
+    public void load(Path image) throws IOException {
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(Math.min(channel.size(), 2L * words.length)));
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading
+            }
+            bytes.flip();
+            clear();
+            bytes.asShortBuffer().get(words, 0, bytes.remaining() / 2);
+        }
+    }
+
+    @Override
+    public void save(Path image) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(2 * words.length);
+        bytes.asShortBuffer().put(words);
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public String getName() { return "heap (" + words.length + " words)"; }
+
+    /**
+     * @return -> the words themselves (see Memory.getDirectWords)
+     */
+    short[] words() { return words; }
+
+    /**
+     * Nothing to release: the words are garbage collected with the backend
+     */
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,73 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Main Memory - The bottom of the memory hierarchy: the words of Memory, with a latency for every access
+ */
+
+package Memory;
+
+class MainMemory implements MemoryLevel {
+
+    private final Memory memory;
+    private final int latency;
+    private long accesses = 0;
+
+    MainMemory(Memory memory, int latency) {
+        this.memory = memory;
+        this.latency = latency;
+    }
+
+    @Override
+    public int read(int address) {
+        accesses++;
+        return memory.readWord(address);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        accesses++;
+        memory.writeWord(address, value);
+    }
+
+    @Override
+    public void readBlock(int address, int[] into, int start, int length) {
+        accesses++;
+        // the last block can run past the end of memory when the size isn't a multiple of the block size
+        int words = Math.min(length, memory.getSize() - address);
+        for (int i = 0; i < words; i++) {
+            into[start + i] = memory.readWord(address + i);
+        }
+        for (int i = Math.max(words, 0); i < length; i++) {
+            into[start + i] = 0;
+        }
+    }
+
+    @Override
+    public void writeBlock(int address, int[] from, int start, int length) {
+        accesses++;
+        int words = Math.min(length, memory.getSize() - address);
+        for (int i = 0; i < words; i++) {
+            memory.writeWord(address + i, from[start + i]);
+        }
+    }
+
+    @Override
+    public void account(int address, int length) { accesses++; }
+
+    @Override
+    public int peek(int address) { return memory.readWord(address); }
+
+    @Override
+    public String getName() { return "memory"; }
+
+    @Override
+    public int getLatency() { return latency; }
+
+    @Override
+    public long getAccesses() { return accesses; }
+
+    @Override
+    public void resetStatistics() { accesses = 0; }
+
+    void setAccesses(long accesses) { this.accesses = accesses; }
+}
@@ -0,0 +1,136 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Mapped Backend - Memory words in a memory mapped file (see MemoryBackend)
+ *
+ * The file is the memory image: whatever it held when it was mapped is what memory starts with, and the words
+ * written stay in it. Loading and saving other images are file to file copies the OS does in its page cache.
+ *
+ * close writes the words back to the file and closes its channel; the mapping itself goes when the buffer is garbage
+ * collected (Java can't unmap one sooner). A temporary file is deleted when its channel closes.
+ */
+
+package Memory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedBackend implements MemoryBackend {
+
+    private static final byte[] ZEROES = new byte[4096];
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer words;
+    private final ShortBuffer shorts;
+    private final int size;
+    private final boolean temporary;
+
+    MappedBackend(Path file, int size) throws IOException {
+        this(file, size, false);
+    }
+
+    private MappedBackend(Path file, int size, boolean temporary) throws IOException {
+        this.file = file;
+        this.size = size;
+        this.temporary = temporary;
+        channel = temporary
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // mapping past the end of the file grows it
+        words = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * size);
+        shorts = words.asShortBuffer();
+    }
+
+    /**
+     * A mapped memory backed by a temporary file (deleted when the backend is closed, or the simulator exits)
+     */
+    static MappedBackend temporary(int size) throws IOException {
+        return new MappedBackend(Files.createTempFile("simulator-memory", ".img"), size, true);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public int read(int address) { return words.getShort(address << 1); }
+
+    @Override
+    public void write(int address, int value) { words.putShort(address << 1, (short) value); }
+
+    @Override
+    public void read(int address, short[] into, int start, int length) {
+        shorts.get(address, into, start, length);
+    }
+
+    @Override
+    public void write(int address, short[] from, int start, int length) {
+        shorts.put(address, from, start, length);
+    }
+
+    @Override
+    public void clear() {
+        ByteBuffer all = words.duplicate().clear();
+        while (all.hasRemaining()) {
+            all.put(ZEROES, 0, Math.min(ZEROES.length, all.remaining()));
+        }
+    }
+
+    @Override
+    public int addSubtract(VectorUnit unit, int dst, int src, int length, boolean subtract) {
+        return unit.addSubtract(words, dst, src, length, subtract);
+    }
+
+    @Override
+    public void load(Path image) throws IOException {
+        // a temporary file may already be gone from the file system (see StandardOpenOption.DELETE_ON_CLOSE)
+        if (!temporary && Files.isSameFile(image, file)) {
+            return;
+        }
+        clear();
+        ByteBuffer into = words.duplicate().clear();
+        try (FileChannel source = FileChannel.open(image, StandardOpenOption.READ)) {
+            while (into.hasRemaining() && source.read(into) >= 0) {
+                // keep reading
+            }
+        }
+    }
+
+    @Override
+    public void save(Path image) throws IOException {
+        words.force();
+        if (!temporary && Files.exists(image) && Files.isSameFile(image, file)) {
+            return;
+        }
+        try (FileChannel target = FileChannel.open(image, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < 2L * size) {
+                position += channel.transferTo(position, 2L * size - position, target);
+            }
+        }
+    }
+
+    @Override
+    public String getName() { return "mapped " + file + " (" + size + " words)"; }
+
+    @Override
+    public void close() {
+        try {
+            if (channel.isOpen()) {
+                words.force();
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't close " + file, e);
+        }
+    }
+}
@@ -2,24 +2,79 @@
  * CSCI 6461 - Fall 2022
  * 
  * Memory class handles the total memory and interaction with memory
+ *
+ * The words themselves are kept by a MemoryBackend (a short[] by default, or a memory mapped file), which also sets
+ * the size of memory (2048 words by default, up to 65536).
+ *
+ * There are two ways in:
+ * * absolute (store, load, fetch): the CPU's own locations (reserved words, the PC)
+ * * relocated (insert, get, vector): program addresses, which are base + location for 0 <= location < limit. Running a
+ *   user program sets the base to USER_PROGRAM_OFFSET, so a program can't reach the reserved words or the boot program
+ * Both are checked with one unsigned compare and throw a MemoryFault for an address outside them. A caller that has
+ * already checked a range (checkRange) can use the unchecked accessors for the words in it.
+ *
+ * checkpoint and restore save and put back the whole memory, caches included, copying only the pages written in
+ * between (see MemorySnapshot).
+ *
+ * Words can be watched (watch) so that a CodeWatcher hears about every write to them, by any of the ways in, for
+ * code the CPU has decoded ahead of time.
+ *
+ * The cores of a multi-core machine each have a Memory of their own over one shared backend, so each has its own
+ * relocation registers and caches (see setHierarchy(String, CoherenceBus, int)).
  */
 
 package Memory;
 
 import Common.Common;
+import Common.Trace;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 public class Memory {
 
-	private final int memSize = 2048;
-	private final int[] memory;
+	private final int memSize;
+	private final MemoryBackend memory;
 	
-    private int memoryFault = -1;
 	private boolean runningUserProgram;
 
+	// Relocation registers for program addresses
+	private int base;
+	private int limit;
+
+	// Every read and write goes through the caches (MemoryHierarchy)
+	private MemoryHierarchy hierarchy;
+
+	// VADD/VSUB work on the memory array in bulk
+	private final VectorUnit vectorUnit = VectorUnit.create();
+
+	// Checkpoints: a page written since the last checkpoint or restore is marked dirty
+	public static final int PAGE_BITS = 8;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private final int pageCount;
+	private final long[] dirtyPages;
+	private short[][] savedPages;	// the pages as of the last checkpoint or restore (null before the first)
+
+	// Code watch: one bit per word; a write to a watched word is reported to the code watcher
+	private final long[] watchedWords;
+	private CodeWatcher codeWatcher;
+
 	public Memory() {
-		memory = new int[memSize];
+		this(MemoryBackend.fromSystemProperties());
+	}
+
+	/**
+	 * @param backend -> where the words are kept (see MemoryBackend)
+	 */
+	public Memory(MemoryBackend backend) {
+		memory = backend;
+		memSize = backend.size();
+		limit = memSize;
+		pageCount = (memSize + PAGE_SIZE - 1) >> PAGE_BITS;
+		dirtyPages = new long[(pageCount + 63) >> 6];
+		watchedWords = new long[(memSize + 63) >> 6];
+		hierarchy = MemoryHierarchy.fromSystemProperties(this);
 		// initialize the memory table
 		setReservedLocations();
 		runningUserProgram = false;
@@ -54,112 +109,484 @@ public class Memory {
 		}
 		catch(NumberFormatException ne){
 			// todo: fault
-			System.out.println("hexToDec: invalid input string");
+			Trace.error(Trace.MEMORY, "hexToDec: invalid input string");
 		}
 		return -1;
 	}
 
 	/**
-	 * Inserts a word into memory at the specified location
+	 * Inserts a word into memory at the specified (absolute) location
 	 *
 	 * @param value - the value to be inserted
 	 * @param location - the location in memory to insert the value into
+	 * @throws MemoryFault - if the location is outside memory
 	 */
 	public void store(int value, int location) {
-		if (location < 0 || location > memSize) {
-			if (location < 0) {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION;
-			} else {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS;
-			}
-			System.out.println("[Error] Insert value into memory " + location + ": illegal location");
-			return;
-		}
-		memory[location] = value;
+		write(checkAbsolute(location), value);
 	}
 
 	/**
-	 * Inserts a word into memory at the specified location
+	 * Inserts a word into memory at the specified program location
 	 *
-	 * If a user program is running, we want to offset the location because we don't want users inserting at
-	 * restricted memory locations. So when a user program inserts at location 0, they are actually inserting
-	 * at location 0 + user program offset.
+	 * The location is relocated: when a user program is running, a program inserting at location 0 is actually
+	 * inserting at location 0 + user program offset, so users can't insert at restricted memory locations.
 	 * @param value - the value to be inserted
-	 * @param location - the location in memory to insert the value into
+	 * @param location - the program location to insert the value into
+	 * @throws MemoryFault - if the location is outside the program's memory
 	 */
 	public void insert(int value, int location) {
-		if (runningUserProgram) {
-			location += Common.USER_PROGRAM_OFFSET;
-		}
-		if (location < 0 || location > memSize) {
-			if (location < 0) {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION;
-			} else {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS;
+		write(relocate(location), value);
+	}
+
+	/**
+	 * Reads an instruction word: like load, but through the instruction side of the hierarchy
+	 *
+	 * @param location - the (absolute) location of the instruction
+	 * @return - the instruction word
+	 * @throws MemoryFault - if the location is outside memory
+	 */
+	public int fetch(int location) {
+		return hierarchy.fetch(checkAbsolute(location));
+	}
+
+	/**
+	 * @param location - the (absolute) location to read
+	 * @return - the word there
+	 * @throws MemoryFault - if the location is outside memory
+	 */
+	public int load(int location) {
+		return read(checkAbsolute(location));
+	}
+
+	/**
+	 * @param location - the program location to read (relocated like insert)
+	 * @return - the word there
+	 * @throws MemoryFault - if the location is outside the program's memory
+	 */
+	public int get(int location) {
+		return read(relocate(location));
+	}
+
+	/**
+	 * Copies a block of words to program locations (relocated like insert) straight into the memory words, for
+	 * loading programs. The caches write back and drop what they hold for the range first; no accesses are counted
+	 * @param location - the first program location
+	 * @param words - the words to copy
+	 * @param start - where they start in the array
+	 * @param length - how many there are
+	 * @throws MemoryFault - if the block is outside the program's memory (nothing is copied)
+	 */
+	public void insertBlock(int location, short[] words, int start, int length) {
+		checkRange(location, length);
+		int address = base + location;
+		hierarchy.evict(address, length);
+		memory.write(address, words, start, length);
+		markDirty(address, length);
+		codeWritten(address, length);
+	}
+
+	/**
+	 * get without the check, for a location in a range already passed to checkRange
+	 */
+	public int getUnchecked(int location) {
+		return read(base + location);
+	}
+
+	/**
+	 * insert without the check, for a location in a range already passed to checkRange
+	 */
+	public void insertUnchecked(int value, int location) {
+		write(base + location, value);
+	}
+
+	/**
+	 * Checks a range of program locations once, for the unchecked accessors (or a bulk operation) to use
+	 * @param location -> the first program location
+	 * @param length -> the number of words
+	 * @throws MemoryFault -> if any of the words is outside the program's memory
+	 */
+	public void checkRange(int location, int length) {
+		if (location < 0 || length < 0 || location > limit - length) {
+			throw fault(location);
+		}
+	}
+
+	/**
+	 * VADD/VSUB: v1[i] = v1[i] + v2[i] (or - v2[i]) for i < length, on 16 bit words
+	 *
+	 * Like insert/get, the vectors are at program locations. Both ranges are checked once (nothing is changed if
+	 * either is out of bounds), then the words are worked on in the memory array in bulk, with the caches written
+	 * back before and their copies of v1 dropped after (see MemoryHierarchy.bulkRead/bulkWrite).
+	 * @param v1 -> the first vector, which is replaced by the result
+	 * @param v2 -> the second vector
+	 * @param length -> the number of elements
+	 * @param subtract -> VSUB instead of VADD
+	 * @return -> the condition codes the elements set (overflow in bit 0, underflow in bit 1)
+	 * @throws MemoryFault -> if either vector is outside the program's memory
+	 */
+	public int vector(int v1, int v2, int length, boolean subtract) {
+		if (length <= 0) {
+			return 0;
+		}
+		checkRange(v1, length);
+		checkRange(v2, length);
+		v1 += base;
+		v2 += base;
+		// on a multi-core machine the other cores wait until the result is back in memory
+		synchronized (hierarchy.getLock()) {
+			hierarchy.bulkRead(v1, length);
+			hierarchy.bulkRead(v2, length);
+			int flags = memory.addSubtract(vectorUnit, v1, v2, length, subtract);
+			markDirty(v1, length);
+			codeWritten(v1, length);
+			hierarchy.bulkWrite(v1, length);
+			return flags;
+		}
+	}
+
+	private int relocate(int location) {
+		// a negative location compares above the limit too
+		if (Integer.compareUnsigned(location, limit) >= 0) {
+			throw fault(location);
+		}
+		return base + location;
+	}
+
+	private int checkAbsolute(int location) {
+		if (Integer.compareUnsigned(location, memSize) >= 0) {
+			throw fault(location);
+		}
+		return location;
+	}
+
+	private static MemoryFault fault(int location) {
+		return new MemoryFault(location < 0 ? Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION
+				: Common.ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS, location);
+	}
+
+	/**
+	 * @return -> which vector unit VADD/VSUB run on ("simd (n lanes)" or "scalar")
+	 */
+	public String getVectorUnit() { return vectorUnit.getName(); }
+
+	private int read(int location) {
+		return hierarchy.read(location);
+	}
+
+	private void write(int location, int value) {
+		// words are 16 bits; the caches hold them the way memory gives them back
+		hierarchy.write(location, value << 16 >> 16);
+		if ((watchedWords[location >>> 6] & 1L << location) != 0) {
+			codeWatcher.codeWritten(location, 1);
+		}
+	}
+
+	/**
+	 * Reads a word (absolute) the way the program would see it, without counting an access in the caches
+	 * @throws MemoryFault - if the location is outside memory
+	 */
+	public int peek(int location) {
+		return hierarchy.peek(checkAbsolute(location));
+	}
+
+	/* CODE WATCH */
+
+	/**
+	 * @param watcher -> told about writes to watched words (replaces the last one; every word is unwatched)
+	 */
+	public void setCodeWatcher(CodeWatcher watcher) {
+		Arrays.fill(watchedWords, 0);
+		codeWatcher = watcher;
+	}
+
+	/**
+	 * Watches a range of (absolute) words: the code watcher is told when any of them is written
+	 */
+	public void watch(int location, int length) {
+		for (int word = location; word < location + length; word++) {
+			watchedWords[word >>> 6] |= 1L << word;
+		}
+	}
+
+	/**
+	 * Stops watching a range of (absolute) words
+	 */
+	public void unwatch(int location, int length) {
+		for (int word = location; word < location + length; word++) {
+			watchedWords[word >>> 6] &= ~(1L << word);
+		}
+	}
+
+	private int[] watchedWords() {
+		int count = 0;
+		for (long bits : watchedWords) {
+			count += Long.bitCount(bits);
+		}
+		int[] words = new int[count];
+		int n = 0;
+		for (int i = 0; i < watchedWords.length; i++) {
+			for (long bits = watchedWords[i]; bits != 0; bits &= bits - 1) {
+				words[n++] = i << 6 | Long.numberOfTrailingZeros(bits);
 			}
-			System.out.println("[Error] Insert value into memory " + location + ": illegal location");
+		}
+		return words;
+	}
+
+	/**
+	 * Tells the code watcher about a bulk write if it touched a watched word (every write, for the whole memory)
+	 */
+	private void codeWritten(int location, int length) {
+		if (codeWatcher == null) {
 			return;
 		}
-		memory[location] = value;
+		for (int word = location; word < location + length; word++) {
+			if ((watchedWords[word >>> 6] & 1L << word) != 0) {
+				codeWatcher.codeWritten(location, length);
+				return;
+			}
+		}
 	}
 
-	public int load(int location) {
-		if (location < 0 || location > memSize) {
-			if (location < 0) {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION;
-			} else {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS;
+	/**
+	 * Raw access to the memory words, for the bottom of the hierarchy (MainMemory)
+	 */
+	int readWord(int location) { return memory.read(location); }
+
+	void writeWord(int location, int value) {
+		memory.write(location, value);
+		dirtyPages[location >>> PAGE_BITS >>> 6] |= 1L << (location >>> PAGE_BITS);
+	}
+
+	private void markDirty(int location, int length) {
+		for (int page = location >>> PAGE_BITS; page <= (location + length - 1) >>> PAGE_BITS; page++) {
+			dirtyPages[page >>> 6] |= 1L << page;
+		}
+	}
+
+	private void markAllDirty() {
+		Arrays.fill(dirtyPages, -1L);
+	}
+
+	/**
+	 * Saves the contents of memory, the caches and the relocation registers. Only the pages written since the last
+	 * checkpoint (or restore) are copied; the rest are shared with it
+	 * @return -> the snapshot, for restore
+	 */
+	public MemorySnapshot checkpoint() {
+		short[][] pages;
+		if (savedPages == null) {
+			pages = new short[pageCount][];
+			for (int page = 0; page < pageCount; page++) {
+				pages[page] = copyPage(page);
+			}
+		} else {
+			pages = savedPages.clone();
+			for (int i = 0; i < dirtyPages.length; i++) {
+				for (long bits = dirtyPages[i]; bits != 0; bits &= bits - 1) {
+					int page = i << 6 | Long.numberOfTrailingZeros(bits);
+					if (page < pageCount) {
+						pages[page] = copyPage(page);
+					}
+				}
 			}
-			System.out.println("[Error] Get value into memory " + location + ": illegal location");
-			return 0;
 		}
-		return memory[location];
+		Arrays.fill(dirtyPages, 0);
+		savedPages = pages;
+		return new MemorySnapshot(this, pages, base, limit, runningUserProgram, hierarchy, hierarchy.saveState());
 	}
 
-	public int get(int location) {
-		if (runningUserProgram) {
-			location += Common.USER_PROGRAM_OFFSET;
+	/**
+	 * Puts memory back the way it was at a checkpoint. Only the pages written since the last checkpoint (or restore),
+	 * and those that differ between the two snapshots, are written
+	 * @param snapshot -> a snapshot of this memory
+	 */
+	public void restore(MemorySnapshot snapshot) {
+		if (snapshot.memory != this) {
+			throw new IllegalArgumentException("the snapshot is of another memory");
+		}
+		// the watched words as the program sees them now, to tell the code watcher which ones the restore changes
+		int[] watched = watchedWords();
+		int[] before = new int[watched.length];
+		for (int i = 0; i < watched.length; i++) {
+			before[i] = hierarchy.peek(watched[i]);
 		}
 
-		if (location < 0 || location > memSize) {
-			if (location < 0) {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION;
-			} else {
-				memoryFault = Common.ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS;
+		short[][] pages = snapshot.pages;
+		if (savedPages != pages) {
+			for (int page = 0; page < pageCount; page++) {
+				if (savedPages == null || savedPages[page] != pages[page]) {
+					dirtyPages[page >>> 6] |= 1L << page;
+				}
+			}
+		}
+		for (int i = 0; i < dirtyPages.length; i++) {
+			for (long bits = dirtyPages[i]; bits != 0; bits &= bits - 1) {
+				int page = i << 6 | Long.numberOfTrailingZeros(bits);
+				if (page < pageCount) {
+					memory.write(page << PAGE_BITS, pages[page], 0, pages[page].length);
+				}
 			}
-			System.out.println("[Error] Get value into memory " + location + ": illegal location");
-			return 0;
 		}
-		return memory[location];
+		Arrays.fill(dirtyPages, 0);
+		savedPages = pages;
+
+		base = snapshot.base;
+		limit = snapshot.limit;
+		runningUserProgram = snapshot.runningUserProgram;
+		hierarchy = snapshot.hierarchy;
+		hierarchy.restoreState(snapshot.hierarchyState);
+		for (int i = 0; i < watched.length; i++) {
+			if (hierarchy.peek(watched[i]) != before[i]) {
+				codeWatcher.codeWritten(watched[i], 1);
+			}
+		}
+	}
+
+	private short[] copyPage(int page) {
+		int start = page << PAGE_BITS;
+		short[] words = new short[Math.min(PAGE_SIZE, memSize - start)];
+		memory.read(start, words, 0, words.length);
+		return words;
+	}
+
+	/**
+	 * Replaces the contents of memory with an image (see MemoryBackend). The caches are emptied
+	 * @param image -> the image file
+	 * @throws IOException -> if the image can't be read
+	 */
+	public void loadImage(Path image) throws IOException {
+		memory.load(image);
+		markAllDirty();
+		hierarchy.invalidate();
+		codeWritten(0, memSize);
+	}
+
+	/**
+	 * Writes the contents of memory, including anything still in the caches, to an image (see MemoryBackend)
+	 * @param image -> the image file
+	 * @throws IOException -> if the image can't be written
+	 */
+	public void saveImage(Path image) throws IOException {
+		hierarchy.flush();
+		memory.save(image);
+	}
+
+	/**
+	 * @return -> the number of words of memory
+	 */
+	public int getSize() { return memSize; }
+
+	public MemoryBackend getBackend() { return memory; }
+
+	/**
+	 * Puts a new set of caches in front of memory. Anything the old ones were holding is written back first
+	 * @param spec -> the levels (see MemoryHierarchy), or "off"
+	 */
+	public void setHierarchy(String spec) {
+		MemoryHierarchy replacement = new MemoryHierarchy(this, spec);
+		hierarchy.flush();
+		hierarchy = replacement;
+	}
+
+	/**
+	 * Makes this memory one core's view of a multi-core machine's memory (see Machine.MultiCoreMachine): the core's
+	 * own L1 caches, on the bus, in front of the shared levels. Anything the old caches were holding is written back
+	 * first
+	 * @param spec -> the levels (see MemoryHierarchy), the same for every core
+	 * @param bus -> the bus the cores share
+	 * @param core -> the core number
+	 */
+	public void setHierarchy(String spec, CoherenceBus bus, int core) {
+		MemoryHierarchy replacement = new MemoryHierarchy(this, spec, bus, core);
+		hierarchy.flush();
+		hierarchy = replacement;
+	}
+
+	public MemoryHierarchy getHierarchy() { return hierarchy; }
+
+	/**
+	 * The words themselves, for compiled blocks that read memory without going through the hierarchy (see
+	 * CPU.runCompiled). There is only nothing to go through when the hierarchy has no caches (and no bus) and the
+	 * words are on the heap. A caller reads program locations base + location after checking them against the limit
+	 * itself, and counts its reads with countDirectReads; writes still go through insert
+	 * @return -> the words, or null if reads have to go through the hierarchy
+	 */
+	public short[] getDirectWords() {
+		return hierarchy.isEmpty() && memory instanceof HeapBackend ? ((HeapBackend) memory).words() : null;
+	}
+
+	/**
+	 * The first caches in front of memory, for compiled blocks that read through them without the rest of the walk
+	 * (see CPU.runCompiled). A caller reads program locations base + location after checking them against the limit
+	 * itself; writes still go through insert
+	 * @return -> the cache instruction fetches go to first, or null if there is none (or a bus in front of it)
+	 */
+	public Cache getDirectInstructionCache() {
+		return hierarchy.getInstructionCache();
+	}
+
+	/**
+	 * @return -> the cache data reads go to first, or null (see getDirectInstructionCache)
+	 */
+	public Cache getDirectDataCache() {
+		return hierarchy.getDataCache();
+	}
+
+	/**
+	 * Counts reads made on the words from getDirectWords as accesses to memory
+	 */
+	public void countDirectReads(long reads) {
+		hierarchy.countMemoryAccesses(reads);
 	}
 
 	public boolean getRunningUserProgram() {
 		return runningUserProgram;
 	}
 
+	/**
+	 * Switches program addresses between the user program (relocated past the boot program) and absolute
+	 */
 	public void setRunningUserProgram(boolean running) {
 		runningUserProgram = running;
+		int start = running ? Common.USER_PROGRAM_OFFSET : 0;
+		setRelocation(start, memSize - start);
 	}
 
-	public void reset() {
-		Arrays.fill(memory, 0);
-		setReservedLocations();
-		memoryFault = -1;
+	/**
+	 * Sets the relocation registers: program location l is memory location base + l, for 0 <= l < limit
+	 * @param base -> the first memory location of the program's memory
+	 * @param limit -> the number of words in it
+	 */
+	public void setRelocation(int base, int limit) {
+		if (base < 0 || limit < 0 || base > memSize - limit) {
+			throw new IllegalArgumentException("relocation " + base + "+" + limit + " is outside memory");
+		}
+		this.base = base;
+		this.limit = limit;
 	}
 
-	public int getMemoryFault() {
-		return memoryFault;
+	public int getBase() { return base; }
+
+	public int getLimit() { return limit; }
+
+	public void reset() {
+		memory.clear();
+		markAllDirty();
+		hierarchy.invalidate();
+		codeWritten(0, memSize);
+		setReservedLocations();
 	}
 
 	public String getMemoryString() {
-        String s = "Memory:\n";
-        for (int i = 0; i < memory.length; i++) {
-            if (memory[i] != 0) {
-                s += "" + i + ":" + memory[i] + "\t";
+        StringBuilder s = new StringBuilder("Memory:\n");
+        for (int i = 0; i < memSize; i++) {
+            int value = hierarchy.peek(i);
+            if (value != 0) {
+                s.append(i).append(':').append(value).append('\t');
             }
-            if (i == Common.BOOT_PROGRAM_ADDRESS-1) { s += "\n"; }
-            if (i == Common.USER_PROGRAM_OFFSET-1) {  s += "\n"; }
+            if (i == Common.BOOT_PROGRAM_ADDRESS-1) { s.append('\n'); }
+            if (i == Common.USER_PROGRAM_OFFSET-1) {  s.append('\n'); }
         }
-        return s;
+        return s.toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Backend - Where the words of memory are kept
+ *
+ * Words are 16 bits: a write keeps the low 16 bits of the value and a read gives them back sign extended.
+ * * heap: a short[] (the default)
+ * * mapped:FILE: a file mapped into memory (MappedByteBuffer), so the memory lives outside the Java heap and the file
+ *   is a memory image that stays after the simulator exits. Without a file, a temporary one is used.
+ * Chosen with -Dsimulator.memory=heap|mapped[:FILE] and sized with -Dsimulator.memory.size (words, up to 65536).
+ *
+ * Images (load/save) are the words in order, 2 bytes each, big-endian; a shorter image leaves the rest of memory 0.
+ * Whoever creates a backend closes it when the memory is discarded (see Machine.close).
+ */
+
+package Memory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+public interface MemoryBackend extends AutoCloseable {
+
+    int DEFAULT_SIZE = 2048;
+    int MAX_SIZE = 1 << 16;
+
+    /**
+     * @return -> the number of words
+     */
+    int size();
+
+    /**
+     * @return -> the word at the address, sign extended
+     */
+    int read(int address);
+
+    /**
+     * Writes the low 16 bits of the value
+     */
+    void write(int address, int value);
+
+    /**
+     * Copies words out to an array (the 16 bits of each)
+     */
+    void read(int address, short[] into, int start, int length);
+
+    /**
+     * Copies words in from an array
+     */
+    void write(int address, short[] from, int start, int length);
+
+    /**
+     * Sets every word to 0
+     */
+    void clear();
+
+    /**
+     * VADD/VSUB on the words (see VectorUnit.addSubtract); the ranges are already checked
+     */
+    int addSubtract(VectorUnit unit, int dst, int src, int length, boolean subtract);
+
+    /**
+     * Replaces the contents of memory with an image file
+     */
+    void load(Path image) throws IOException;
+
+    /**
+     * Writes the contents of memory to an image file
+     */
+    void save(Path image) throws IOException;
+
+    String getName();
+
+    /**
+     * Releases what the backend holds besides its words (a mapped file's channel); nothing is read or written after
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates a backend from its description (see the class comment)
+     * @param spec -> "heap", "mapped" or "mapped:FILE"
+     * @param size -> the number of words, 1 to MAX_SIZE
+     * @return -> the backend
+     */
+    static MemoryBackend create(String spec, int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("memory size must be 1 to " + MAX_SIZE + " words, not " + size);
+        }
+        String[] pair = spec.trim().split(":", 2);
+        switch (pair[0].toLowerCase(Locale.ROOT)) {
+            case "heap":
+                return new HeapBackend(size);
+            case "mapped":
+                try {
+                    return pair.length > 1 ? new MappedBackend(Path.of(pair[1]), size) : MappedBackend.temporary(size);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("can't map memory: " + e.getMessage(), e);
+                }
+            default:
+                throw new IllegalArgumentException("unknown memory backend: " + pair[0]);
+        }
+    }
+
+    /**
+     * The backend asked for on the command line: -Dsimulator.memory and -Dsimulator.memory.size
+     */
+    static MemoryBackend fromSystemProperties() {
+        return create(System.getProperty("simulator.memory", "heap"),
+                Integer.getInteger("simulator.memory.size", DEFAULT_SIZE));
+    }
+}
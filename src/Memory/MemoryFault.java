@@ -0,0 +1,42 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Fault - Thrown by the checked memory accessors (see Memory) when an address is outside the memory the
+ * access may use. The CPU catches it once per instruction cycle and hands the fault to CPU.handleMachineFault.
+ *
+ * Faults are part of normal running (a program can take one on purpose), so no stack trace is filled in.
+ */
+
+package Memory;
+
+import Common.Common;
+
+public final class MemoryFault extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int fault;
+    private final int address;
+
+    MemoryFault(int fault, int address) {
+        super(null, null, false, false);
+        this.fault = fault;
+        this.address = address;
+    }
+
+    /**
+     * @return -> the fault id (Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION or ILLEGAL_MEMORY_ADDRESS_OUT_OF_BOUNDS)
+     */
+    public int getFault() { return fault; }
+
+    /**
+     * @return -> the address that was accessed, as the access gave it (before relocation)
+     */
+    public int getAddress() { return address; }
+
+    @Override
+    public String getMessage() {
+        return (fault == Common.ILLEGAL_MEMORY_ADDRESS_RESERVED_LOCATION ? "reserved location " : "out of bounds ")
+                + address;
+    }
+}
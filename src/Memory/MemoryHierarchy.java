@@ -0,0 +1,372 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Hierarchy - The caches between the CPU and memory, and the simulated cycles spent in them
+ *
+ * Instruction fetches and data accesses take separate paths, so the hierarchy can be a single unified cache, split
+ * L1 instruction/data caches, and/or a unified L2 behind them. It is written as levels separated by ';':
+ *   l1i:lines=16,block=4;l1d:lines=16,block=4,write=back;l2:lines=128,block=8,ways=4,latency=10;memory:latency=100
+ * * l1 (unified) or l1i/l1d (split): defaults to 1 cycle
+ * * l2: unified, behind the L1 caches; defaults to 10 cycles
+ * * memory: only takes a latency; defaults to 100 cycles
+ * Levels left out aren't there. "off" means no caches at all.
+ *
+ * Every access to a level costs its latency, whether it is a word from the CPU or a block moved by the level above,
+ * so the simulated cycle count is the sum over the levels of accesses * latency.
+ *
+ * Chosen with -Dsimulator.hierarchy, or -Dsimulator.cache=<cache config> for a single unified cache.
+ * The default is a single unified CacheConfig.DEFAULT cache.
+ *
+ * In a multi-core machine every core has a hierarchy of its own L1 caches, and the L2 and memory are shared between
+ * the cores through a CoherenceBus. A core's levels and statistics are then only its L1 caches; the bus reports the
+ * shared levels.
+ */
+
+package Memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class MemoryHierarchy {
+
+    public static final int DEFAULT_L1_LATENCY = 1;
+    public static final int DEFAULT_L2_LATENCY = 10;
+    public static final int DEFAULT_MEMORY_LATENCY = 100;
+
+    private final String spec;
+
+    // Where instruction fetches and data accesses go first
+    private final MemoryLevel instruction;
+    private final MemoryLevel data;
+
+    // Every level, top down (caches first, memory last)
+    private final List<MemoryLevel> levels = new ArrayList<>();
+    private final List<Cache> caches = new ArrayList<>();
+    private final MainMemory main;	// null for a core of a multi-core machine
+
+    // The bus joining this core's caches to the other cores' (null for a single CPU)
+    private final CoherenceBus bus;
+
+    /**
+     * Builds a hierarchy in front of memory
+     * @param memory -> the memory at the bottom
+     * @param spec -> the levels (see the class comment)
+     */
+    public MemoryHierarchy(Memory memory, String spec) {
+        this(memory, spec, null, 0);
+    }
+
+    /**
+     * Builds a core's hierarchy for a multi-core machine: its own L1 caches, on the bus, in front of the L2 and memory
+     * the bus shares between the cores
+     * @param memory -> the memory at the bottom
+     * @param spec -> the levels (see the class comment); the same for every core
+     * @param bus -> the cores' bus, or null for a single CPU
+     * @param core -> the core number
+     */
+    public MemoryHierarchy(Memory memory, String spec, CoherenceBus bus, int core) {
+        this.spec = spec.trim();
+        this.bus = bus;
+        CacheConfig unified = null;
+        CacheConfig l1i = null;
+        CacheConfig l1d = null;
+        CacheConfig l2 = null;
+        int memoryLatency = DEFAULT_MEMORY_LATENCY;
+
+        CacheConfig l1Defaults = withLatency(CacheConfig.DEFAULT, DEFAULT_L1_LATENCY);
+        CacheConfig l2Defaults = withLatency(CacheConfig.DEFAULT, DEFAULT_L2_LATENCY);
+        if (!this.spec.equalsIgnoreCase("off")) {
+            for (String level : this.spec.split(";")) {
+                if (level.isBlank()) {
+                    continue;
+                }
+                String[] pair = level.split(":", 2);
+                String config = pair.length > 1 ? pair[1] : "";
+                switch (pair[0].trim().toLowerCase(Locale.ROOT)) {
+                    case "l1": unified = CacheConfig.parse(config, l1Defaults); break;
+                    case "l1i": l1i = CacheConfig.parse(config, l1Defaults); break;
+                    case "l1d": l1d = CacheConfig.parse(config, l1Defaults); break;
+                    case "l2": l2 = CacheConfig.parse(config, l2Defaults); break;
+                    case "memory": memoryLatency = parseMemoryLatency(config); break;
+                    default: throw new IllegalArgumentException("unknown memory level: " + pair[0]);
+                }
+            }
+        }
+        if (unified != null && (l1i != null || l1d != null)) {
+            throw new IllegalArgumentException("the L1 cache can be unified (l1) or split (l1i/l1d), not both");
+        }
+
+        MemoryLevel below;
+        Cache secondLevel = null;
+        if (bus != null) {
+            main = null;
+            below = bus.shared(memory, l2, memoryLatency);
+        } else {
+            main = new MainMemory(memory, memoryLatency);
+            below = main;
+            if (l2 != null) {
+                secondLevel = new Cache("L2", l2, below);
+                below = secondLevel;
+            }
+        }
+        MemoryLevel instructionSide;
+        MemoryLevel dataSide;
+        if (unified != null) {
+            Cache l1 = new Cache("L1", unified, below);
+            caches.add(l1);
+            instructionSide = l1;
+            dataSide = l1;
+        } else {
+            Cache instructionCache = l1i != null ? new Cache("L1I", l1i, below) : null;
+            Cache dataCache = l1d != null ? new Cache("L1D", l1d, below) : null;
+            if (instructionCache != null && dataCache != null) {
+                instructionCache.setPeer(dataCache);
+                dataCache.setPeer(instructionCache);
+            }
+            if (instructionCache != null) {
+                caches.add(instructionCache);
+            }
+            if (dataCache != null) {
+                caches.add(dataCache);
+            }
+            instructionSide = instructionCache != null ? instructionCache : below;
+            dataSide = dataCache != null ? dataCache : below;
+        }
+        if (secondLevel != null) {
+            caches.add(secondLevel);
+        }
+        levels.addAll(caches);
+        if (bus != null) {
+            for (Cache cache : caches) {
+                bus.attach(cache, core);
+            }
+            instruction = bus.port(instructionSide, core, instructionSide != below);
+            data = bus.port(dataSide, core, dataSide != below);
+        } else {
+            instruction = instructionSide;
+            data = dataSide;
+            levels.add(main);
+        }
+    }
+
+    /**
+     * The hierarchy asked for on the command line (see specFromSystemProperties)
+     * @param memory -> the memory at the bottom
+     * @return -> the hierarchy
+     */
+    public static MemoryHierarchy fromSystemProperties(Memory memory) {
+        return new MemoryHierarchy(memory, specFromSystemProperties());
+    }
+
+    /**
+     * @return -> the levels asked for on the command line: -Dsimulator.hierarchy, else -Dsimulator.cache as a single
+     *            unified cache, else the default unified cache
+     */
+    public static String specFromSystemProperties() {
+        String hierarchy = System.getProperty("simulator.hierarchy");
+        if (hierarchy != null) {
+            return hierarchy;
+        }
+        String cache = System.getProperty("simulator.cache");
+        if (cache == null) {
+            return "l1:" + CacheConfig.DEFAULT;
+        }
+        return CacheConfig.parse(cache) == null ? "off" : "l1:" + cache;
+    }
+
+    private static CacheConfig withLatency(CacheConfig config, int latency) {
+        return new CacheConfig(config.lines, config.blockSize, config.associativity, config.replacement,
+                config.writePolicy, config.writeBufferSize, latency);
+    }
+
+    private static int parseMemoryLatency(String config) {
+        String value = config.trim().toLowerCase(Locale.ROOT);
+        if (value.startsWith("latency=")) {
+            value = value.substring("latency=".length());
+        }
+        return value.isEmpty() ? DEFAULT_MEMORY_LATENCY : Integer.parseInt(value);
+    }
+
+    /* ACCESS */
+
+    public int fetch(int address) { return instruction.read(address); }
+
+    public int read(int address) { return data.read(address); }
+
+    public void write(int address, int value) { data.write(address, value); }
+
+    /**
+     * Looks a word up without counting an access; on a multi-core machine, in every core's caches (see
+     * CoherenceBus.peek)
+     */
+    public int peek(int address) { return bus != null ? bus.peek(address, data) : data.peek(address); }
+
+    /**
+     * A bulk (vector) read of a range straight from the memory array: the caches write back what they hold for it
+     * first, and each level counts one access per block (see MemoryLevel.account)
+     */
+    public void bulkRead(int address, int length) {
+        for (Cache cache : coherentCaches()) {
+            cache.clean(address, length);
+        }
+        data.account(address, length);
+    }
+
+    /**
+     * A bulk (vector) write of a range straight to the memory array: counted like bulkRead, and the caches drop
+     * their (now old) copies of it
+     */
+    public void bulkWrite(int address, int length) {
+        data.account(address, length);
+        for (Cache cache : coherentCaches()) {
+            cache.discard(address, length);
+        }
+    }
+
+    /**
+     * The range is about to be written straight to the memory array (a program load): the caches write back what
+     * they hold for it and drop it, without counting any accesses
+     */
+    public void evict(int address, int length) {
+        for (Cache cache : coherentCaches()) {
+            cache.clean(address, length);
+            cache.discard(address, length);
+        }
+    }
+
+    /**
+     * @return -> the caches a bulk access has to keep up to date: this hierarchy's, or every cache on the bus
+     */
+    private List<Cache> coherentCaches() {
+        return bus != null ? bus.getCaches() : caches;
+    }
+
+    /**
+     * @return -> what to hold while working on memory in bulk: the bus, so no core gets between its steps
+     */
+    Object getLock() {
+        return bus != null ? bus : this;
+    }
+
+    /* STATE */
+
+    /**
+     * Writes everything held in the caches down to memory, top level first
+     */
+    public void flush() {
+        for (Cache cache : coherentCaches()) {
+            cache.flush();
+        }
+    }
+
+    /**
+     * Empties every cache without writing anything back (memory was reset)
+     */
+    public void invalidate() {
+        for (Cache cache : coherentCaches()) {
+            cache.invalidate();
+        }
+    }
+
+    public void resetStatistics() {
+        for (MemoryLevel level : levels) {
+            level.resetStatistics();
+        }
+    }
+
+    /**
+     * Copies the state of every level (the caches' lines and statistics, memory's access count), for a checkpoint
+     */
+    State saveState() {
+        Cache.State[] states = new Cache.State[caches.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = caches.get(i).saveState();
+        }
+        return new State(states, main != null ? main.getAccesses() : 0);
+    }
+
+    void restoreState(State state) {
+        for (int i = 0; i < state.caches.length; i++) {
+            caches.get(i).restoreState(state.caches[i]);
+        }
+        if (main != null) {
+            main.setAccesses(state.memoryAccesses);
+        }
+    }
+
+    static final class State {
+        private final Cache.State[] caches;
+        private final long memoryAccesses;
+
+        private State(Cache.State[] caches, long memoryAccesses) {
+            this.caches = caches;
+            this.memoryAccesses = memoryAccesses;
+        }
+    }
+
+    /* STATISTICS */
+
+    /**
+     * @return -> simulated cycles spent in the hierarchy since the statistics were reset
+     */
+    public long getCycles() {
+        long cycles = 0;
+        for (MemoryLevel level : levels) {
+            cycles += level.getAccesses() * level.getLatency();
+        }
+        return cycles;
+    }
+
+    public List<MemoryLevel> getLevels() { return Collections.unmodifiableList(levels); }
+
+    /**
+     * @return -> true if there is nothing in front of memory: no caches and no bus
+     */
+    boolean isEmpty() { return caches.isEmpty() && bus == null; }
+
+    /**
+     * @return -> the cache instruction fetches go to first, or null if they go straight to memory or over a bus
+     */
+    Cache getInstructionCache() { return bus == null && instruction instanceof Cache ? (Cache) instruction : null; }
+
+    /**
+     * @return -> the cache data reads go to first, or null if they go straight to memory or over a bus
+     */
+    Cache getDataCache() { return bus == null && data instanceof Cache ? (Cache) data : null; }
+
+    /**
+     * Counts accesses made to memory without going through the hierarchy (see Memory.getDirectWords)
+     */
+    void countMemoryAccesses(long accesses) { main.setAccesses(main.getAccesses() + accesses); }
+
+    public List<Cache> getCaches() { return Collections.unmodifiableList(caches); }
+
+    /**
+     * One line per level, then the total cycles
+     */
+    public String getStatistics() {
+        StringBuilder s = new StringBuilder();
+        for (MemoryLevel level : levels) {
+            s.append(describe(level)).append('\n');
+        }
+        s.append("cycles ").append(getCycles());
+        return s.toString();
+    }
+
+    /**
+     * @return -> a level's line of the statistics
+     */
+    static String describe(MemoryLevel level) {
+        StringBuilder s = new StringBuilder(String.format("%-6s latency %3d, accesses %8d", level.getName(),
+                level.getLatency(), level.getAccesses()));
+        if (level instanceof Cache) {
+            Cache cache = (Cache) level;
+            s.append(": ").append(cache.getStatistics()).append(" [").append(cache.getConfig()).append(']');
+        }
+        return s.toString();
+    }
+
+    public String toString() { return spec; }
+}
@@ -0,0 +1,46 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Level - One level of the memory hierarchy (a cache, or main memory at the bottom)
+ *
+ * Words are read and written by the level above (or the CPU); whole blocks are moved by the cache above on a fill
+ * or write back, and count as a single access. Addresses are physical and already checked by Memory.
+ */
+
+package Memory;
+
+public interface MemoryLevel {
+
+    int read(int address);
+
+    void write(int address, int value);
+
+    void readBlock(int address, int[] into, int start, int length);
+
+    void writeBlock(int address, int[] from, int start, int length);
+
+    /**
+     * Counts a bulk (vector) access to a range without moving any words: one access per block of the range,
+     * and a miss passes the block on to the next level
+     */
+    void account(int address, int length);
+
+    /**
+     * Looks a word up without counting an access (for memory dumps)
+     */
+    int peek(int address);
+
+    String getName();
+
+    /**
+     * @return -> cycles charged for each access to this level
+     */
+    int getLatency();
+
+    /**
+     * @return -> accesses (word or block) since the statistics were reset
+     */
+    long getAccesses();
+
+    void resetStatistics();
+}
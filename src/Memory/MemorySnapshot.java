@@ -0,0 +1,49 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Memory Snapshot - The contents of a Memory at a checkpoint (Memory.checkpoint), to go back to with Memory.restore
+ *
+ * Memory is kept as pages of Memory.PAGE_SIZE words. A page is never changed once it is in a snapshot, so a page
+ * that wasn't written between two checkpoints is shared by both: a checkpoint copies only the pages written since the
+ * last one, and a restore only writes back the pages that differ. The caches (lines, write buffers, statistics) and
+ * the relocation registers are saved with the words.
+ */
+
+package Memory;
+
+public final class MemorySnapshot {
+
+    final Memory memory;
+    final short[][] pages;
+    final int base;
+    final int limit;
+    final boolean runningUserProgram;
+    final MemoryHierarchy hierarchy;
+    final MemoryHierarchy.State hierarchyState;
+
+    MemorySnapshot(Memory memory, short[][] pages, int base, int limit, boolean runningUserProgram,
+                   MemoryHierarchy hierarchy, MemoryHierarchy.State hierarchyState) {
+        this.memory = memory;
+        this.pages = pages;
+        this.base = base;
+        this.limit = limit;
+        this.runningUserProgram = runningUserProgram;
+        this.hierarchy = hierarchy;
+        this.hierarchyState = hierarchyState;
+    }
+
+    /**
+     * @return -> the number of pages this snapshot has in common with another one of the same memory
+     */
+    public int sharedPages(MemorySnapshot other) {
+        int shared = 0;
+        for (int page = 0; page < pages.length; page++) {
+            if (pages[page] == other.pages[page]) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    public int getPageCount() { return pages.length; }
+}
@@ -0,0 +1,298 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Program Image - A program in binary, ready to be copied into memory in blocks
+ *
+ * The file is big-endian:
+ * * header (16 bytes): magic "CSIM", version (2 bytes), flags (2), entry point (2), segment count (2), and a CRC-32
+ *   (4) of everything after the header
+ * * segments: load address (2), word count (2), then the words (2 each)
+ * * symbols (if flag SYMBOLS is set): count (2), then for each an address (2), a name length (1) and the name (UTF-8)
+ * Addresses are program locations, relocated like Memory.insert when the image is loaded (the boot program's are
+ * absolute, since it is loaded before a user program runs). The entry point is where the program starts.
+ *
+ * fromText reads the text formats the simulator has always loaded ("XXXX XXXX" hex pairs, or binary pairs), and the
+ * ProgramImageConverter turns them into image files.
+ */
+
+package Memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+public final class ProgramImage {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_SYMBOLS = 1;
+
+    private static final int MAGIC = 'C' << 24 | 'S' << 16 | 'I' << 8 | 'M';
+    private static final int HEADER_SIZE = 16;
+
+    private final int entry;
+    private final List<Segment> segments;
+    private final Map<String, Integer> symbols;
+
+    /**
+     * Words to be loaded at consecutive locations
+     */
+    public static final class Segment {
+        private final int address;
+        private final short[] words;
+
+        public Segment(int address, short[] words) {
+            this.address = address;
+            this.words = words;
+        }
+
+        public int getAddress() { return address; }
+
+        public int getLength() { return words.length; }
+
+        public int getWord(int i) { return words[i]; }
+    }
+
+    public ProgramImage(int entry, List<Segment> segments, Map<String, Integer> symbols) {
+        this.entry = entry;
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+        this.symbols = Collections.unmodifiableMap(new LinkedHashMap<>(symbols));
+    }
+
+    /**
+     * Copies every segment into memory, one block each (see Memory.insertBlock)
+     * @param memory -> the memory to load into
+     * @throws MemoryFault -> if a segment is outside the program's memory (nothing after it is loaded)
+     */
+    public void loadInto(Memory memory) {
+        for (Segment segment : segments) {
+            memory.insertBlock(segment.address, segment.words, 0, segment.words.length);
+        }
+    }
+
+    /* READING */
+
+    /**
+     * @return -> true if the file starts like an image (and isn't one of the text formats)
+     */
+    public static boolean isImage(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads an image file with one read of the whole file
+     */
+    public static ProgramImage read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to be a program image");
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading
+            }
+            bytes.flip();
+            return read(bytes);
+        }
+    }
+
+    /**
+     * Reads an image from a stream (a classpath resource, say)
+     */
+    public static ProgramImage read(InputStream in) throws IOException {
+        return read(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    /**
+     * Reads an image from its bytes, checking the header and the checksum
+     * @throws IOException -> if it isn't a version 1 image, is cut short or doesn't match its checksum
+     */
+    public static ProgramImage read(ByteBuffer bytes) throws IOException {
+        if (bytes.remaining() < HEADER_SIZE || bytes.getInt(bytes.position()) != MAGIC) {
+            throw new IOException("not a program image");
+        }
+        ByteBuffer header = bytes.slice().limit(HEADER_SIZE);
+        ByteBuffer body = bytes.slice().position(HEADER_SIZE);
+        header.getInt();
+        int version = Short.toUnsignedInt(header.getShort());
+        int flags = Short.toUnsignedInt(header.getShort());
+        int entry = Short.toUnsignedInt(header.getShort());
+        int segmentCount = Short.toUnsignedInt(header.getShort());
+        int checksum = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("program image version " + version + " isn't supported (only " + VERSION + ")");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("program image checksum doesn't match");
+        }
+
+        try {
+            List<Segment> segments = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                int address = Short.toUnsignedInt(body.getShort());
+                short[] words = new short[Short.toUnsignedInt(body.getShort())];
+                body.asShortBuffer().get(words);
+                body.position(body.position() + 2 * words.length);
+                segments.add(new Segment(address, words));
+            }
+            Map<String, Integer> symbols = new LinkedHashMap<>();
+            if ((flags & FLAG_SYMBOLS) != 0) {
+                int symbolCount = Short.toUnsignedInt(body.getShort());
+                for (int i = 0; i < symbolCount; i++) {
+                    int address = Short.toUnsignedInt(body.getShort());
+                    byte[] name = new byte[Byte.toUnsignedInt(body.get())];
+                    body.get(name);
+                    symbols.put(new String(name, StandardCharsets.UTF_8), address);
+                }
+            }
+            return new ProgramImage(entry, segments, symbols);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException: the counts say there is more than there is
+            throw new IOException("program image is cut short", e);
+        }
+    }
+
+    /**
+     * Reads one of the text formats: a location and a word per line, in hex ("XXXX XXXX") or in binary
+     * @param lines -> the lines of the file
+     * @param binary -> binary pairs instead of hex
+     * @param offset -> added to every location (the boot program is written from 0 but loaded at 8)
+     * @param entry -> the entry point
+     * @return -> the image; consecutive locations become one segment, and a location given twice keeps the last word
+     * @throws IOException -> if a line isn't a pair of numbers
+     */
+    public static ProgramImage fromText(List<String> lines, boolean binary, int offset, int entry) throws IOException {
+        TreeMap<Integer, Integer> words = new TreeMap<>();
+        int radix = binary ? 2 : 16;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] pair = line.split("\\s+");
+            try {
+                int location = Integer.parseInt(pair[0], radix) + offset;
+                int value = Integer.parseInt(pair[1], radix);
+                if (location < 0 || location >= MemoryBackend.MAX_SIZE || value < 0 || value > 0xFFFF) {
+                    throw new NumberFormatException("out of range");
+                }
+                words.put(location, value);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("line " + (i + 1) + " isn't a location and a word: " + line);
+            }
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        int start = -1;
+        int next = -1;
+        List<Integer> run = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> word : words.entrySet()) {
+            if (word.getKey() != next) {
+                addSegment(segments, start, run);
+                start = word.getKey();
+                run.clear();
+            }
+            run.add(word.getValue());
+            next = word.getKey() + 1;
+        }
+        addSegment(segments, start, run);
+        return new ProgramImage(entry, segments, Collections.emptyMap());
+    }
+
+    private static void addSegment(List<Segment> segments, int start, List<Integer> run) {
+        // a segment holds at most 0xFFFF words
+        for (int from = 0; from < run.size(); from += 0xFFFF) {
+            short[] words = new short[Math.min(0xFFFF, run.size() - from)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = (short) (int) run.get(from + i);
+            }
+            segments.add(new Segment(start + from, words));
+        }
+    }
+
+    /* WRITING */
+
+    /**
+     * Writes the image file (see the class comment)
+     */
+    public void write(Path file) throws IOException {
+        int size = 2;
+        for (Segment segment : segments) {
+            size += 4 + 2 * segment.words.length;
+        }
+        for (String name : symbols.keySet()) {
+            size += 3 + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        for (Segment segment : segments) {
+            body.putShort((short) segment.address).putShort((short) segment.words.length);
+            for (short word : segment.words) {
+                body.putShort(word);
+            }
+        }
+        if (!symbols.isEmpty()) {
+            body.putShort((short) symbols.size());
+            for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+                byte[] name = symbol.getKey().getBytes(StandardCharsets.UTF_8);
+                if (name.length > 255) {
+                    throw new IOException("symbol name is too long: " + symbol.getKey());
+                }
+                body.putShort((short) (int) symbol.getValue()).put((byte) name.length).put(name);
+            }
+        }
+        body.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putShort((short) (symbols.isEmpty() ? 0 : FLAG_SYMBOLS))
+                .putShort((short) entry)
+                .putShort((short) segments.size())
+                .putInt((int) crc.getValue());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = { header, body };
+            while (body.hasRemaining()) {
+                channel.write(parts);
+            }
+        }
+    }
+
+    public int getEntry() { return entry; }
+
+    public List<Segment> getSegments() { return segments; }
+
+    public Map<String, Integer> getSymbols() { return symbols; }
+
+    /**
+     * @return -> the number of words the image loads
+     */
+    public int getWordCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.words.length;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * SIMD Vector Unit - VADD/VSUB with the JDK Vector API, as many 16 bit words per step as the CPU's vectors hold
+ *
+ * The overflow/underflow test is done on the sign bits, lane by lane (see VectorUnit.flags), and the lanes are only
+ * combined once at the end. Only loaded by VectorUnit.create() when jdk.incubator.vector is available.
+ */
+
+package Memory;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class SimdVectorUnit extends VectorUnit {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    @Override
+    int addSubtract(short[] words, int dst, int src, int length, boolean subtract) {
+        if (overlapsBehind(dst, src)) {
+            return addSubtract(words, dst, src, 0, length, subtract);
+        }
+        int bound = SPECIES.loopBound(length);
+        ShortVector overflow = ShortVector.zero(SPECIES);
+        ShortVector underflow = ShortVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            ShortVector a = ShortVector.fromArray(SPECIES, words, dst + i);
+            ShortVector b = ShortVector.fromArray(SPECIES, words, src + i);
+            ShortVector result = subtract ? a.sub(b) : a.add(b);
+            ShortVector wrapped = wrapped(a, b, result, subtract);
+            overflow = overflow.or(wrapped.and(a.not()));
+            underflow = underflow.or(wrapped.and(a));
+            result.intoArray(words, dst + i);
+        }
+        return addSubtract(words, dst, src, i, length, subtract) | flags(overflow, underflow);
+    }
+
+    @Override
+    int addSubtract(ByteBuffer words, int dst, int src, int length, boolean subtract) {
+        if (overlapsBehind(dst, src)) {
+            return addSubtract(words, dst, src, 0, length, subtract);
+        }
+        ByteOrder order = words.order();
+        int bound = SPECIES.loopBound(length);
+        ShortVector overflow = ShortVector.zero(SPECIES);
+        ShortVector underflow = ShortVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            ShortVector a = ShortVector.fromByteBuffer(SPECIES, words, dst + i << 1, order);
+            ShortVector b = ShortVector.fromByteBuffer(SPECIES, words, src + i << 1, order);
+            ShortVector result = subtract ? a.sub(b) : a.add(b);
+            ShortVector wrapped = wrapped(a, b, result, subtract);
+            overflow = overflow.or(wrapped.and(a.not()));
+            underflow = underflow.or(wrapped.and(a));
+            result.intoByteBuffer(words, dst + i << 1, order);
+        }
+        return addSubtract(words, dst, src, i, length, subtract) | flags(overflow, underflow);
+    }
+
+    /**
+     * If v2 starts a little before v1, an element reads one written earlier in the same step; one at a time it would
+     * read the new value, so those go through the plain loop
+     */
+    private static boolean overlapsBehind(int dst, int src) {
+        return src < dst && dst - src < SPECIES.length();
+    }
+
+    /**
+     * Sign bit set in the lanes that wrapped around
+     */
+    private static ShortVector wrapped(ShortVector a, ShortVector b, ShortVector result, boolean subtract) {
+        ShortVector signs = subtract ? a.lanewise(VectorOperators.XOR, b) : a.lanewise(VectorOperators.XOR, b).not();
+        return signs.and(a.lanewise(VectorOperators.XOR, result));
+    }
+
+    private static int flags(ShortVector overflow, ShortVector underflow) {
+        int flags = 0;
+        if (overflow.reduceLanes(VectorOperators.OR) < 0) {
+            flags |= OVERFLOW;
+        }
+        if (underflow.reduceLanes(VectorOperators.OR) < 0) {
+            flags |= UNDERFLOW;
+        }
+        return flags;
+    }
+
+    @Override
+    String getName() { return "simd (" + SPECIES.length() + " lanes)"; }
+}
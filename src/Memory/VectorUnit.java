@@ -0,0 +1,112 @@
+/**
+ * CSCI 6461 - Fall 2022
+ *
+ * Vector Unit - The element loop behind VADD/VSUB, run in bulk on the memory words (see MemoryBackend)
+ *
+ * Words are 16 bit 2's complement: each pair of elements is added or subtracted and wrapped to 16 bits. An element
+ * that overflowed (pos + pos = neg) or underflowed (neg + neg = pos) sets the matching flag, like ALU.add does for a
+ * single word.
+ *
+ * Two versions:
+ * * SimdVectorUnit: the JDK Vector API (jdk.incubator.vector), used when the JVM was started with
+ *   --add-modules jdk.incubator.vector
+ * * ScalarVectorUnit: a plain loop, used otherwise
+ * -Dsimulator.vector=scalar forces the plain loop.
+ */
+
+package Memory;
+
+import java.nio.ByteBuffer;
+
+abstract class VectorUnit {
+
+    // Same bits as the ALU condition codes
+    static final int OVERFLOW = 1;
+    static final int UNDERFLOW = 1 << 1;
+
+    private static final String SIMD_MODULE = "jdk.incubator.vector";
+
+    /**
+     * words[dst + i] = words[dst + i] +/- words[src + i] for i < length, in order, so overlapping ranges give the
+     * same result as one element at a time
+     * @return -> OVERFLOW and/or UNDERFLOW if any element did
+     */
+    abstract int addSubtract(short[] words, int dst, int src, int length, boolean subtract);
+
+    /**
+     * The same on words kept 2 bytes each in a buffer (word i at byte 2 * i)
+     */
+    abstract int addSubtract(ByteBuffer words, int dst, int src, int length, boolean subtract);
+
+    abstract String getName();
+
+    /**
+     * The fastest unit this JVM can run (see the class comment)
+     */
+    static VectorUnit create() {
+        boolean simd = !"scalar".equalsIgnoreCase(System.getProperty("simulator.vector"))
+                && ModuleLayer.boot().findModule(SIMD_MODULE).isPresent();
+        if (simd) {
+            try {
+                return (VectorUnit) Class.forName("Memory.SimdVectorUnit").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the plain loop
+            }
+        }
+        return new ScalarVectorUnit();
+    }
+
+    /**
+     * The flags for one element: a + b (or a - b) gave result after wrapping
+     */
+    static int flags(int a, int b, int result, boolean subtract) {
+        int wrapped = subtract ? (a ^ b) & (a ^ result) : ~(a ^ b) & (a ^ result);
+        if ((short) wrapped >= 0) {
+            return 0;
+        }
+        return a < 0 ? UNDERFLOW : OVERFLOW;
+    }
+
+    /**
+     * One element at a time; also the tail of the SIMD loop and what it falls back to for overlapping ranges
+     */
+    static int addSubtract(short[] words, int dst, int src, int from, int to, boolean subtract) {
+        int flags = 0;
+        for (int i = from; i < to; i++) {
+            short a = words[dst + i];
+            short b = words[src + i];
+            short result = (short) (subtract ? a - b : a + b);
+            flags |= flags(a, b, result, subtract);
+            words[dst + i] = result;
+        }
+        return flags;
+    }
+
+    static int addSubtract(ByteBuffer words, int dst, int src, int from, int to, boolean subtract) {
+        int flags = 0;
+        for (int i = from; i < to; i++) {
+            short a = words.getShort(dst + i << 1);
+            short b = words.getShort(src + i << 1);
+            short result = (short) (subtract ? a - b : a + b);
+            flags |= flags(a, b, result, subtract);
+            words.putShort(dst + i << 1, result);
+        }
+        return flags;
+    }
+}
+
+class ScalarVectorUnit extends VectorUnit {
+
+    @Override
+    int addSubtract(short[] words, int dst, int src, int length, boolean subtract) {
+        return addSubtract(words, dst, src, 0, length, subtract);
+    }
+
+    @Override
+    int addSubtract(ByteBuffer words, int dst, int src, int length, boolean subtract) {
+        return addSubtract(words, dst, src, 0, length, subtract);
+    }
+
+    @Override
+    String getName() { return "scalar"; }
+}
@@ -1,11 +1,17 @@
 import GUI.GUI;
+import Machine.Headless;
 
 public class Simulator {
 	public static void main(String[] args) {
+		// With a program file on the command line, run it without the GUI
+		if (args.length > 0) {
+			Headless.main(args);
+			return;
+		}
 		// From oracle docs: Schedule a job for the event-dispatching thread: creating and showing this application's GUI.
 		javax.swing.SwingUtilities.invokeLater(() -> {
 			GUI simulatorGUI = new GUI();
 			simulatorGUI.startMachine();
 		});
 	}
-}
+}
\ No newline at end of file